@@ -134,3 +134,21 @@ tasks.withType<Test> {
         showStandardStreams = true
     }
 }
+
+// Suorituskykyvertailut (@Tag("perf")) ajetaan erikseen, eivät yksikkötestien mukana
+tasks.named<Test>("test") {
+    useJUnitPlatform {
+        excludeTags("perf")
+    }
+}
+
+tasks.register<Test>("perfTest") {
+    description = "Runs performance comparisons tagged with perf."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("perf")
+    }
+    shouldRunAfter(tasks.named("test"))
+}
@@ -33,7 +33,8 @@ import org.apache.http.protocol.HttpContext;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -56,7 +57,7 @@ public class OphHttpClient {
     private final String callerId;
 
     private final ThreadLocal<HttpContext> localContext = ThreadLocal.withInitial(BasicHttpContext::new);
-    private HashMap<String, Boolean> csrfCookiesCreateForHost = new HashMap<>();
+    private final Set<String> csrfCookiesCreatedForHost = ConcurrentHashMap.newKeySet();
 
     private OphHttpClient(Builder builder) {
         logUtil = new LogUtil(builder.allowUrlLogging, builder.connectionTimeoutMs, builder.socketTimeoutMs);
@@ -133,7 +134,7 @@ public class OphHttpClient {
                 localContext.get().removeAttribute(CasUtil.getCasAttributeName());
                 this.authenticator.clearSession();
                 cookieStore.clear();
-                csrfCookiesCreateForHost = new HashMap<>();
+                csrfCookiesCreatedForHost.clear();
 
                 try { response.close(); } catch (IOException e) { throw new RuntimeException(e); }
                 return execute(request, false);
@@ -147,9 +148,8 @@ public class OphHttpClient {
         return response;
     }
 
-    private synchronized void ensureCSRFCookie(String host) {
-        if (!csrfCookiesCreateForHost.containsKey(host)) {
-            csrfCookiesCreateForHost.put(host, true);
+    private void ensureCSRFCookie(String host) {
+        if (!csrfCookiesCreatedForHost.contains(host) && csrfCookiesCreatedForHost.add(host)) {
             BasicClientCookie cookie = new BasicClientCookie("CSRF", CSRF);
             cookie.setDomain(host);
             cookie.setPath("/");
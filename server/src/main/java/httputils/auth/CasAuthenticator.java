@@ -1,12 +1,17 @@
 package httputils.auth;
 
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.cookie.Cookie;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
 @Slf4j
 @Getter
 public class CasAuthenticator implements Authenticator {
@@ -24,8 +29,22 @@ public class CasAuthenticator implements Authenticator {
     private boolean addSpringSecSuffix;
     private String sessionCookieName;
 
-    private String serviceAsAUserTicket;
-    private Cookie sessionCookieValue;
+    /**
+     * Current ticket and session cookie. Requests read it without locking; renewal is single-flight: the thread
+     * that installs a new future fetches the ticket and other threads wait on the same future.
+     */
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<CompletableFuture<Session>> session = new AtomicReference<>();
+
+    /**
+     * The session this thread used for its latest request, so that clearSession only discards the session that was
+     * rejected and not one another thread has already renewed.
+     */
+    @Getter(AccessLevel.NONE)
+    private final ThreadLocal<CompletableFuture<Session>> sessionUsedByThread = new ThreadLocal<>();
+
+    private record Session(String serviceAsAUserTicket, Cookie sessionCookieValue) {
+    }
 
     public CasAuthenticator(Builder builder) {
         webCasUrl = builder.webCasUrl;
@@ -39,45 +58,89 @@ public class CasAuthenticator implements Authenticator {
 
     @Override
     public void clearSession() {
-        serviceAsAUserTicket = null;
-        sessionCookieValue = null;
+        CompletableFuture<Session> rejected = sessionUsedByThread.get();
+        sessionUsedByThread.remove();
+        if (rejected != null) {
+            session.compareAndSet(rejected, null);
+        }
     }
 
-    @Override
-    public synchronized boolean authenticate(final HttpUriRequest req, CookieStore cookieStore) {
-        if (serviceAsAUserTicket == null) {
-            checkNotNull(getUsername(), "username");
-            checkNotNull(getPassword(), "password");
-            checkNotNull(getWebCasUrl(), "webCasUrl");
-            checkNotNull(getCasServiceUrl(), "casService");
-            this.serviceAsAUserTicket = obtainNewCasServiceAsAUserTicket();
-            log.info("got new serviceAsAUser ticket, service: " + getCasServiceUrl() + ", ticket: " + getServiceAsAUserTicket());
-        }
+    public String getServiceAsAUserTicket() {
+        CompletableFuture<Session> current = session.get();
+        return current != null && current.isDone() && !current.isCompletedExceptionally()
+                ? current.join().serviceAsAUserTicket()
+                : null;
+    }
 
-        if(sessionCookieName != null && sessionCookieValue == null) {
-            this.sessionCookieValue = this.initCookieSessionToService(serviceAsAUserTicket);
-            log.info("got new serviceSessionCookie, cookie: " + sessionCookieValue);
-            cookieStore.addCookie(sessionCookieValue);
+    @Override
+    public boolean authenticate(final HttpUriRequest req, CookieStore cookieStore) {
+        CompletableFuture<Session> sessionFuture = currentOrRenewedSession();
+        sessionUsedByThread.set(sessionFuture);
+        Session current;
+        try {
+            current = sessionFuture.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
         }
 
-        if(sessionCookieValue == null) {
-            req.setHeader(CAS_SECURITY_TICKET, serviceAsAUserTicket);
+        if (current.sessionCookieValue() != null) {
+            // Another thread may have cleared the cookie store after a rejected request, so add the cookie every time
+            cookieStore.addCookie(current.sessionCookieValue());
+        } else {
+            req.setHeader(CAS_SECURITY_TICKET, current.serviceAsAUserTicket());
         }
 
         setKayttajaHeaders(req, getUsername(), getUsername());
-        log.debug("set serviceAsAUser ticket to header, service: " + getCasServiceUrl() + ", ticket: " + getServiceAsAUserTicket() + ", currentUser: " + getUsername() + ", callAsUser: " + getUsername());
+        log.debug("set serviceAsAUser ticket to header, service: " + getCasServiceUrl() + ", ticket: " + current.serviceAsAUserTicket() + ", currentUser: " + getUsername() + ", callAsUser: " + getUsername());
         return true;
     }
 
+    private CompletableFuture<Session> currentOrRenewedSession() {
+        while (true) {
+            CompletableFuture<Session> current = session.get();
+            if (current != null && !current.isCompletedExceptionally()) {
+                return current;
+            }
+
+            CompletableFuture<Session> renewal = new CompletableFuture<>();
+            if (session.compareAndSet(current, renewal)) {
+                try {
+                    renewal.complete(obtainNewSession());
+                } catch (RuntimeException e) {
+                    // Failed renewal is not kept, so the next request retries instead of failing until restart
+                    session.compareAndSet(renewal, null);
+                    renewal.completeExceptionally(e);
+                }
+                return renewal;
+            }
+        }
+    }
+
+    private Session obtainNewSession() {
+        checkNotNull(getUsername(), "username");
+        checkNotNull(getPassword(), "password");
+        checkNotNull(getWebCasUrl(), "webCasUrl");
+        checkNotNull(getCasServiceUrl(), "casService");
+        String ticket = obtainNewCasServiceAsAUserTicket();
+        log.info("got new serviceAsAUser ticket, service: " + getCasServiceUrl() + ", ticket: " + ticket);
+
+        Cookie cookie = null;
+        if (sessionCookieName != null) {
+            cookie = initCookieSessionToService(ticket);
+            log.info("got new serviceSessionCookie, cookie: " + cookie);
+        }
+        return new Session(ticket, cookie);
+    }
+
     private void checkNotNull(String value, String name) {
         if (value == null) throw new NullPointerException(String.format("CasAuthenticator.%s is null, and guess what, it shouldn't!", name));
     }
 
-    private String obtainNewCasServiceAsAUserTicket() {
+    protected String obtainNewCasServiceAsAUserTicket() {
         return CasClient.getTicket(webCasUrl + "/v1/tickets", username, password, getCasServiceUrl(), addSpringSecSuffix);
     }
 
-    private Cookie initCookieSessionToService(String serviceTicket) {
+    protected Cookie initCookieSessionToService(String serviceTicket) {
         return CasClient.initServiceSession(this.casServiceSessionInitUrl, serviceTicket, this.sessionCookieName);
     }
 
@@ -0,0 +1,65 @@
+package db.migration
+
+import fi.oph.ludos.Language
+import fi.oph.ludos.assignment.extractLinksFromHtmlContent
+import org.flywaydb.core.api.migration.BaseJavaMigration
+import org.flywaydb.core.api.migration.Context
+
+/**
+ * Täyttää olemassa olevien PUHVI-tehtäväversioiden linkit. Linkit poimitaan samalla funktiolla kuin
+ * tallennettaessa, jotta vanhat ja uudet versiot käyttäytyvät samoin.
+ */
+@Suppress("ClassName")
+class V0031__Backfill_puhvi_assignment_links : BaseJavaMigration() {
+    override fun migrate(context: Context) {
+        val connection = context.connection
+        val selectContent = connection.prepareStatement(
+            """
+            SELECT assignment_id,
+                   assignment_version,
+                   ARRAY_AGG(assignment_content_content ORDER BY assignment_content_order_index) FILTER (WHERE assignment_content_language = '${Language.FI}') AS content_fi,
+                   ARRAY_AGG(assignment_content_content ORDER BY assignment_content_order_index) FILTER (WHERE assignment_content_language = '${Language.SV}') AS content_sv
+            FROM puhvi_assignment_content
+            GROUP BY assignment_id, assignment_version
+            """.trimIndent()
+        )
+        val updateLinks = connection.prepareStatement(
+            """
+            UPDATE puhvi_assignment
+            SET puhvi_assignment_links_fi = ?, puhvi_assignment_links_sv = ?
+            WHERE assignment_id = ? AND assignment_version = ?
+            """.trimIndent()
+        )
+
+        selectContent.use {
+            updateLinks.use {
+                selectContent.fetchSize = BATCH_SIZE
+                selectContent.executeQuery().use { rs ->
+                    var batched = 0
+                    while (rs.next()) {
+                        fun links(column: String) = connection.createArrayOf(
+                            "text",
+                            extractLinksFromHtmlContent(
+                                (rs.getArray(column)?.array as Array<*>?)?.filterIsInstance<String>() ?: emptyList()
+                            ).toTypedArray()
+                        )
+
+                        updateLinks.setArray(1, links("content_fi"))
+                        updateLinks.setArray(2, links("content_sv"))
+                        updateLinks.setInt(3, rs.getInt("assignment_id"))
+                        updateLinks.setInt(4, rs.getInt("assignment_version"))
+                        updateLinks.addBatch()
+                        if (++batched % BATCH_SIZE == 0) {
+                            updateLinks.executeBatch()
+                        }
+                    }
+                    updateLinks.executeBatch()
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 500
+    }
+}
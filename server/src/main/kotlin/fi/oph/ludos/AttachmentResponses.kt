@@ -0,0 +1,167 @@
+package fi.oph.ludos
+
+import fi.oph.ludos.aws.Bucket
+import fi.oph.ludos.aws.DownloadResponseHeaders
+import fi.oph.ludos.aws.PresignedDownloads
+import fi.oph.ludos.aws.S3Helper
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.core.io.InputStreamResource
+import org.springframework.http.CacheControl
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpRange
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.http.ResponseEntity
+import org.springframework.stereotype.Component
+import org.springframework.util.MimeTypeUtils
+import org.springframework.web.context.request.ServletWebRequest
+import org.springframework.web.context.request.WebRequest
+import org.springframework.web.filter.ShallowEtagHeaderFilter
+import org.springframework.web.server.ResponseStatusException
+import software.amazon.awssdk.core.exception.SdkException
+import java.io.InputStream
+import java.io.SequenceInputStream
+import java.time.Duration
+import java.util.Enumeration
+
+/**
+ * PDF-liitteiden vastaukset HTTP Range -tuella. Liitteiden avaimet ovat muuttumattomia, joten avain toimii vahvana
+ * ETagina. Range-pyynnön välit haetaan S3:sta vain pyydetyiltä osin, jolloin selaimen PDF-katselin saa ensimmäisen
+ * sivun lataamatta koko tiedostoa ja keskeytynyt lataus voi jatkua. Useampi väli palautetaan
+ * multipart/byteranges-muodossa. Jos If-Range ei vastaa ETagia tai Range-otsake on virheellinen, palautetaan koko
+ * tiedosto. Jos allekirjoitetut lataukset ovat käytössä, selain ohjataan lataamaan liite suoraan S3:sta.
+ */
+@Component
+class AttachmentResponses(private val s3Helper: S3Helper, private val presignedDownloads: PresignedDownloads) {
+    private val logger: Logger = LoggerFactory.getLogger(javaClass)
+
+    fun pdfResponse(bucket: Bucket, attachment: AttachmentOut, request: WebRequest): ResponseEntity<InputStreamResource> {
+        // Liitettä ei puskuroida muistiin ETagin laskemista varten, koska ETag on jo tiedossa
+        (request as? ServletWebRequest)?.let { ShallowEtagHeaderFilter.disableContentCaching(it.request) }
+
+        val key = attachment.fileKey
+        val contentDisposition = "inline; filename=\"${attachment.fileName}\""
+        val cacheControl = CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable()
+        if (presignedDownloads.enabled) {
+            // S3 käsittelee myös Range-pyynnöt
+            return presignedDownloads.redirect(
+                bucket, key,
+                DownloadResponseHeaders(MediaType.APPLICATION_PDF_VALUE, contentDisposition, cacheControl.headerValue)
+            )
+        }
+
+        val etag = "\"$key\""
+        val headers = HttpHeaders().apply {
+            set(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
+            set(HttpHeaders.ACCEPT_RANGES, "bytes")
+            setETag(etag)
+            setCacheControl(cacheControl)
+        }
+
+        val ranges = requestedRanges(request, etag)
+        if (ranges == null) {
+            val inputStream = fromS3(key) { s3Helper.getObject(bucket, key) }
+            return ResponseEntity.ok().headers(headers).contentType(MediaType.APPLICATION_PDF)
+                .body(InputStreamResource(inputStream))
+        }
+
+        val size = fromS3(key) { s3Helper.getObjectSize(bucket, key) }
+        val requestedByteRanges = ranges.mapNotNull { range ->
+            try {
+                range.getRangeStart(size)..range.getRangeEnd(size)
+            } catch (_: IllegalArgumentException) {
+                null
+            }
+        }
+        // Kuten HttpRange.toResourceRegions, hylätään monen välin pyyntö, joka on yhteensä koko tiedostoa pidempi.
+        // Päällekkäiset ja vierekkäiset välit yhdistetään, ettei samaa kohtaa haeta S3:sta moneen kertaan.
+        val requestedBytes = requestedByteRanges.sumOf { it.last - it.first + 1 }
+        val byteRanges = if (requestedByteRanges.size > 1 && requestedBytes > size) {
+            emptyList()
+        } else {
+            coalesce(requestedByteRanges)
+        }
+        if (byteRanges.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */$size").build()
+        }
+
+        if (byteRanges.size == 1) {
+            val range = byteRanges.single()
+            val inputStream = fromS3(key) { s3Helper.getObjectRange(bucket, key, range.first, range.last) }
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers)
+                .contentType(MediaType.APPLICATION_PDF)
+                .contentLength(range.last - range.first + 1)
+                .header(HttpHeaders.CONTENT_RANGE, contentRange(range, size))
+                .body(InputStreamResource(inputStream))
+        }
+
+        val boundary = MimeTypeUtils.generateMultipartBoundaryString()
+        val parts = byteRanges.map { range ->
+            val partHeader = "\r\n--$boundary\r\n" +
+                "${HttpHeaders.CONTENT_TYPE}: ${MediaType.APPLICATION_PDF_VALUE}\r\n" +
+                "${HttpHeaders.CONTENT_RANGE}: ${contentRange(range, size)}\r\n\r\n"
+            partHeader.toByteArray(Charsets.US_ASCII) to range
+        }
+        val end = "\r\n--$boundary--\r\n".toByteArray(Charsets.US_ASCII)
+        val contentLength = parts.sumOf { (partHeader, range) -> partHeader.size + range.last - range.first + 1 } + end.size
+
+        // Välit avataan S3:sta vasta, kun edellinen on kirjoitettu vastaukseen
+        val streams: List<() -> InputStream> = parts.flatMap { (partHeader, range) ->
+            listOf(
+                { partHeader.inputStream() },
+                { fromS3(key) { s3Helper.getObjectRange(bucket, key, range.first, range.last) } }
+            )
+        } + { end.inputStream() }
+
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers)
+            .contentType(MediaType.parseMediaType("multipart/byteranges; boundary=$boundary"))
+            .contentLength(contentLength)
+            .body(InputStreamResource(SequenceInputStream(lazyEnumeration(streams))))
+    }
+
+    private fun requestedRanges(request: WebRequest, etag: String): List<HttpRange>? {
+        val range = request.getHeader(HttpHeaders.RANGE) ?: return null
+        val ifRange = request.getHeader(HttpHeaders.IF_RANGE)
+        // If-Range voi olla myös päivämäärä, mutta Last-Modifiedia ei lähetetä, joten se ei koskaan täsmää
+        if (ifRange != null && ifRange != etag) {
+            return null
+        }
+        return try {
+            HttpRange.parseRanges(range).takeIf { it.isNotEmpty() }
+        } catch (_: IllegalArgumentException) {
+            null
+        }
+    }
+
+    private fun coalesce(ranges: List<LongRange>): List<LongRange> =
+        ranges.sortedBy { it.first }.fold(mutableListOf()) { merged, range ->
+            val previous = merged.lastOrNull()
+            if (previous != null && range.first <= previous.last + 1) {
+                merged[merged.lastIndex] = previous.first..maxOf(previous.last, range.last)
+            } else {
+                merged.add(range)
+            }
+            merged
+        }
+
+    private fun contentRange(range: LongRange, size: Long) = "bytes ${range.first}-${range.last}/$size"
+
+    private fun <T> fromS3(key: String, fetch: () -> T?): T =
+        try {
+            fetch()
+        } catch (ex: SdkException) {
+            val errorMsg = "Failed to get attachment '$key' from S3"
+            logger.error(errorMsg, ex)
+            throw ResponseStatusException(HttpStatus.BAD_GATEWAY, errorMsg)
+        } ?: throw ResponseStatusException(HttpStatus.NOT_FOUND, "Attachment '$key' not found in S3")
+
+    private fun lazyEnumeration(streams: List<() -> InputStream>): Enumeration<InputStream> {
+        val iterator = streams.iterator()
+        return object : Enumeration<InputStream> {
+            override fun hasMoreElements() = iterator.hasNext()
+            override fun nextElement() = iterator.next()()
+        }
+    }
+}
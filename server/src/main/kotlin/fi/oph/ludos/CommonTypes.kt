@@ -49,6 +49,18 @@ data class ContentOutFieldsImpl(
 
 interface ContentBaseOut : ContentBase, ContentOutFields
 
+// Versiohistorian rivi ilman sisältöä, koko versio haetaan tarvittaessa /{exam}/{id}/{version}-reitiltä
+data class ContentVersionDtoOut(
+    val id: Int,
+    val exam: Exam,
+    val contentType: ContentType,
+    val version: Int,
+    val publishState: PublishState,
+    val updaterOid: String,
+    val updaterName: String?,
+    val updatedAt: Timestamp
+)
+
 // NOTE: This enum must match the postgres enum type language
 enum class Language {
     FI,
@@ -89,6 +89,7 @@ class Config : WebMvcConfigurer {
 
     }
 
+    // Sisältörajapinnat laskevat ETagin itse (ContentEtags) ja ohittavat tämän suodattimen puskuroinnin
     @Bean
     fun shallowEtagHeaderFilter(): ShallowEtagHeaderFilter {
         return ShallowEtagHeaderFilter()
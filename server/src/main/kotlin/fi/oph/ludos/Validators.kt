@@ -5,7 +5,13 @@ import jakarta.validation.ConstraintValidator
 import jakarta.validation.ConstraintValidatorContext
 import jakarta.validation.Payload
 import jakarta.validation.constraints.Size
-import org.jsoup.Jsoup
+import org.jsoup.nodes.DataNode
+import org.jsoup.nodes.Document
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Node
+import org.jsoup.nodes.TextNode
+import org.jsoup.parser.Parser
+import org.jsoup.parser.StreamParser
 import org.jsoup.safety.Safelist
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -68,7 +74,7 @@ annotation class PlainText(
 class PlainTextValidator : ConstraintValidator<PlainText, String> {
     override fun isValid(input: String?, context: ConstraintValidatorContext?): Boolean {
         if (input == null) return true
-        return Jsoup.isValid(input, Safelist.none())
+        return isSafeHtml(input, plainTextRules)
     }
 }
 
@@ -86,12 +92,67 @@ val htmlSafelist: Safelist = Safelist.relaxed()
     .addAttributes("a", "href", "target", "rel")
     .removeProtocols("img", "src", "http", "https")
 
+/**
+ * Safelistin sallitut tagit ja attribuutit. Safelistin tarkistusmetodit ovat suojattuja, joten ne
+ * tarjotaan aliluokan kautta.
+ */
+class HtmlSafetyRules(safelist: Safelist) : Safelist(safelist) {
+    fun isSafeElement(element: Element): Boolean =
+        isSafeTag(element.normalName()) &&
+            element.attributes().all { isSafeAttribute(element.normalName(), element, it) }
+
+    // Valmiit lapsielementit on jo tarkistettu ja poistettu, joten jäljellä on vain tekstiä, dataa ja kommentteja
+    fun isSafeLeafNode(node: Node, parentTagName: String): Boolean = when (node) {
+        is Element, is TextNode -> true
+        is DataNode -> isSafeTag(parentTagName)
+        else -> false
+    }
+}
+
+val plainTextRules = HtmlSafetyRules(Safelist.none())
+val htmlSafetyRules = HtmlSafetyRules(htmlSafelist)
+
+/**
+ * Sama tulos kuin Jsoup.isValid(html, safelist), mutta ilman siivottua kopiopuuta: elementit tarkistetaan
+ * StreamParserilla sitä mukaa kun ne valmistuvat ja poistetaan heti, joten muistissa on kerrallaan vain
+ * avoinna oleva polku. Jäsennysvirhe tai ensimmäinen kielletty solmu lopettaa jäsennyksen.
+ */
+fun isSafeHtml(html: String, rules: HtmlSafetyRules): Boolean {
+    val parser = Parser.htmlParser().setTrackErrors(1)
+    val context = Document.createShell("").body()
+
+    StreamParser(parser).use { streamParser ->
+        streamParser.parseFragment(html, context, "")
+        for (element in streamParser.stream()) {
+            // Fragmentin juurielementti ei ole osa sisältöä, sen lapset tarkistetaan lopuksi
+            if (element.parent() is Document) continue
+            if (!rules.isSafeElement(element)) return false
+            if (!element.childNodes().all { rules.isSafeLeafNode(it, element.normalName()) }) return false
+            if (parser.errors.isNotEmpty()) return false
+            element.remove()
+        }
+        // Ylimmän tason solmut päätyvät Jsoup.isValidissa body-elementin alle
+        if (!streamParser.completeFragment().all { rules.isSafeLeafNode(it, context.normalName()) }) return false
+    }
+    return parser.errors.isEmpty()
+}
+
+// Suuret listat (esim. sata 1 Mt:n sisältölohkoa) tarkistetaan rinnakkain, pienet pyynnön säikeessä
+const val PARALLEL_HTML_VALIDATION_THRESHOLD = 256 * 1024
+
+fun isSafeHtmlList(input: List<String>, rules: HtmlSafetyRules): Boolean =
+    if (input.size > 1 && input.sumOf { it.length } >= PARALLEL_HTML_VALIDATION_THRESHOLD) {
+        input.parallelStream().allMatch { isSafeHtml(it, rules) }
+    } else {
+        input.all { isSafeHtml(it, rules) }
+    }
+
 class SafeHtmlValidator : ConstraintValidator<SafeHtml, String> {
     val logger: Logger = LoggerFactory.getLogger(javaClass)
 
     override fun isValid(input: String?, context: ConstraintValidatorContext?): Boolean {
         if (input == null) return true
-        return Jsoup.isValid(input, htmlSafelist)
+        return isSafeHtml(input, htmlSafetyRules)
     }
 }
 
@@ -107,7 +168,7 @@ annotation class SafeHtmlList(
 class SafeHtmlListValidator : ConstraintValidator<SafeHtmlList, List<String>> {
     override fun isValid(input: List<String>?, context: ConstraintValidatorContext?): Boolean {
         if (input == null) return true
-        return input.all { Jsoup.isValid(it, htmlSafelist) }
+        return isSafeHtmlList(input, htmlSafetyRules)
     }
 }
 
@@ -15,6 +15,9 @@ import jakarta.validation.constraints.Pattern
 import jakarta.validation.constraints.Size
 import org.jsoup.Jsoup
 import java.sql.Timestamp
+import java.time.Instant
+import java.time.temporal.ChronoUnit
+import java.util.Base64
 import kotlin.reflect.KClass
 
 fun extractLinksFromHtmlContent(htmlContentList: List<String>): List<String> {
@@ -317,11 +320,11 @@ data class PuhviAssignmentDtoOut(
     override val version: Int,
     override val assignmentTypeKoodiArvo: String,
     override val lukuvuosiKoodiArvos: List<String>,
-    val linksFi: List<String> = extractLinksFromHtmlContent(emptyList()),
-    val linksSv: List<String> = extractLinksFromHtmlContent(emptyList()),
+    val linksFi: List<String> = emptyList(),
+    val linksSv: List<String> = emptyList(),
     override val exam: Exam = Exam.PUHVI
 ) : AssignmentOut, PuhviAssignmentMetadata {
-    constructor(assignment: PuhviAssignmentDtoIn, out: ContentOutFieldsImpl) : this(
+    constructor(assignment: PuhviAssignmentDtoIn, out: ContentOutFieldsImpl, links: PuhviAssignmentLinks) : this(
         id = out.id,
         nameFi = assignment.nameFi,
         nameSv = assignment.nameSv,
@@ -339,8 +342,16 @@ data class PuhviAssignmentDtoOut(
         version = out.version,
         assignmentTypeKoodiArvo = assignment.assignmentTypeKoodiArvo,
         lukuvuosiKoodiArvos = assignment.lukuvuosiKoodiArvos,
-        linksFi = extractLinksFromHtmlContent(assignment.contentFi),
-        linksSv = extractLinksFromHtmlContent(assignment.contentSv)
+        linksFi = links.linksFi,
+        linksSv = links.linksSv
+    )
+}
+
+// Linkit poimitaan sisällöstä tallennettaessa ja tallennetaan versioriville, jotta lukiessa ei jäsennetä HTML:ää
+data class PuhviAssignmentLinks(val linksFi: List<String>, val linksSv: List<String>) {
+    constructor(assignment: PuhviAssignmentDtoIn) : this(
+        extractLinksFromHtmlContent(assignment.contentFi),
+        extractLinksFromHtmlContent(assignment.contentSv)
     )
 }
 
@@ -474,6 +485,10 @@ interface AssignmentBaseFilters : BaseFilters {
 
     @get:Min(1)
     val sivu: Int
+
+    // Kun kursori on annettu, sivutus tehdään sen perusteella ja sivu-parametri jätetään huomiotta
+    @get:Pattern(regexp = "^[A-Za-z0-9_-]+\$")
+    val kursori: String?
 }
 
 data class SukoFilters(
@@ -487,7 +502,8 @@ data class SukoFilters(
     val aihe: String?,
     @field:Pattern(regexp = "^[0-9,]+\$")
     val tavoitetaitotaso: String?,
-    override val sivu: Int = 1
+    override val sivu: Int = 1,
+    override val kursori: String? = null
 ) : AssignmentBaseFilters
 
 data class LdFilters(
@@ -497,7 +513,8 @@ data class LdFilters(
     @field:Pattern(regexp = "^[0-9,]+\$")
     val aine: String?,
     override val sivu: Int = 1,
-    val kieli: Language = Language.FI
+    val kieli: Language = Language.FI,
+    override val kursori: String? = null
 ) : AssignmentBaseFilters
 
 data class PuhviFilters(
@@ -507,7 +524,8 @@ data class PuhviFilters(
     @field:Pattern(regexp = "^[0-9,]+\$")
     val lukuvuosi: String?,
     override val sivu: Int = 1,
-    val kieli: Language = Language.FI
+    val kieli: Language = Language.FI,
+    override val kursori: String? = null
 ) : AssignmentBaseFilters
 
 @Target(AnnotationTarget.CLASS)
@@ -537,11 +555,56 @@ data class AssignmentFilterOptionsDtoOut(
 
 data class AssignmentListDtoOut(
     val content: List<AssignmentCardOut>,
-    val totalPages: Int,
-    val currentPage: Int,
-    val assignmentFilterOptions: AssignmentFilterOptionsDtoOut
+    // Sivunumerot ovat mukana vain sivunumeroin sivutettaessa, kursorisivuilla ne ovat null
+    val totalPages: Int?,
+    val currentPage: Int?,
+    val assignmentFilterOptions: AssignmentFilterOptionsDtoOut,
+    val nextCursor: String? = null,
+    val prevCursor: String? = null
 )
 
+enum class AssignmentListCursorDirection {
+    NEXT,
+    PREV
+}
+
+/**
+ * Avaimeen (assignment_created_at, assignment_id) perustuva sivutuskursori. Asiakkaalle kursori näkyy
+ * läpinäkymättömänä merkkijonona, jonka se välittää takaisin kursori-parametrissa.
+ */
+data class AssignmentListCursor(
+    val createdAt: Timestamp,
+    val id: Int,
+    val direction: AssignmentListCursorDirection
+) {
+    fun encode(): String {
+        val createdAtMicros = ChronoUnit.MICROS.between(Instant.EPOCH, createdAt.toInstant())
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString("$direction:$createdAtMicros:$id".toByteArray(Charsets.UTF_8))
+    }
+
+    companion object {
+        fun next(card: AssignmentCardOut) =
+            AssignmentListCursor(card.createdAt, card.id, AssignmentListCursorDirection.NEXT)
+
+        fun prev(card: AssignmentCardOut) =
+            AssignmentListCursor(card.createdAt, card.id, AssignmentListCursorDirection.PREV)
+
+        fun decode(cursor: String): AssignmentListCursor? = try {
+            val (direction, createdAtMicros, id) = String(Base64.getUrlDecoder().decode(cursor), Charsets.UTF_8)
+                .split(":")
+                .takeIf { it.size == 3 } ?: return null
+            AssignmentListCursor(
+                createdAt = Timestamp.from(Instant.EPOCH.plus(createdAtMicros.toLong(), ChronoUnit.MICROS)),
+                id = id.toInt(),
+                direction = AssignmentListCursorDirection.valueOf(direction)
+            )
+        } catch (e: IllegalArgumentException) {
+            null
+        }
+    }
+}
+
 const val ASSIGNMENT_PAGE_SIZE = 20
 
 interface FavoriteFolder {
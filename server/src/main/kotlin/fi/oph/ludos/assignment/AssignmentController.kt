@@ -1,23 +1,27 @@
 package fi.oph.ludos.assignment
 
 import fi.oph.ludos.Constants
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.ContentVersionDtoOut
 import fi.oph.ludos.Exam
 import fi.oph.ludos.auth.Kayttajatiedot
 import fi.oph.ludos.auth.RequireAtLeastOpettajaRole
 import fi.oph.ludos.auth.RequireAtLeastYllapitajaRole
+import fi.oph.ludos.cache.ContentEtags
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.validation.Valid
 import org.springframework.http.HttpStatus
 import org.springframework.http.ResponseEntity
 import org.springframework.validation.annotation.Validated
 import org.springframework.web.bind.annotation.*
+import org.springframework.web.context.request.WebRequest
 import org.springframework.web.server.ResponseStatusException
 
 @RestController
 @Validated
 @RequireAtLeastYllapitajaRole
 @RequestMapping("${Constants.API_PREFIX}/assignment")
-class AssignmentController(val service: AssignmentService) {
+class AssignmentController(val service: AssignmentService, val contentEtags: ContentEtags) {
     @PostMapping("")
     @RequireAtLeastYllapitajaRole
     fun createAssignment(@Valid @RequestBody assignment: AssignmentIn, request: HttpServletRequest): AssignmentOut =
@@ -38,44 +42,73 @@ class AssignmentController(val service: AssignmentService) {
     @GetMapping("/SUKO")
     @RequireAtLeastOpettajaRole
     fun getSukoAssignments(
-        @Valid filters: SukoFilters
-    ): AssignmentListDtoOut = service.getAssignments(filters)
+        @Valid filters: SukoFilters,
+        request: WebRequest
+    ): ResponseEntity<AssignmentListDtoOut> =
+        contentEtags.ifChanged(request, ContentType.ASSIGNMENT) { service.getAssignments(filters) }
 
     @GetMapping("/LD")
     @RequireAtLeastOpettajaRole
     fun getLdAssignments(
-        @Valid filters: LdFilters
-    ): AssignmentListDtoOut = service.getAssignments(filters)
+        @Valid filters: LdFilters,
+        request: WebRequest
+    ): ResponseEntity<AssignmentListDtoOut> =
+        contentEtags.ifChanged(request, ContentType.ASSIGNMENT) { service.getAssignments(filters) }
 
     @GetMapping("/PUHVI")
     @RequireAtLeastOpettajaRole
     fun getPuhviAssignments(
-        @Valid filters: PuhviFilters
-    ): AssignmentListDtoOut = service.getAssignments(filters)
+        @Valid filters: PuhviFilters,
+        request: WebRequest
+    ): ResponseEntity<AssignmentListDtoOut> =
+        contentEtags.ifChanged(request, ContentType.ASSIGNMENT) { service.getAssignments(filters) }
 
     @GetMapping("/{exam}/{id}")
     @RequireAtLeastOpettajaRole
-    fun getAssignment(@PathVariable exam: Exam, @PathVariable("id") id: Int): AssignmentOut =
+    fun getAssignment(
+        @PathVariable exam: Exam,
+        @PathVariable("id") id: Int,
+        request: WebRequest
+    ): ResponseEntity<AssignmentOut> = contentEtags.ifChanged(request, ContentType.ASSIGNMENT) {
         service.getAssignmentById(exam, id, null) ?: throw ResponseStatusException(
             HttpStatus.NOT_FOUND,
             "Assignment $id not found"
         )
+    }
+
+    @GetMapping("/{exam}/{id}/history")
+    @RequireAtLeastYllapitajaRole
+    fun getAssignmentVersionHistory(
+        @PathVariable exam: Exam,
+        @PathVariable id: Int,
+        request: WebRequest
+    ): ResponseEntity<List<ContentVersionDtoOut>> = contentEtags.ifChanged(request, ContentType.ASSIGNMENT) {
+        service.getVersionHistory(exam, id)
+    }
 
     @GetMapping("/{exam}/{id}/versions")
     @RequireAtLeastYllapitajaRole
-    fun getAllVersionsOfAssignment(@PathVariable exam: Exam, @PathVariable id: Int): List<AssignmentOut> =
+    fun getAllVersionsOfAssignment(
+        @PathVariable exam: Exam,
+        @PathVariable id: Int,
+        request: WebRequest
+    ): ResponseEntity<List<AssignmentOut>> = contentEtags.ifChanged(request, ContentType.ASSIGNMENT) {
         service.getAllVersionsOfAssignment(exam, id)
+    }
 
     @GetMapping("/{exam}/{id}/{version}")
     @RequireAtLeastYllapitajaRole
     fun getAssignmentVersion(
         @PathVariable exam: Exam,
         @PathVariable("id") id: Int,
-        @PathVariable("version") version: Int
-    ): AssignmentOut = service.getAssignmentById(exam, id, version) ?: throw ResponseStatusException(
-        HttpStatus.NOT_FOUND,
-        "Assignment $id or its version $version not found"
-    )
+        @PathVariable("version") version: Int,
+        request: WebRequest
+    ): ResponseEntity<AssignmentOut> = contentEtags.ifChanged(request, ContentType.ASSIGNMENT) {
+        service.getAssignmentById(exam, id, version) ?: throw ResponseStatusException(
+            HttpStatus.NOT_FOUND,
+            "Assignment $id or its version $version not found"
+        )
+    }
 
     @PostMapping("/{exam}/{id}/{version}/restore")
     @RequireAtLeastYllapitajaRole
@@ -134,17 +167,28 @@ class AssignmentController(val service: AssignmentService) {
 
     @GetMapping("/favorites/{exam}")
     @RequireAtLeastOpettajaRole
-    fun getFavoriteIds(@PathVariable exam: Exam): FavoriteIdsDtoOut = service.getFavorites(exam, null)
+    fun getFavoriteIds(@PathVariable exam: Exam, request: WebRequest): ResponseEntity<FavoriteIdsDtoOut> =
+        contentEtags.ifChanged(request, ContentType.ASSIGNMENT, includeFavorites = true) {
+            service.getFavorites(exam, null)
+        }
 
     @GetMapping("/favorites/{exam}/cardFolders")
     @RequireAtLeastOpettajaRole
-    fun getFavoriteCardFolders(@PathVariable exam: Exam): FavoriteCardFolderDtoOut =
-        service.getFavoriteCardFolders(exam)
+    fun getFavoriteCardFolders(@PathVariable exam: Exam, request: WebRequest): ResponseEntity<FavoriteCardFolderDtoOut> =
+        contentEtags.ifChanged(request, ContentType.ASSIGNMENT, includeFavorites = true) {
+            service.getFavoriteCardFolders(exam)
+        }
 
     @GetMapping("/favorites/{exam}/{assignmentId}")
     @RequireAtLeastOpettajaRole
-    fun getFavoriteIdsForAssignment(@PathVariable exam: Exam, @PathVariable assignmentId: Int): FavoriteIdsDtoOut =
-        service.getFavorites(exam, assignmentId)
+    fun getFavoriteIdsForAssignment(
+        @PathVariable exam: Exam,
+        @PathVariable assignmentId: Int,
+        request: WebRequest
+    ): ResponseEntity<FavoriteIdsDtoOut> =
+        contentEtags.ifChanged(request, ContentType.ASSIGNMENT, includeFavorites = true) {
+            service.getFavorites(exam, assignmentId)
+        }
 
     @PutMapping("/favorites/{exam}/{assignmentId}")
     @RequireAtLeastOpettajaRole
@@ -156,5 +200,8 @@ class AssignmentController(val service: AssignmentService) {
 
     @GetMapping("/favorites/count")
     @RequireAtLeastOpettajaRole
-    fun getFavoriteAssignmentsCount(): Int = service.getFavoriteAssignmentsCount()
+    fun getFavoriteAssignmentsCount(request: WebRequest): ResponseEntity<Int> =
+        contentEtags.ifChanged(request, ContentType.ASSIGNMENT, includeFavorites = true) {
+            service.getFavoriteAssignmentsCount()
+        }
 }
\ No newline at end of file
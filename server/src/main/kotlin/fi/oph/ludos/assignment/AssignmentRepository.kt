@@ -3,14 +3,22 @@ package fi.oph.ludos.assignment
 import fi.oph.ludos.*
 import fi.oph.ludos.auth.Kayttajatiedot
 import fi.oph.ludos.auth.Role
+import fi.oph.ludos.cache.BoundedCache
+import fi.oph.ludos.cache.CacheInvalidationBus
+import fi.oph.ludos.cache.CacheName
+import fi.oph.ludos.cache.ContentChangeCounter
 import fi.oph.ludos.koodisto.KoodistoName
 import fi.oph.ludos.koodisto.KoodistoService
 import fi.oph.ludos.repository.getKotlinList
+import fi.oph.ludos.repository.publishStateCondition
+import fi.oph.ludos.repository.queryVersionHistory
 import org.slf4j.LoggerFactory
+import org.springframework.cache.CacheManager
 import org.springframework.dao.DataIntegrityViolationException
 import org.springframework.dao.EmptyResultDataAccessException
 import org.springframework.http.HttpStatus
 import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.ResultSetExtractor
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
 import org.springframework.jdbc.support.GeneratedKeyHolder
@@ -36,13 +44,13 @@ class AssignmentRepository(
     private val jdbcTemplate: JdbcTemplate,
     private val transactionTemplate: TransactionTemplate,
     private val koodistoService: KoodistoService,
+    private val cacheManager: CacheManager,
+    private val cacheInvalidationBus: CacheInvalidationBus,
+    private val contentChangeCounter: ContentChangeCounter,
 ) {
     private val logger = LoggerFactory.getLogger(javaClass)
 
-    private fun publishStateFilter(role: Role) = when (role) {
-        Role.OPETTAJA -> " AND a.assignment_publish_state = '${PublishState.PUBLISHED}'"
-        else -> " AND a.assignment_publish_state in ('${PublishState.PUBLISHED}', '${PublishState.DRAFT}')"
-    }
+    private fun publishStateFilter(role: Role) = " ${publishStateCondition("a.assignment_publish_state", role)}"
 
     val mapSukoListResultSet: (ResultSet, Int) -> SukoAssignmentDtoOut = { rs: ResultSet, _: Int ->
         SukoAssignmentDtoOut(
@@ -133,16 +141,14 @@ class AssignmentRepository(
     }
 
     val mapPuhviResultSet: (ResultSet, Int) -> PuhviAssignmentDtoOut = { rs: ResultSet, _: Int ->
-        val contentFi = rs.getKotlinList<String>("assignment_content_fi")
-        val contentSv = rs.getKotlinList<String>("assignment_content_sv")
         PuhviAssignmentDtoOut(
             id = rs.getInt("assignment_id"),
             nameFi = rs.getString("assignment_name_fi"),
             nameSv = rs.getString("assignment_name_sv"),
             instructionFi = rs.getString("assignment_instruction_fi"),
             instructionSv = rs.getString("assignment_instruction_sv"),
-            contentFi = contentFi,
-            contentSv = contentSv,
+            contentFi = rs.getKotlinList("assignment_content_fi"),
+            contentSv = rs.getKotlinList("assignment_content_sv"),
             publishState = PublishState.valueOf(rs.getString("assignment_publish_state")),
             createdAt = rs.getTimestamp("assignment_created_at"),
             updatedAt = rs.getTimestamp("assignment_updated_at"),
@@ -153,8 +159,8 @@ class AssignmentRepository(
             version = rs.getInt("assignment_version"),
             assignmentTypeKoodiArvo = rs.getString("puhvi_assignment_assignment_type_koodi_arvo"),
             lukuvuosiKoodiArvos = rs.getKotlinList<String>("puhvi_assignment_lukuvuosi_koodi_arvos"),
-            linksFi = extractLinksFromHtmlContent(contentFi),
-            linksSv = extractLinksFromHtmlContent(contentSv)
+            linksFi = rs.getKotlinList<String>("puhvi_assignment_links_fi"),
+            linksSv = rs.getKotlinList<String>("puhvi_assignment_links_sv")
         )
     }
 
@@ -181,17 +187,20 @@ class AssignmentRepository(
         Exam.LD -> "ld_assignment"
     }
 
+    private fun latestVersionTableNameByExam(exam: Exam) = "${tableNameByExam(exam)}_latest_version"
+
+    private fun latestVersionJoin(exam: Exam) =
+        "INNER JOIN ${latestVersionTableNameByExam(exam)} latest_version ON a.assignment_id = latest_version.assignment_id AND a.assignment_version = latest_version.assignment_version"
+
     private fun getLatestAssignmentDataForNewVersion(id: Int, exam: Exam): Triple<Int, String, Timestamp>? = try {
+        // Lukitaan osoitinrivi, jotta samanaikaiset uudet versiot samasta tehtävästä sarjallistuvat
         jdbcTemplate.queryForObject(
             """
-            SELECT assignment_version, assignment_author_oid, assignment_created_at
-            FROM ${tableNameByExam(exam)}
-            WHERE assignment_id = ? AND assignment_version = (
-                SELECT MAX(assignment_version) 
-                FROM ${tableNameByExam(exam)} 
-                WHERE assignment_id = ?
-            ) 
-            FOR UPDATE;""".trimIndent(),
+            SELECT a.assignment_version, a.assignment_author_oid, a.assignment_created_at
+            FROM ${tableNameByExam(exam)} a
+            ${latestVersionJoin(exam)}
+            WHERE a.assignment_id = ?
+            FOR UPDATE OF latest_version;""".trimIndent(),
             { rs, _ ->
                 Triple(
                     rs.getInt("assignment_version"),
@@ -199,36 +208,164 @@ class AssignmentRepository(
                     rs.getTimestamp("assignment_created_at")
                 )
             },
-            id, id
+            id
         )
     } catch (e: EmptyResultDataAccessException) {
         null
     }
 
+    private fun setLatestAssignmentVersion(exam: Exam, assignmentId: Int, assignmentVersion: Int) {
+        jdbcTemplate.update(
+            """
+            INSERT INTO ${latestVersionTableNameByExam(exam)} (assignment_id, assignment_version)
+            VALUES (?, ?)
+            ON CONFLICT (assignment_id) DO UPDATE SET assignment_version = EXCLUDED.assignment_version""".trimIndent(),
+            assignmentId,
+            assignmentVersion
+        )
+    }
+
     fun getAssignments(assignmentFilter: AssignmentBaseFilters): AssignmentListDtoOut {
         val role = Kayttajatiedot.fromSecurityContext().role
-
-        // NOTE: both metadata and data can be fetched relatively easily in a single query if required: https://opetushallitus.slack.com/archives/D04TDKGKMK9/p1697460263573769
-        val (metadataQuery, metadataParameters, metadataExtractor) = buildListMetadataQuery(
-            assignmentFilter,
-            role
-        )
-        val metadata = namedJdbcTemplate.query(metadataQuery, metadataParameters, metadataExtractor)
+        val cursor = decodeCursor(assignmentFilter)
 
         val (listQuery, listParameters, listMapper) = buildListQuery(assignmentFilter, role)
-        val assignments = namedJdbcTemplate.query(listQuery, listParameters, listMapper)
+
+        val metadataCache = cacheManager.getCache(CacheName.ASSIGNMENT_LIST_METADATA.key)
+        val metadataCacheKey = listMetadataCacheKey(assignmentFilter, role)
+        val cachedMetadata = metadataCache?.get(metadataCacheKey)?.get() as? AssignmentListMetadata
+
+        val (metadata, rows) = if (cachedMetadata != null) {
+            Pair(cachedMetadata, namedJdbcTemplate.query(listQuery, listParameters, listMapper))
+        } else {
+            // Jos välimuisti mitätöidään kyselyn aikana, luetut metatiedot voivat olla jo vanhentuneita
+            val metadataGeneration = (metadataCache as? BoundedCache)?.generation()
+            val (metadataQuery, metadataParameters, metadataMapper) = buildListMetadataQuery(
+                assignmentFilter,
+                role
+            )
+
+            // Metatiedot ja sivun tehtävät haetaan yhdellä kyselyllä: jokaisella rivillä on samat metatiedot,
+            // ja jos sivu on tyhjä, LEFT JOIN palauttaa silti yhden rivin metatietoja varten.
+            val query = StringBuilder(
+                """
+                WITH metadata AS ($metadataQuery),
+                     page AS ($listQuery)
+                SELECT metadata.*, page.*
+                FROM metadata LEFT JOIN page ON TRUE
+                """.trimIndent()
+            )
+            addOrderClause(query, effectiveOrderDirection(assignmentFilter.jarjesta, cursor))
+
+            val parameters = MapSqlParameterSource()
+            parameters.addValues(metadataParameters.values)
+            parameters.addValues(listParameters.values)
+
+            namedJdbcTemplate.query(
+                query.toString(),
+                parameters,
+                listWithMetadataResultSetExtractor(metadataMapper, listMapper)
+            )!!.also { (metadata, _) ->
+                when {
+                    metadataCache is BoundedCache && metadataGeneration != null ->
+                        metadataCache.putIfGeneration(metadataCacheKey, metadata, metadataGeneration)
+
+                    else -> metadataCache?.put(metadataCacheKey, metadata)
+                }
+            }
+        }
 
         val totalCount = metadata.totalCount
         val totalPages = if (totalCount == 0) 1 else (totalCount + ASSIGNMENT_PAGE_SIZE - 1) / ASSIGNMENT_PAGE_SIZE
 
+        val (assignments, hasNext, hasPrev) = if (cursor == null) {
+            Triple(
+                rows,
+                assignmentFilter.sivu * ASSIGNMENT_PAGE_SIZE < totalCount,
+                assignmentFilter.sivu > 1
+            )
+        } else {
+            // Kursorisivuilla haetaan yksi ylimääräinen rivi, jotta tiedetään onko hakusuunnassa lisää rivejä.
+            // Vastakkaiseen suuntaan tarkistetaan erikseen, koska kursorin takana olleet rivit ovat voineet poistua listalta.
+            val hasMore = rows.size > ASSIGNMENT_PAGE_SIZE
+            val page = rows.take(ASSIGNMENT_PAGE_SIZE)
+            when (cursor.direction) {
+                AssignmentListCursorDirection.NEXT -> Triple(
+                    page,
+                    hasMore,
+                    page.firstOrNull()?.let { hasRowsBeyond(assignmentFilter, role, AssignmentListCursor.prev(it)) } ?: false
+                )
+
+                AssignmentListCursorDirection.PREV -> page.reversed().let { reversedPage ->
+                    Triple(
+                        reversedPage,
+                        reversedPage.lastOrNull()?.let { hasRowsBeyond(assignmentFilter, role, AssignmentListCursor.next(it)) } ?: false,
+                        hasMore
+                    )
+                }
+            }
+        }
+
         return AssignmentListDtoOut(
             assignments,
-            totalPages,
-            assignmentFilter.sivu,
-            metadata.assignmentFilterOptions
+            totalPages.takeIf { cursor == null },
+            assignmentFilter.sivu.takeIf { cursor == null },
+            metadata.assignmentFilterOptions,
+            nextCursor = assignments.lastOrNull()?.takeIf { hasNext }?.let { AssignmentListCursor.next(it).encode() },
+            prevCursor = assignments.firstOrNull()?.takeIf { hasPrev }?.let { AssignmentListCursor.prev(it).encode() }
         )
     }
 
+    // Suodatinvaihtoehdot ja osumien määrä riippuvat vain roolista ja suodattimista, eivät sivusta tai järjestyksestä
+    private fun listMetadataCacheKey(filters: AssignmentBaseFilters, role: Role): Pair<Role, BaseFilters> =
+        role to when (filters) {
+            is SukoFilters -> filters.copy(jarjesta = null, sivu = 1, kursori = null)
+            is LdFilters -> filters.copy(jarjesta = null, sivu = 1, kursori = null)
+            is PuhviFilters -> filters.copy(jarjesta = null, sivu = 1, kursori = null)
+            else -> throw UnknownError("Unknown assignment filter ${filters::class.simpleName}")
+        }
+
+    private fun withCursor(filters: AssignmentBaseFilters, cursor: AssignmentListCursor): BaseFilters = when (filters) {
+        is SukoFilters -> filters.copy(kursori = cursor.encode())
+        is LdFilters -> filters.copy(kursori = cursor.encode())
+        is PuhviFilters -> filters.copy(kursori = cursor.encode())
+        else -> throw UnknownError("Unknown assignment filter ${filters::class.simpleName}")
+    }
+
+    private fun hasRowsBeyond(filters: AssignmentBaseFilters, role: Role, boundary: AssignmentListCursor): Boolean {
+        val (query, parameters, _) = buildListQuery(withCursor(filters, boundary), role)
+        return namedJdbcTemplate.queryForObject("SELECT EXISTS ($query)", parameters, Boolean::class.java) == true
+    }
+
+    private fun decodeCursor(filters: AssignmentBaseFilters): AssignmentListCursor? = filters.kursori?.let {
+        AssignmentListCursor.decode(it) ?: throw ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor")
+    }
+
+    private fun isAscending(orderDirection: String?) = orderDirection.equals("asc", ignoreCase = true)
+
+    // Edellisen sivun kursorilla rivit haetaan käänteisessä järjestyksessä ja käännetään takaisin sovelluksessa
+    private fun effectiveOrderDirection(orderDirection: String?, cursor: AssignmentListCursor?): String {
+        val ascending = isAscending(orderDirection) xor (cursor?.direction == AssignmentListCursorDirection.PREV)
+        return if (ascending) "ASC" else "DESC"
+    }
+
+    private fun listWithMetadataResultSetExtractor(
+        metadataMapper: (ResultSet) -> AssignmentListMetadata,
+        listMapper: (ResultSet, Int) -> AssignmentCardOut
+    ) = ResultSetExtractor { rs: ResultSet ->
+        var metadata: AssignmentListMetadata? = null
+        val assignments = mutableListOf<AssignmentCardOut>()
+        while (rs.next()) {
+            if (metadata == null) {
+                metadata = metadataMapper(rs)
+            }
+            if (rs.getObject("assignment_id") != null) {
+                assignments.add(listMapper(rs, assignments.size))
+            }
+        }
+        Pair(metadata ?: throw IllegalStateException("Assignment list metadata row missing"), assignments.toList())
+    }
+
     private fun buildListMetadataQuery(
         filters: BaseFilters, role: Role
     ): Triple<String, MapSqlParameterSource, (ResultSet) -> AssignmentListMetadata> = when (filters) {
@@ -253,17 +390,46 @@ class AssignmentRepository(
                    ARRAY_AGG(content.assignment_content_content ORDER BY content.assignment_content_order_index) FILTER (WHERE content.assignment_content_language = '${Language.SV}') AS assignment_content_sv
         """.trimIndent()
 
-    private fun baseAssignmentListQuery(exam: Exam): Pair<StringBuilder, MapSqlParameterSource> {
-        val table = tableNameByExam(exam)
+    private val commonAssignmentCardColumns = listOf(
+        "assignment_id",
+        "assignment_version",
+        "assignment_publish_state",
+        "assignment_name_fi",
+        "assignment_name_sv",
+        "assignment_created_at",
+        "assignment_updated_at",
+        "assignment_author_oid",
+        "assignment_updater_oid",
+    )
+
+    private fun assignmentCardColumns(exam: Exam): String {
+        val examColumns = when (exam) {
+            Exam.SUKO -> listOf(
+                "suko_assignment_assignment_type_koodi_arvo",
+                "suko_assignment_oppimaara_koodi_arvo",
+                "suko_assignment_oppimaara_kielitarjonta_koodi_arvo",
+                "suko_assignment_tavoitetaso_koodi_arvo",
+                "suko_assignment_aihe_koodi_arvos",
+            )
+
+            Exam.LD -> listOf("ld_assignment_lukuvuosi_koodi_arvos", "ld_assignment_aine_koodi_arvo")
+            Exam.PUHVI -> listOf("puhvi_assignment_assignment_type_koodi_arvo", "puhvi_assignment_lukuvuosi_koodi_arvos")
+        }
+        return (commonAssignmentCardColumns + examColumns).joinToString(", ") { "a.$it" }
+    }
+
+    private fun cardMapperByExam(exam: Exam): (ResultSet, Int) -> AssignmentCardOut = when (exam) {
+        Exam.SUKO -> mapSukoMinimumListResultSet
+        Exam.LD -> mapLdMinimumResultSet
+        Exam.PUHVI -> mapPuhviMinimumResultSet
+    }
 
+    // Korteissa ei näytetä sisältöä, joten sisältötauluja ei liitetä listauskyselyihin lainkaan
+    private fun baseAssignmentListQuery(exam: Exam): Pair<StringBuilder, MapSqlParameterSource> {
         val query = """
-            $baseAssignmentSelectQuery
-            FROM $table a
-                INNER JOIN (SELECT assignment_id, MAX(assignment_version) AS max_version
-                         FROM $table
-                         GROUP BY assignment_id) latest_version ON a.assignment_id = latest_version.assignment_id AND
-                                                                   a.assignment_version = latest_version.max_version
-                LEFT JOIN ${table}_content content ON a.assignment_id = content.assignment_id AND a.assignment_version = content.assignment_version
+            SELECT ${assignmentCardColumns(exam)}
+            FROM ${tableNameByExam(exam)} a
+                ${latestVersionJoin(exam)}
             WHERE true
         """.trimIndent()
 
@@ -285,7 +451,20 @@ class AssignmentRepository(
     }
 
     private fun addOrderClause(query: StringBuilder, orderDirection: String?) {
-        query.append(" ORDER BY assignment_created_at ${orderDirection ?: "DESC"}")
+        val direction = orderDirection ?: "DESC"
+        query.append(" ORDER BY assignment_created_at $direction, assignment_id $direction")
+    }
+
+    private fun addCursorCondition(
+        query: StringBuilder,
+        parameters: MapSqlParameterSource,
+        orderDirection: String?,
+        cursor: AssignmentListCursor
+    ) {
+        val operator = if (effectiveOrderDirection(orderDirection, cursor) == "ASC") ">" else "<"
+        query.append(" AND (a.assignment_created_at, a.assignment_id) $operator (:cursorCreatedAt, :cursorId)")
+        parameters.addValue("cursorCreatedAt", cursor.createdAt)
+        parameters.addValue("cursorId", cursor.id)
     }
 
     private fun addPageLimitAndOffset(
@@ -305,11 +484,19 @@ class AssignmentRepository(
         parameters: MapSqlParameterSource,
         noLimit: Boolean
     ) {
+        val cursor = decodeCursor(filters)
         query.append(publishStateFilter(role))
-        query.append(" GROUP BY a.assignment_id, a.assignment_version")
-        addOrderClause(query, filters.jarjesta)
+        if (cursor != null) {
+            addCursorCondition(query, parameters, filters.jarjesta, cursor)
+        }
+        addOrderClause(query, effectiveOrderDirection(filters.jarjesta, cursor))
         if (!noLimit) {
-            addPageLimitAndOffset(query, parameters, filters.sivu)
+            if (cursor != null) {
+                query.append(" LIMIT :limit")
+                parameters.addValue("limit", ASSIGNMENT_PAGE_SIZE + 1)
+            } else {
+                addPageLimitAndOffset(query, parameters, filters.sivu)
+            }
         }
     }
 
@@ -398,8 +585,7 @@ class AssignmentRepository(
         return Triple(queryBuilder.toString(), parameters, mapSukoMinimumListResultSet)
     }
 
-    private val sukoListMetadataResultSetExtractor: (ResultSet) -> AssignmentListMetadata = { rs: ResultSet ->
-        rs.next()
+    private val sukoListMetadataRowMapper: (ResultSet) -> AssignmentListMetadata = { rs: ResultSet ->
         val oppimaaraPairs = rs.getKotlinList<Array<String?>>("oppimaara_array")
         AssignmentListMetadata(
             assignmentFilterOptions = AssignmentFilterOptionsDtoOut(
@@ -428,35 +614,29 @@ class AssignmentRepository(
             """
     WITH latestVersions AS (
     SELECT distinct (a.assignment_id) as assignmentIds
-    FROM suko_assignment a
-             INNER JOIN (SELECT assignment_id, MAX(assignment_version) AS max_version
-                         FROM suko_assignment
-                         GROUP BY assignment_id) latest_version
-                        ON a.assignment_id = latest_version.assignment_id
-                        AND a.assignment_version = latest_version.max_version
+    FROM suko_assignment a ${latestVersionJoin(Exam.SUKO)}
     WHERE TRUE ${buildFilters(filters)})
 
     SELECT
         (SELECT count(assignmentIds) FROM latestVersions) AS filtered_assignment_count,
         ARRAY(SELECT DISTINCT ARRAY[suko_assignment_oppimaara_koodi_arvo, suko_assignment_oppimaara_kielitarjonta_koodi_arvo] as oppimaara_pairs
-              FROM suko_assignment a WHERE TRUE ${buildFilters(filters.copy(oppimaara = null))}
+              FROM suko_assignment a ${latestVersionJoin(Exam.SUKO)} WHERE TRUE ${buildFilters(filters.copy(oppimaara = null))}
               ORDER BY oppimaara_pairs) AS oppimaara_array,
         ARRAY(SELECT DISTINCT suko_assignment_assignment_type_koodi_arvo
-              FROM suko_assignment a WHERE TRUE ${buildFilters(filters.copy(tehtavatyyppisuko = null))}
+              FROM suko_assignment a ${latestVersionJoin(Exam.SUKO)} WHERE TRUE ${buildFilters(filters.copy(tehtavatyyppisuko = null))}
               ORDER BY suko_assignment_assignment_type_koodi_arvo) AS assignment_type_array,
         ARRAY(SELECT DISTINCT unnest(suko_assignment_aihe_koodi_arvos) as aihe_koodi_arvo
-              FROM suko_assignment a WHERE TRUE ${buildFilters(filters.copy(aihe = null))}
+              FROM suko_assignment a ${latestVersionJoin(Exam.SUKO)} WHERE TRUE ${buildFilters(filters.copy(aihe = null))}
               ORDER BY aihe_koodi_arvo) AS aihe_array,
         ARRAY(SELECT DISTINCT suko_assignment_tavoitetaso_koodi_arvo
-              FROM suko_assignment a WHERE TRUE ${buildFilters(filters.copy(tavoitetaitotaso = null))}
+              FROM suko_assignment a ${latestVersionJoin(Exam.SUKO)} WHERE TRUE ${buildFilters(filters.copy(tavoitetaitotaso = null))}
               ORDER BY suko_assignment_tavoitetaso_koodi_arvo) AS tavoitetaso_array
      """.trimIndent()
 
-        return Triple(query, parameters, sukoListMetadataResultSetExtractor)
+        return Triple(query, parameters, sukoListMetadataRowMapper)
     }
 
-    private val ldListMetadataResultSetExtractor: (ResultSet) -> AssignmentListMetadata = { rs: ResultSet ->
-        rs.next()
+    private val ldListMetadataRowMapper: (ResultSet) -> AssignmentListMetadata = { rs: ResultSet ->
         AssignmentListMetadata(
             assignmentFilterOptions = AssignmentFilterOptionsDtoOut(
                 lukuvuosi = rs.getKotlinList("lukuvuosi_array"),
@@ -482,25 +662,20 @@ class AssignmentRepository(
             """
     WITH latestVersions AS (
     SELECT distinct (a.assignment_id) as assignmentIds
-    FROM ld_assignment a
-             INNER JOIN (SELECT assignment_id, MAX(assignment_version) AS max_version
-                         FROM ld_assignment
-                         GROUP BY assignment_id) latest_version
-                        ON a.assignment_id = latest_version.assignment_id
-                        AND a.assignment_version = latest_version.max_version
+    FROM ld_assignment a ${latestVersionJoin(Exam.LD)}
     WHERE TRUE ${buildFilters(filters)})
 
     SELECT
         (SELECT count(assignmentIds) FROM latestVersions) AS filtered_assignment_count,
         ARRAY(SELECT DISTINCT ld_assignment_aine_koodi_arvo
-              FROM ld_assignment a WHERE TRUE ${buildFilters(filters.copy(aine = null))}
+              FROM ld_assignment a ${latestVersionJoin(Exam.LD)} WHERE TRUE ${buildFilters(filters.copy(aine = null))}
               ORDER BY ld_assignment_aine_koodi_arvo) AS aine_array,
         ARRAY(SELECT DISTINCT UNNEST(ld_assignment_lukuvuosi_koodi_arvos) as lukuvuosi
-              FROM ld_assignment a WHERE TRUE ${buildFilters(filters.copy(lukuvuosi = null))}
+              FROM ld_assignment a ${latestVersionJoin(Exam.LD)} WHERE TRUE ${buildFilters(filters.copy(lukuvuosi = null))}
               ORDER BY lukuvuosi) AS lukuvuosi_array
          """.trimIndent()
 
-        return Triple(query, parameters, ldListMetadataResultSetExtractor)
+        return Triple(query, parameters, ldListMetadataRowMapper)
     }
 
     private fun ldFilters(filters: LdFilters): Pair<String, MapSqlParameterSource> {
@@ -541,8 +716,7 @@ class AssignmentRepository(
         return Triple(queryBuilder.toString(), parameters, mapLdMinimumResultSet)
     }
 
-    private val puhviListMetadataResultSetExtractor: (ResultSet) -> AssignmentListMetadata = { rs: ResultSet ->
-        rs.next()
+    private val puhviListMetadataRowMapper: (ResultSet) -> AssignmentListMetadata = { rs: ResultSet ->
         AssignmentListMetadata(
             assignmentFilterOptions = AssignmentFilterOptionsDtoOut(
                 tehtavatyyppi = rs.getKotlinList("assignment_type_array"),
@@ -567,25 +741,20 @@ class AssignmentRepository(
         val query = """
     WITH latestVersions AS (
     SELECT distinct (a.assignment_id) as assignmentIds
-    FROM puhvi_assignment a
-             INNER JOIN (SELECT assignment_id, MAX(assignment_version) AS max_version
-                         FROM puhvi_assignment
-                         GROUP BY assignment_id) latest_version
-                        ON a.assignment_id = latest_version.assignment_id
-                        AND a.assignment_version = latest_version.max_version
+    FROM puhvi_assignment a ${latestVersionJoin(Exam.PUHVI)}
     WHERE TRUE ${buildFilters(filters)})
 
     SELECT
         (SELECT count(assignmentIds) FROM latestVersions) AS filtered_assignment_count,
         ARRAY(SELECT DISTINCT puhvi_assignment_assignment_type_koodi_arvo
-              FROM puhvi_assignment a WHERE TRUE ${buildFilters(filters.copy(tehtavatyyppipuhvi = null))}
+              FROM puhvi_assignment a ${latestVersionJoin(Exam.PUHVI)} WHERE TRUE ${buildFilters(filters.copy(tehtavatyyppipuhvi = null))}
               ORDER BY puhvi_assignment_assignment_type_koodi_arvo) AS assignment_type_array,
         ARRAY(SELECT DISTINCT UNNEST(puhvi_assignment_lukuvuosi_koodi_arvos) as lukuvuosi
-              FROM puhvi_assignment a WHERE TRUE ${buildFilters(filters.copy(lukuvuosi = null))}
+              FROM puhvi_assignment a ${latestVersionJoin(Exam.PUHVI)} WHERE TRUE ${buildFilters(filters.copy(lukuvuosi = null))}
               ORDER BY lukuvuosi) AS lukuvuosi_array
      """.trimIndent()
 
-        return Triple(query, parameters, puhviListMetadataResultSetExtractor)
+        return Triple(query, parameters, puhviListMetadataRowMapper)
     }
 
     private fun puhviFilters(filters: PuhviFilters): Pair<String, MapSqlParameterSource> {
@@ -634,29 +803,77 @@ class AssignmentRepository(
     ) {
         val table = tableNameByExam(exam)
 
-        val insertContentSql = """
-                    INSERT INTO ${table}_content (
-                        assignment_id,
-                        assignment_content_language, 
-                        assignment_content_order_index,
-                        assignment_content_content,
-                        assignment_version
-                        ) 
-                    VALUES (?, ?::language, ?, ?, ?)
-                """.trimIndent()
-
-        contentFi.forEachIndexed { index, content ->
-            jdbcTemplate.update(
-                insertContentSql, assignmentId, Language.FI.toString(), index, content, assignmentVersion
-            )
+        val languages = contentFi.map { Language.FI.toString() } + contentSv.map { Language.SV.toString() }
+        val orderIndexes = contentFi.indices.toList() + contentSv.indices.toList()
+        val contents = contentFi + contentSv
+        if (contents.isNotEmpty()) {
+            insertAssignmentContentRows(table, assignmentId, assignmentVersion, languages, orderIndexes, contents)
         }
-        contentSv.forEachIndexed { index, content ->
-            jdbcTemplate.update(
-                insertContentSql, assignmentId, Language.SV.toString(), index, content, assignmentVersion
+        updateAssignmentSearchVectors(table, assignmentId, assignmentVersion)
+    }
+
+    // Kaikki sisältörivit yhdellä monirivisellä INSERTillä, jotta tallennuksen kesto ja uuden version
+    // luonnin aikana pidetty lukko eivät kasva sisältölohkojen määrän mukana
+    private fun insertAssignmentContentRows(
+        table: String,
+        assignmentId: Int,
+        assignmentVersion: Int,
+        languages: List<String>,
+        orderIndexes: List<Int>,
+        contents: List<String>
+    ) {
+        jdbcTemplate.update { con ->
+            val ps = con.prepareStatement(
+                """
+                INSERT INTO ${table}_content (
+                    assignment_id,
+                    assignment_content_language,
+                    assignment_content_order_index,
+                    assignment_content_content,
+                    assignment_version
+                )
+                SELECT ?, content.language::language, content.order_index, content.content, ?
+                FROM unnest(?::text[], ?::int[], ?::text[]) AS content(language, order_index, content)
+                """.trimIndent()
             )
+            ps.setInt(1, assignmentId)
+            ps.setInt(2, assignmentVersion)
+            ps.setArray(3, con.createArrayOf("text", languages.toTypedArray()))
+            ps.setArray(4, con.createArrayOf("int4", orderIndexes.toTypedArray()))
+            ps.setArray(5, con.createArrayOf("text", contents.toTypedArray()))
+            ps
         }
     }
 
+    // Hakuvektorit lasketaan vasta sisältörivien lisäyksen jälkeen, koska sisältö on omassa taulussaan.
+    // Vektorit ovat omassa taulussaan, jotta tehtävärivejä luettaessa niitä ei haeta turhaan.
+    private fun updateAssignmentSearchVectors(table: String, assignmentId: Int, assignmentVersion: Int) {
+        fun contentText(language: Language) = """
+            (SELECT string_agg(c.assignment_content_content, ' ' ORDER BY c.assignment_content_order_index)
+             FROM ${table}_content c
+             WHERE c.assignment_id = a.assignment_id
+               AND c.assignment_version = a.assignment_version
+               AND c.assignment_content_language = '$language')
+        """.trimIndent()
+
+        jdbcTemplate.update(
+            """
+            INSERT INTO ${table}_search (assignment_id, assignment_version, assignment_search_fi, assignment_search_sv)
+            SELECT a.assignment_id,
+                   a.assignment_version,
+                   search_vector('finnish', a.assignment_name_fi, a.assignment_instruction_fi, ${contentText(Language.FI)}),
+                   search_vector('swedish', a.assignment_name_sv, a.assignment_instruction_sv, ${contentText(Language.SV)})
+            FROM $table a
+            WHERE a.assignment_id = ? AND a.assignment_version = ?
+            ON CONFLICT (assignment_id, assignment_version) DO UPDATE
+                SET assignment_search_fi = EXCLUDED.assignment_search_fi,
+                    assignment_search_sv = EXCLUDED.assignment_search_sv
+            """.trimIndent(),
+            assignmentId,
+            assignmentVersion
+        )
+    }
+
     val assignmentOutFields =
         "assignment_id, assignment_author_oid, assignment_updater_oid, assignment_created_at, assignment_updated_at, assignment_version"
 
@@ -715,6 +932,8 @@ class AssignmentRepository(
             val assignmentId = keyHolder.keys?.get("assignment_id") as Int
 
             insertAssignmentContent(Exam.SUKO, assignmentId, assignment.contentFi, assignment.contentSv, version)
+            setLatestAssignmentVersion(Exam.SUKO, assignmentId, version)
+            cacheInvalidationBus.contentChanged(ContentType.ASSIGNMENT)
 
             SukoAssignmentDtoOut(assignment, contentOutFields(keyHolder))
         }
@@ -757,6 +976,8 @@ class AssignmentRepository(
         val assignmentId = keyHolder.keys?.get("assignment_id") as Int
 
         insertAssignmentContent(Exam.LD, assignmentId, assignment.contentFi, assignment.contentSv, version)
+        setLatestAssignmentVersion(Exam.LD, assignmentId, version)
+        cacheInvalidationBus.contentChanged(ContentType.ASSIGNMENT)
 
         LdAssignmentDtoOut(assignment, contentOutFields(keyHolder))
     }
@@ -764,6 +985,7 @@ class AssignmentRepository(
     fun savePuhviAssignment(assignment: PuhviAssignmentDtoIn): PuhviAssignmentDtoOut =
         transactionTemplate.execute { _ ->
             val version = INITIAL_VERSION_NUMBER
+            val links = PuhviAssignmentLinks(assignment)
             val keyHolder = GeneratedKeyHolder()
             jdbcTemplate.update({ con ->
                 val ps = con.prepareStatement(
@@ -778,8 +1000,10 @@ class AssignmentRepository(
                             assignment_updater_oid,
                             assignment_version,
                             puhvi_assignment_assignment_type_koodi_arvo,
-                            puhvi_assignment_lukuvuosi_koodi_arvos
-                        ) VALUES (?, ?, ?, ?, ?::publish_state, ?, ?, ?, ?, ?, ?)
+                            puhvi_assignment_lukuvuosi_koodi_arvos,
+                            puhvi_assignment_links_fi,
+                            puhvi_assignment_links_sv
+                        ) VALUES (?, ?, ?, ?, ?::publish_state, ?, ?, ?, ?, ?, ?, ?, ?)
                         RETURNING $assignmentOutFields""",
                     arrayOf("assignment_id")
                 )
@@ -794,12 +1018,16 @@ class AssignmentRepository(
                 ps.setInt(9, version)
                 ps.setString(10, assignment.assignmentTypeKoodiArvo)
                 ps.setArray(11, con.createArrayOf("text", assignment.lukuvuosiKoodiArvos.toTypedArray()))
+                ps.setArray(12, con.createArrayOf("text", links.linksFi.toTypedArray()))
+                ps.setArray(13, con.createArrayOf("text", links.linksSv.toTypedArray()))
                 ps
             }, keyHolder)
 
             val assignmentId = keyHolder.keys?.get("assignment_id") as Int
 
             insertAssignmentContent(Exam.PUHVI, assignmentId, assignment.contentFi, assignment.contentSv, version)
+            setLatestAssignmentVersion(Exam.PUHVI, assignmentId, version)
+            cacheInvalidationBus.contentChanged(ContentType.ASSIGNMENT)
 
             PuhviAssignmentDtoOut(
                 id = assignmentId,
@@ -818,7 +1046,9 @@ class AssignmentRepository(
                 updaterName = null,
                 version = version,
                 assignmentTypeKoodiArvo = assignment.assignmentTypeKoodiArvo,
-                lukuvuosiKoodiArvos = assignment.lukuvuosiKoodiArvos
+                lukuvuosiKoodiArvos = assignment.lukuvuosiKoodiArvos,
+                linksFi = links.linksFi,
+                linksSv = links.linksSv
             )
         }
 
@@ -841,17 +1071,12 @@ class AssignmentRepository(
 
         val versionCondition = version?.let { "AND a.assignment_version = $version" } ?: ""
 
-        val maxVersionJoin = if (version == null) """
-            INNER JOIN (SELECT assignment_id, MAX(assignment_version) AS max_version
-                        FROM $table
-                        GROUP BY assignment_id) latest_version ON a.assignment_id = latest_version.assignment_id AND
-                                                                  a.assignment_version = latest_version.max_version
-            """.trimIndent() else ""
+        val latestVersionJoin = if (version == null) latestVersionJoin(exam) else ""
 
         val query = """
             $baseAssignmentSelectQuery
             FROM $table a
-            $maxVersionJoin
+            $latestVersionJoin
             LEFT JOIN ${table}_content content ON a.assignment_id = content.assignment_id AND a.assignment_version = content.assignment_version
             WHERE a.assignment_id in (:idList) $versionCondition ${publishStateFilter(role)}
             GROUP BY a.assignment_id, a.assignment_version;
@@ -863,6 +1088,22 @@ class AssignmentRepository(
         return namedJdbcTemplate.query(query, parameters, mapper)
     }
 
+    fun getAssignmentCardsByIds(exam: Exam, ids: List<Int>): List<AssignmentCardOut> {
+        if (ids.isEmpty()) {
+            return emptyList()
+        }
+
+        val role = Kayttajatiedot.fromSecurityContext().role
+        val (queryBuilder, parameters) = baseAssignmentListQuery(exam)
+        queryBuilder.append(" AND a.assignment_id IN (:idList) ${publishStateFilter(role)}")
+        parameters.addValue("idList", ids)
+
+        return namedJdbcTemplate.query(queryBuilder.toString(), parameters, cardMapperByExam(exam))
+    }
+
+    fun getVersionHistory(id: Int, exam: Exam): List<ContentVersionDtoOut> =
+        jdbcTemplate.queryVersionHistory(ContentType.ASSIGNMENT, exam, id)
+
     fun getAllVersionsOfAssignment(id: Int, exam: Exam): List<AssignmentOut> {
         val (table, mapper) = when (exam) {
             Exam.SUKO -> "suko_assignment" to mapSukoListResultSet
@@ -935,6 +1176,8 @@ class AssignmentRepository(
             }, keyHolder)
 
             insertAssignmentContent(Exam.SUKO, id, assignment.contentFi, assignment.contentSv, version)
+            setLatestAssignmentVersion(Exam.SUKO, id, version)
+            cacheInvalidationBus.contentChanged(ContentType.ASSIGNMENT)
 
             SukoAssignmentDtoOut(assignment, contentOutFields(keyHolder))
         }
@@ -987,6 +1230,8 @@ class AssignmentRepository(
             }, keyHolder)
 
             insertAssignmentContent(Exam.LD, id, assignment.contentFi, assignment.contentSv, version)
+            setLatestAssignmentVersion(Exam.LD, id, version)
+            cacheInvalidationBus.contentChanged(ContentType.ASSIGNMENT)
 
             LdAssignmentDtoOut(assignment, contentOutFields(keyHolder))
         }
@@ -1000,6 +1245,7 @@ class AssignmentRepository(
                 ?: return@execute null
 
             val version = currentLatestVersion + 1
+            val links = PuhviAssignmentLinks(assignment)
             val keyHolder = GeneratedKeyHolder()
             jdbcTemplate.update({ con ->
                 val ps = con.prepareStatement(
@@ -1016,9 +1262,11 @@ class AssignmentRepository(
                         assignment_laajaalainen_osaaminen_koodi_arvos,
                         puhvi_assignment_assignment_type_koodi_arvo,
                         puhvi_assignment_lukuvuosi_koodi_arvos,
+                        puhvi_assignment_links_fi,
+                        puhvi_assignment_links_sv,
                         assignment_version,
                         assignment_created_at)
-                       VALUES (?, ?, ?, ?, ?, ?::publish_state, ?, clock_timestamp(), ?, ?, ?, ?, ?, ?)
+                       VALUES (?, ?, ?, ?, ?, ?::publish_state, ?, clock_timestamp(), ?, ?, ?, ?, ?, ?, ?, ?)
                        RETURNING $assignmentOutFields""".trimIndent(),
                     arrayOf("assignment_id")
                 )
@@ -1033,14 +1281,18 @@ class AssignmentRepository(
                 ps.setArray(9, con.createArrayOf("text", assignment.laajaalainenOsaaminenKoodiArvos.toTypedArray()))
                 ps.setString(10, assignment.assignmentTypeKoodiArvo)
                 ps.setArray(11, con.createArrayOf("text", assignment.lukuvuosiKoodiArvos.toTypedArray()))
-                ps.setInt(12, version)
-                ps.setTimestamp(13, originalCreatedAt)
+                ps.setArray(12, con.createArrayOf("text", links.linksFi.toTypedArray()))
+                ps.setArray(13, con.createArrayOf("text", links.linksSv.toTypedArray()))
+                ps.setInt(14, version)
+                ps.setTimestamp(15, originalCreatedAt)
                 ps
             }, keyHolder)
 
             insertAssignmentContent(Exam.PUHVI, id, assignment.contentFi, assignment.contentSv, version)
+            setLatestAssignmentVersion(Exam.PUHVI, id, version)
+            cacheInvalidationBus.contentChanged(ContentType.ASSIGNMENT)
 
-            PuhviAssignmentDtoOut(assignment, contentOutFields(keyHolder))
+            PuhviAssignmentDtoOut(assignment, contentOutFields(keyHolder), links)
         }
 
 
@@ -1053,10 +1305,8 @@ class AssignmentRepository(
         val sql = """
             SELECT count(1)
             FROM assignment a
-            INNER JOIN (SELECT assignment_id, MAX(assignment_version) AS max_version
-                     FROM assignment
-                     GROUP BY assignment_id) latest_version ON a.assignment_id = latest_version.assignment_id AND
-                                                               a.assignment_version = latest_version.max_version
+            INNER JOIN assignment_latest_version latest_version ON a.assignment_id = latest_version.assignment_id AND
+                                                                   a.assignment_version = latest_version.assignment_version
             LEFT JOIN assignment_favorite fav
                    ON a.assignment_id = fav.assignment_id AND fav.assignment_favorite_user_oid = ?
             WHERE a.assignment_publish_state <> 'DELETED' AND fav.assignment_id IS NOT NULL $andIsPublishedIfOpettaja;
@@ -1109,6 +1359,7 @@ class AssignmentRepository(
 
             try {
                 jdbcTemplate.batchUpdate(sql, rowsToInsert)
+                contentChangeCounter.incrementFavorites(userOid)
                 getFavoriteAssignmentsCount()
             } catch (e: DataIntegrityViolationException) {
                 if (isForeignKeyViolationException(e)) {
@@ -1238,11 +1489,8 @@ class AssignmentRepository(
 
             val assignmentFavoriteRows: List<AssignmentFavoriteRow> = getAssignmentFavoriteRowsByExam(exam, null)
             val assignmentsById =
-                getAssignmentsByIds(
-                    exam,
-                    assignmentFavoriteRows.map { it.assignmentId },
-                    null
-                ).map(AssignmentCardOut::fromAssignmentOut).associateBy { it.id }
+                getAssignmentCardsByIds(exam, assignmentFavoriteRows.map { it.assignmentId }.distinct())
+                    .associateBy { it.id }
 
             return@execute constructFavoriteCardFolder(
                 rootFolderRows.first(),
@@ -1324,7 +1572,7 @@ class AssignmentRepository(
                     userOid,
                     folder.parentId,
                     folder.name
-                )
+                ).also { contentChangeCounter.incrementFavorites(userOid) }
             } catch (e: DataIntegrityViolationException) {
                 if (isForeignKeyViolationException(e)) {
                     throw ResponseStatusException(
@@ -1366,6 +1614,7 @@ class AssignmentRepository(
                 if (updatedRowCount == 0) {
                     throw ResponseStatusException(HttpStatus.NOT_FOUND, "Folder $folderId not found for user $userOid")
                 }
+                contentChangeCounter.incrementFavorites(userOid)
             } catch (e: DataIntegrityViolationException) {
                 if (isForeignKeyViolationException(e)) {
                     throw ResponseStatusException(
@@ -1393,13 +1642,15 @@ class AssignmentRepository(
 
         val userOid = Kayttajatiedot.fromSecurityContext().oidHenkilo
         val (_, folderTableName) = favoriteTableNamesByExam(exam)
-        return jdbcTemplate.update(
-            """DELETE FROM $folderTableName WHERE
-                assignment_favorite_folder_id = ? AND
-                assignment_favorite_folder_user_oid = ?
-                """.trimIndent(),
-            folderId,
-            userOid
-        )
+        return transactionTemplate.execute { _ ->
+            jdbcTemplate.update(
+                """DELETE FROM $folderTableName WHERE
+                    assignment_favorite_folder_id = ? AND
+                    assignment_favorite_folder_user_oid = ?
+                    """.trimIndent(),
+                folderId,
+                userOid
+            ).also { contentChangeCounter.incrementFavorites(userOid) }
+        }!!
     }
 }
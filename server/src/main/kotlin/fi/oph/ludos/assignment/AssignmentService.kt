@@ -1,7 +1,7 @@
 package fi.oph.ludos.assignment
 
 import fi.oph.ludos.*
-import fi.oph.ludos.auth.OppijanumerorekisteriClient
+import fi.oph.ludos.auth.UpdaterNameService
 import jakarta.servlet.ServletRequest
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -12,7 +12,7 @@ import org.springframework.web.server.ResponseStatusException
 @Service
 class AssignmentService(
     val repository: AssignmentRepository,
-    val oppijanumerorekisteriClient: OppijanumerorekisteriClient
+    val updaterNameService: UpdaterNameService
 ) {
     val auditLogger: Logger = LoggerFactory.getLogger(AUDIT_LOGGER_NAME)
 
@@ -92,14 +92,19 @@ class AssignmentService(
     fun getAssignmentById(exam: Exam, id: Int, version: Int?): AssignmentOut? =
         repository.getAssignmentsByIds(exam, listOf(id), version).firstOrNull()
 
+    fun getVersionHistory(exam: Exam, id: Int): List<ContentVersionDtoOut> {
+        val versions = repository.getVersionHistory(id, exam)
+        val oidToName = updaterNameService.getUpdaterNames(versions.map { it.updaterOid })
+        return versions.map { it.copy(updaterName = oidToName[it.updaterOid]) }
+    }
+
     fun getAllVersionsOfAssignment(exam: Exam, id: Int): List<AssignmentOut> =
         addUpdaterNames(repository.getAllVersionsOfAssignment(id, exam))
 
     fun addUpdaterNames(assignments: List<AssignmentOut>): List<AssignmentOut> {
-        val uniqueOids = assignments.map { it.updaterOid }.toSet()
-        val oidToName = uniqueOids.associateWith { oppijanumerorekisteriClient.getUserDetailsByOid(it) }
+        val oidToName = updaterNameService.getUpdaterNames(assignments.map { it.updaterOid })
         return assignments.map {
-            val updaterName = oidToName.getOrDefault(it.updaterOid, null)?.formatName()
+            val updaterName = oidToName[it.updaterOid]
             when (it) {
                 is SukoAssignmentDtoOut -> it.copy(updaterName = updaterName)
                 is LdAssignmentDtoOut -> it.copy(updaterName = updaterName)
@@ -11,7 +11,8 @@ import org.springframework.web.bind.annotation.RestController
 @RequestMapping("${Constants.API_PREFIX}/auth")
 @RequireAtLeastYllapitajaRole
 class CasController(
-    val oppijanumerorekisteriClient: OppijanumerorekisteriClient
+    val oppijanumerorekisteriClient: OppijanumerorekisteriClient,
+    val loginMetrics: LoginMetrics
 ) {
     @GetMapping("/user", produces = ["application/json"])
     @ResponseBody
@@ -32,6 +33,9 @@ class CasController(
 
         return ResponseEntity.ok(user)
     }
+
+    @GetMapping("/login-stats", produces = ["application/json"])
+    fun loginStats(): Map<LoginStage, LoginStageStats> = loginMetrics.stats()
 }
 
 data class User(
@@ -1,23 +1,53 @@
 package fi.oph.ludos.auth
 
+import fi.oph.ludos.cache.CacheName
+import jakarta.annotation.PreDestroy
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import org.springframework.cache.CacheManager
+import org.springframework.security.authentication.AuthenticationServiceException
 import org.springframework.security.cas.authentication.CasAssertionAuthenticationToken
 import org.springframework.security.core.userdetails.AuthenticationUserDetailsService
 import org.springframework.stereotype.Component
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 
 @Component
 class CasUserDetailsService(
     val kayttooikeusClient: KayttooikeusClient,
-    val oppijanumerorekisteriClient: OppijanumerorekisteriClient
+    val oppijanumerorekisteriClient: OppijanumerorekisteriClient,
+    val loginMetrics: LoginMetrics,
+    cacheManager: CacheManager,
+    private val kayttooikeusTimeout: Duration = KAYTTOOIKEUS_TIMEOUT,
+    private val oppijanumerorekisteriTimeout: Duration = OPPIJANUMEROREKISTERI_TIMEOUT,
 ) : AuthenticationUserDetailsService<CasAssertionAuthenticationToken> {
     private val logger: Logger = LoggerFactory.getLogger(javaClass)
+    private val executor = Executors.newVirtualThreadPerTaskExecutor()
+    private val kayttooikeusCache = cacheManager.getCache(CacheName.KAYTTOOIKEUS.key)!!
+    private val usernameToOidCache = cacheManager.getCache(CacheName.USERNAME_TO_OID.key)!!
 
-    override fun loadUserDetails(token: CasAssertionAuthenticationToken): Kayttajatiedot {
-        val username = token.name
-        val users = kayttooikeusClient.kayttooikeudet(username)
+    @PreDestroy
+    fun shutdown() {
+        executor.shutdownNow()
+    }
+
+    override fun loadUserDetails(token: CasAssertionAuthenticationToken): Kayttajatiedot =
+        loginMetrics.time(LoginStage.TOTAL) { loadUserDetails(token.name) }
+
+    private fun loadUserDetails(username: String): Kayttajatiedot {
+        // Käyttäjän oid ei muutu, joten aiemmin kirjautuneen henkilötiedot haetaan rinnakkain käyttöoikeuksien kanssa
+        val previousOid = usernameToOidCache.get(username, String::class.java)
+        val speculativeHenkilo = previousOid?.let { fetchHenkiloAsync(it) }
+
+        val users = awaitKayttooikeudet(username, fetchKayttooikeudetAsync(username))
         val user = users.find { it.username == username }
         if (user == null) {
+            speculativeHenkilo?.cancel(true)
             logger.warn("Username '${username}' not found in kayttooikeus service")
             return Kayttajatiedot(
                 oidHenkilo = "",
@@ -30,7 +60,12 @@ class CasUserDetailsService(
             )
         }
 
-        val oppijanumerorekisteriHenkilo = oppijanumerorekisteriClient.getUserDetailsByOid(user.oidHenkilo)
+        usernameToOidCache.put(username, user.oidHenkilo)
+        val henkiloFuture = if (previousOid == user.oidHenkilo) speculativeHenkilo!! else {
+            speculativeHenkilo?.cancel(true)
+            fetchHenkiloAsync(user.oidHenkilo)
+        }
+        val oppijanumerorekisteriHenkilo = awaitHenkilo(user.oidHenkilo, henkiloFuture)
 
         return Kayttajatiedot(
             oidHenkilo = user.oidHenkilo,
@@ -42,4 +77,47 @@ class CasUserDetailsService(
             asiointiKieli = oppijanumerorekisteriHenkilo?.asiointiKieli?.kieliKoodi,
         )
     }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun fetchKayttooikeudetAsync(username: String): Future<List<KayttooikeusServiceKayttaja>> =
+        executor.submit(Callable {
+            kayttooikeusCache.get(username, Callable {
+                loginMetrics.time(LoginStage.KAYTTOOIKEUS) { kayttooikeusClient.kayttooikeudet(username) }
+            }) as List<KayttooikeusServiceKayttaja>
+        })
+
+    private fun fetchHenkiloAsync(oid: String): Future<OppijanumerorekisteriHenkilo?> =
+        executor.submit(Callable {
+            loginMetrics.time(LoginStage.OPPIJANUMEROREKISTERI) { oppijanumerorekisteriClient.getUserDetailsByOid(oid) }
+        })
+
+    private fun awaitKayttooikeudet(
+        username: String,
+        future: Future<List<KayttooikeusServiceKayttaja>>
+    ): List<KayttooikeusServiceKayttaja> = try {
+        future.get(kayttooikeusTimeout.toMillis(), TimeUnit.MILLISECONDS)
+    } catch (e: TimeoutException) {
+        future.cancel(true)
+        throw AuthenticationServiceException("Timed out getting kayttooikeudet for user '$username'", e)
+    } catch (e: ExecutionException) {
+        throw AuthenticationServiceException("Could not get kayttooikeudet for user '$username'", e.cause)
+    }
+
+    // Henkilötiedot eivät ole kirjautumiselle välttämättömiä, joten virhe tai aikakatkaisu ei estä kirjautumista
+    private fun awaitHenkilo(oid: String, future: Future<OppijanumerorekisteriHenkilo?>): OppijanumerorekisteriHenkilo? =
+        try {
+            future.get(oppijanumerorekisteriTimeout.toMillis(), TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            future.cancel(true)
+            logger.warn("Timed out getting oppijanumerorekisteri details for $oid")
+            null
+        } catch (e: ExecutionException) {
+            logger.warn("Could not get oppijanumerorekisteri details for $oid", e.cause)
+            null
+        }
+
+    companion object {
+        val KAYTTOOIKEUS_TIMEOUT: Duration = Duration.ofSeconds(10)
+        val OPPIJANUMEROREKISTERI_TIMEOUT: Duration = Duration.ofSeconds(5)
+    }
 }
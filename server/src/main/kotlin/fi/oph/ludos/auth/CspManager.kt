@@ -8,10 +8,11 @@ object CspManager {
     private const val scriptSrcElem: String = "'self' analytiikka.opintopolku.fi 'sha256-dsoLSEwvlqmLY1LL4xCztZmZTHKz0BHcn1xegAQKlIQ='"
     private const val connectSrc: String = "'self' analytiikka.opintopolku.fi"
 
-    fun makeCSPString(): String = """
+    // additionalImgSrc: esim. kuvien S3-ämpäri, kun kuvat ladataan allekirjoitetuilla osoitteilla
+    fun makeCSPString(additionalImgSrc: List<String> = emptyList()): String = """
     default-src $defaultSrc;
     script-src $scriptSrc;
-    img-src $imgSrc;
+    img-src ${(listOf(imgSrc) + additionalImgSrc).joinToString(" ")};
     style-src $styleSrc;
     script-src-elem $scriptSrcElem;
     connect-src $connectSrc;
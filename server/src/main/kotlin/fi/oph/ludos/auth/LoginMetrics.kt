@@ -0,0 +1,62 @@
+package fi.oph.ludos.auth
+
+import org.springframework.stereotype.Component
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+
+enum class LoginStage {
+    KAYTTOOIKEUS,
+    OPPIJANUMEROREKISTERI,
+    TOTAL,
+}
+
+data class LoginStageStats(
+    val count: Long,
+    val failures: Long,
+    val averageMillis: Double,
+    val maxMillis: Double,
+)
+
+/**
+ * Kirjautumisen kestot vaiheittain (käyttöoikeuspalvelu, oppijanumerorekisteri ja koko kirjautuminen).
+ */
+@Component
+class LoginMetrics {
+    private class StageCounters {
+        val count = AtomicLong()
+        val failures = AtomicLong()
+        val totalNanos = AtomicLong()
+        val maxNanos = AtomicLong()
+    }
+
+    private val counters = LoginStage.entries.associateWith { StageCounters() }
+
+    fun record(stage: LoginStage, duration: Duration, failed: Boolean = false) {
+        val stageCounters = counters.getValue(stage)
+        val nanos = duration.toNanos()
+        stageCounters.count.incrementAndGet()
+        if (failed) stageCounters.failures.incrementAndGet()
+        stageCounters.totalNanos.addAndGet(nanos)
+        stageCounters.maxNanos.accumulateAndGet(nanos, ::maxOf)
+    }
+
+    fun <T> time(stage: LoginStage, block: () -> T): T {
+        val start = System.nanoTime()
+        var failed = true
+        try {
+            return block().also { failed = false }
+        } finally {
+            record(stage, Duration.ofNanos(System.nanoTime() - start), failed)
+        }
+    }
+
+    fun stats(): Map<LoginStage, LoginStageStats> = counters.mapValues { (_, it) ->
+        val count = it.count.get()
+        LoginStageStats(
+            count = count,
+            failures = it.failures.get(),
+            averageMillis = if (count == 0L) 0.0 else it.totalNanos.get() / count / 1_000_000.0,
+            maxMillis = it.maxNanos.get() / 1_000_000.0,
+        )
+    }
+}
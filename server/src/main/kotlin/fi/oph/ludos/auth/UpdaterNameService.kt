@@ -0,0 +1,105 @@
+package fi.oph.ludos.auth
+
+import fi.oph.ludos.cache.CacheName
+import jakarta.annotation.PreDestroy
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty
+import org.springframework.cache.CacheManager
+import org.springframework.stereotype.Component
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Muokkaajien nimet versiohistoriaan. Palauttaa vain ne oidit, joiden nimi saatiin selvitettyä.
+ */
+interface UpdaterNameService {
+    fun getUpdaterNames(oids: Collection<String>): Map<String, String>
+}
+
+const val UPDATER_NAME_STUB_PROPERTY = "ludos.updater-name-stub"
+
+@Component
+@ConditionalOnProperty(UPDATER_NAME_STUB_PROPERTY, havingValue = "false", matchIfMissing = true)
+class OppijanumerorekisteriUpdaterNameService(
+    private val oppijanumerorekisteriClient: OppijanumerorekisteriClient,
+    cacheManager: CacheManager,
+    private val fetchTimeout: Duration = FETCH_TIMEOUT,
+) : UpdaterNameService {
+    private val logger: Logger = LoggerFactory.getLogger(javaClass)
+    private val cache = cacheManager.getCache(CacheName.UPDATER_NAME.key)!!
+
+    // Rajoitetaan samanaikaisia kutsuja, ettei yksittäinen versiohistoria kuormita oppijanumerorekisteriä
+    private val concurrentRequests = Semaphore(MAX_CONCURRENT_REQUESTS)
+
+    // Pitkäikäinen suorittaja: pyyntö ei odota aikakatkaistuja hakuja, koska HTTP-asiakkaan socket-luku ei reagoi
+    // keskeytykseen. Aikakatkaistu haku saa valmistua taustalla ja tallentaa nimen välimuistiin seuraavaa kertaa varten.
+    private val executor = Executors.newVirtualThreadPerTaskExecutor()
+
+    override fun getUpdaterNames(oids: Collection<String>): Map<String, String> {
+        val uniqueOids = oids.toSet()
+        val cachedNames = uniqueOids.mapNotNull { oid -> cache.get(oid, String::class.java)?.let { oid to it } }.toMap()
+        val missingOids = uniqueOids - cachedNames.keys
+        if (missingOids.isEmpty()) {
+            return cachedNames
+        }
+
+        return cachedNames + fetchNames(missingOids)
+    }
+
+    private fun fetchNames(oids: Set<String>): Map<String, String> {
+        val futures = oids.associateWith { oid -> executor.submit(Callable { fetchName(oid) }) }
+        val deadline = System.nanoTime() + fetchTimeout.toNanos()
+
+        return futures.mapNotNull { (oid, future) ->
+            try {
+                future.get((deadline - System.nanoTime()).coerceAtLeast(0), TimeUnit.NANOSECONDS)?.let { oid to it }
+            } catch (e: TimeoutException) {
+                logger.warn("Timed out getting updater name for $oid")
+                null
+            } catch (e: ExecutionException) {
+                logger.warn("Could not get updater name for $oid", e.cause)
+                null
+            }
+        }.toMap()
+    }
+
+    @PreDestroy
+    fun shutdown() {
+        executor.shutdownNow()
+    }
+
+    private fun fetchName(oid: String): String? {
+        concurrentRequests.acquire()
+        val name = try {
+            oppijanumerorekisteriClient.getUserDetailsByOid(oid)?.formatName()
+        } finally {
+            concurrentRequests.release()
+        }
+        // Epäonnistuneita hakuja ei tallenneta, jotta ne yritetään uudelleen seuraavalla kerralla
+        if (name != null) {
+            cache.put(oid, name)
+        }
+        return name
+    }
+
+    companion object {
+        const val MAX_CONCURRENT_REQUESTS = 10
+        val FETCH_TIMEOUT: Duration = Duration.ofSeconds(10)
+    }
+}
+
+/**
+ * Paikalliseen kehitykseen ilman oppijanumerorekisterin palvelukäyttäjää.
+ */
+@Component
+@ConditionalOnProperty(UPDATER_NAME_STUB_PROPERTY, havingValue = "true")
+class StubUpdaterNameService : UpdaterNameService {
+    override fun getUpdaterNames(oids: Collection<String>): Map<String, String> =
+        oids.associateWith { "Käyttäjä ${it.substringAfterLast('.')}" }
+}
@@ -1,5 +1,8 @@
 package fi.oph.ludos.auth
 
+import fi.oph.ludos.aws.AWS_REGION
+import fi.oph.ludos.aws.Bucket
+import fi.oph.ludos.config.Features
 import fi.oph.ludos.test.TestController
 import jakarta.servlet.FilterChain
 import jakarta.servlet.ServletException
@@ -11,6 +14,7 @@ import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Value
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
+import org.springframework.core.env.Environment
 import org.springframework.http.HttpMethod
 import org.springframework.security.cas.web.CasAuthenticationFilter
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity
@@ -72,6 +76,8 @@ class WebSecurityConfiguration {
         casAuthenticationFilter: CasAuthenticationFilter,
         casConfig: CasConfig,
         corsConfigurationSource: CorsConfigurationSource,
+        features: Features,
+        environment: Environment,
     ): SecurityFilterChain {
         http.csrf {
             it.csrfTokenRepository(CookieCsrfTokenRepository.withHttpOnlyFalse())
@@ -119,7 +125,7 @@ class WebSecurityConfiguration {
 
         http.headers {
             it.contentSecurityPolicy { csp ->
-                csp.policyDirectives(CspManager.makeCSPString())
+                csp.policyDirectives(CspManager.makeCSPString(presignedImageSources(features, environment)))
             }
         }
 
@@ -130,6 +136,14 @@ class WebSecurityConfiguration {
         return http.build()
     }
 
+    // Allekirjoitetut kuvaosoitteet osoittavat suoraan kuvien S3-ämpäriin, paikallisesti sovellukseen itseensä
+    private fun presignedImageSources(features: Features, environment: Environment): List<String> =
+        if (features.presignedDownloads && !environment.matchesProfiles("local")) {
+            listOf("https://${Bucket.IMAGE.getBucketName(environment)}.s3.${AWS_REGION.id()}.amazonaws.com")
+        } else {
+            emptyList()
+        }
+
     // https://docs.spring.io/spring-security/reference/servlet/exploits/csrf.html#csrf-integration-javascript
     class SpaCsrfTokenRequestHandler : CsrfTokenRequestAttributeHandler() {
         private val delegate: CsrfTokenRequestHandler = XorCsrfTokenRequestAttributeHandler()
@@ -0,0 +1,277 @@
+package fi.oph.ludos.aws
+
+import java.io.Closeable
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.locks.ReentrantLock
+import java.util.zip.CRC32
+import kotlin.concurrent.withLock
+import kotlin.io.path.deleteIfExists
+
+// pituus (int), tarkistussumma (int), aikaleima (long)
+private const val RECORD_HEADER_BYTES = 16
+private const val DEFAULT_COMPACT_AFTER_BYTES = 16L * 1024 * 1024
+private val SEGMENT_NAME = Regex("""audit-spool-(\d+)\.log""")
+
+/**
+ * Audit-tapahtumien levypuskuri. Tapahtumat kirjoitetaan tiedoston loppuun, ja lähetetyn osan loppukohta tallennetaan
+ * erilliseen offset-tiedostoon vasta, kun erä on saatu lähetettyä. Uudelleenkäynnistyksen jälkeen lähetys jatkuu
+ * tallennetusta kohdasta, joten tapahtumat lähetetään vähintään kerran. Kesken jäänyt kirjoitus tunnistetaan
+ * tarkistussummasta ja katkaistaan pois avattaessa.
+ *
+ * Jotta tiedosto ei kasva rajatta jatkuvan kirjoituksen aikana, lähetetty alkuosa tiivistetään pois, kun se ylittää
+ * compactAfterBytes: lähettämätön loppuosa kopioidaan uuteen sukupolveen (audit-spool-<n>.log), ja offset-tiedostoon
+ * tallennetaan sukupolvi ja offset yhdessä. Jos prosessi kaatuu uuden tiedoston käyttöönoton ja offsetin
+ * tallentamisen välissä, sukupolvet eivät täsmää ja uusi tiedosto luetaan alusta, koska siinä on vain lähettämättömiä
+ * tapahtumia. Suurin osa kopioinnista ja levylle pakotuksesta tehdään ilman lukkoa, jotta kirjoittajat eivät
+ * joudu odottamaan; lukon alla kopioidaan vain sillä välin lisätyt tapahtumat ja vaihdetaan tiedosto.
+ *
+ * Kirjoittajia voi olla useita, lukijan (read, commit) on oltava yksi säie.
+ */
+class AuditSpool(
+    private val directory: Path,
+    private val maxBytes: Long,
+    private val compactAfterBytes: Long = minOf(maxBytes, DEFAULT_COMPACT_AFTER_BYTES),
+) : Closeable {
+    data class Record(val timestamp: Long, val message: String)
+    data class Batch(val records: List<Record>, val nextOffset: Long, val full: Boolean)
+
+    private val offsetFile = directory.resolve("audit-spool.offset")
+    private val lock = ReentrantLock()
+    private var generation: Long
+    private var channel: FileChannel
+
+    internal val spoolFile: Path
+        get() = segment(generation)
+
+    @Volatile
+    private var size: Long
+
+    @Volatile
+    private var committedOffset: Long
+
+    val pendingBytes: Long
+        get() = size - committedOffset
+
+    init {
+        Files.createDirectories(directory)
+        val generations = Files.list(directory).use { files ->
+            files.toList().mapNotNull { SEGMENT_NAME.matchEntire(it.fileName.toString())?.groupValues?.get(1)?.toLong() }
+        }
+        generation = generations.maxOrNull() ?: 0L
+        // Kesken jääneen tiivistyksen väliaikaistiedosto ja jo korvatut sukupolvet poistetaan
+        Files.list(directory).use { files ->
+            files.filter { it.fileName.toString().endsWith(".tmp") }.forEach { it.deleteIfExists() }
+        }
+        generations.filter { it != generation }.forEach { segment(it).deleteIfExists() }
+        channel = FileChannel.open(spoolFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+
+        val storedOffset = readOffset()
+        // Offset voi olla tiedoston kokoa suurempi, jos prosessi kaatui tyhjennyksen ja offsetin nollauksen välissä
+        committedOffset = if (storedOffset > channel.size()) 0L else storedOffset
+        size = channel.size()
+
+        val validEnd = scan(committedOffset, Int.MAX_VALUE, Long.MAX_VALUE, size, collect = false).nextOffset
+        if (validEnd < size) {
+            channel.truncate(validEnd)
+            size = validEnd
+        }
+    }
+
+    fun append(timestamp: Long, message: String): Boolean {
+        val messageBytes = message.toByteArray(Charsets.UTF_8)
+        val buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + messageBytes.size)
+            .putInt(messageBytes.size)
+            .putInt(checksum(timestamp, messageBytes))
+            .putLong(timestamp)
+            .put(messageBytes)
+            .flip()
+
+        lock.withLock {
+            if (size - committedOffset + buffer.remaining() > maxBytes) {
+                return false
+            }
+            var position = size
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position)
+            }
+            size = position
+        }
+        return true
+    }
+
+    // Erä katkaistaan myös, jos sen tapahtumien aikaleimojen väli kasvaisi yli maxSpanMillis
+    fun read(maxRecords: Int, maxBatchBytes: Int, maxSpanMillis: Long = Long.MAX_VALUE): Batch =
+        scan(committedOffset, maxRecords, maxBatchBytes.toLong(), size, collect = true, maxSpanMillis)
+
+    fun commit(offset: Long) {
+        writeOffset(generation, offset)
+        committedOffset = offset
+
+        // Lähetetty alkuosa poistetaan, ettei tiedosto kasva rajatta
+        val shouldCompact = lock.withLock {
+            if (committedOffset == size) {
+                channel.truncate(0)
+                size = 0
+                committedOffset = 0
+                writeOffset(generation, 0)
+                false
+            } else {
+                // Kopioitavaa on enintään yhtä paljon kuin vapautuu, joten tiivistys ei tee katkon jälkeistä
+                // lähetystä hitaaksi
+                committedOffset >= compactAfterBytes && pendingBytes <= committedOffset
+            }
+        }
+        if (shouldCompact) {
+            compact()
+        }
+    }
+
+    override fun close() {
+        channel.close()
+    }
+
+    // Testejä varten: kutsutaan, kun lähettämätön loppuosa on kopioitu ilman lukkoa
+    internal var afterCompactionCopy: () -> Unit = {}
+
+    // Vain lukijasäie kutsuu, joten committedOffset ei muutu tiivistyksen aikana. Kirjoittajat jatkavat vanhan
+    // tiedoston loppuun, kunnes lukon alla kopioidaan niiden lisäämä osuus ja vaihdetaan tiedosto.
+    private fun compact() {
+        val nextGeneration = generation + 1
+        val tmp = directory.resolve("${segment(nextGeneration).fileName}.tmp")
+        val from = committedOffset
+        val snapshotSize = size
+        val nextChannel = FileChannel.open(
+            tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE
+        )
+        try {
+            copy(from, snapshotSize, nextChannel)
+            nextChannel.force(true)
+            afterCompactionCopy()
+
+            lock.withLock {
+                // Välissä lisätyt tapahtumat ovat yhtä kestäviä kuin append-kutsun kirjoittamat, joten niitä ei
+                // pakoteta levylle lukon alla
+                val end = size
+                copy(snapshotSize, end, nextChannel)
+                Files.move(tmp, segment(nextGeneration), StandardCopyOption.ATOMIC_MOVE)
+                writeOffset(nextGeneration, 0)
+
+                val previous = spoolFile
+                channel.close()
+                channel = nextChannel
+                generation = nextGeneration
+                size = end - from
+                committedOffset = 0
+                previous.deleteIfExists()
+            }
+        } catch (e: Exception) {
+            if (channel !== nextChannel) {
+                nextChannel.close()
+                tmp.deleteIfExists()
+            }
+            throw e
+        }
+    }
+
+    private fun copy(start: Long, end: Long, target: FileChannel) {
+        var copied = 0L
+        while (copied < end - start) {
+            copied += channel.transferTo(start + copied, end - start - copied, target)
+        }
+    }
+
+    private fun segment(generation: Long): Path = directory.resolve("audit-spool-$generation.log")
+
+    private fun scan(
+        from: Long,
+        maxRecords: Int,
+        maxBatchBytes: Long,
+        end: Long,
+        collect: Boolean,
+        maxSpanMillis: Long = Long.MAX_VALUE
+    ): Batch {
+        val records = mutableListOf<Record>()
+        var position = from
+        var recordCount = 0
+        var batchBytes = 0L
+        var minTimestamp = Long.MAX_VALUE
+        var maxTimestamp = Long.MIN_VALUE
+        val header = ByteBuffer.allocate(RECORD_HEADER_BYTES)
+
+        while (recordCount < maxRecords && position + RECORD_HEADER_BYTES <= end) {
+            header.clear()
+            readFully(header, position)
+            header.flip()
+            val length = header.getInt()
+            val crc = header.getInt()
+            val timestamp = header.getLong()
+            if (length < 0 || position + RECORD_HEADER_BYTES + length > end) {
+                break
+            }
+
+            val messageBytes = ByteBuffer.allocate(length)
+            readFully(messageBytes, position + RECORD_HEADER_BYTES)
+            if (checksum(timestamp, messageBytes.array()) != crc) {
+                break
+            }
+
+            val recordBytes = length + CLOUDWATCH_EVENT_OVERHEAD_BYTES
+            if (recordCount > 0 && batchBytes + recordBytes > maxBatchBytes) {
+                return Batch(records, position, full = true)
+            }
+            val span = maxOf(maxTimestamp, timestamp) - minOf(minTimestamp, timestamp)
+            if (recordCount > 0 && span > maxSpanMillis) {
+                return Batch(records, position, full = true)
+            }
+            minTimestamp = minOf(minTimestamp, timestamp)
+            maxTimestamp = maxOf(maxTimestamp, timestamp)
+            if (collect) {
+                records.add(Record(timestamp, String(messageBytes.array(), Charsets.UTF_8)))
+            }
+            recordCount++
+            batchBytes += recordBytes
+            position += RECORD_HEADER_BYTES + length
+        }
+
+        return Batch(records, position, full = recordCount >= maxRecords)
+    }
+
+    private fun readFully(buffer: ByteBuffer, position: Long) {
+        var read = 0
+        while (buffer.hasRemaining()) {
+            val n = channel.read(buffer, position + read)
+            if (n < 0) break
+            read += n
+        }
+    }
+
+    // Offset on voimassa vain sille sukupolvelle, jota varten se tallennettiin
+    private fun readOffset(): Long {
+        if (!Files.exists(offsetFile)) {
+            return 0L
+        }
+        val buffer = ByteBuffer.wrap(Files.readAllBytes(offsetFile))
+        if (buffer.remaining() != 2 * Long.SIZE_BYTES || buffer.getLong() != generation) {
+            return 0L
+        }
+        return buffer.getLong()
+    }
+
+    private fun writeOffset(generation: Long, offset: Long) {
+        val tmp = offsetFile.resolveSibling("${offsetFile.fileName}.tmp")
+        Files.write(tmp, ByteBuffer.allocate(2 * Long.SIZE_BYTES).putLong(generation).putLong(offset).array())
+        Files.move(tmp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    private fun checksum(timestamp: Long, messageBytes: ByteArray): Int {
+        val crc = CRC32()
+        crc.update(ByteBuffer.allocate(Long.SIZE_BYTES).putLong(timestamp).array())
+        crc.update(messageBytes)
+        return crc.value.toInt()
+    }
+}
@@ -0,0 +1,227 @@
+package fi.oph.ludos.aws
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.web.multipart.MultipartFile
+import software.amazon.awssdk.core.ResponseInputStream
+import software.amazon.awssdk.services.s3.model.GetObjectResponse
+import java.net.URI
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.time.Duration
+import java.time.Instant
+import java.util.UUID
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.io.path.deleteIfExists
+
+data class S3CacheStats(
+    val entries: Int,
+    val sizeBytes: Long,
+    val maxBytes: Long,
+    val hits: Long,
+    val misses: Long,
+    val evictions: Long,
+)
+
+/**
+ * S3Helperin päälle asetettava levyvälimuisti. Kuvien ja liitteiden avaimet (image_<uuid>, ohjeliite_<uuid> jne.)
+ * ovat muuttumattomia, joten haettu objekti voidaan tallentaa paikalliselle levylle ja palvella sieltä seuraavilla
+ * kerroilla. Välimuistin kokonaiskoko on rajattu maxBytes-arvoon, ja tilaa tarvittaessa vapautetaan poistamalla
+ * pisimpään käyttämättömänä ollut objekti. Saman avaimen samanaikaiset hudit odottavat yhtä ja samaa S3-hakua.
+ *
+ * Hakemisto tyhjennetään käynnistettäessä, koska välimuistin kirjanpito on vain muistissa.
+ */
+class CachingS3Helper(
+    private val delegate: S3Helper,
+    private val cacheDir: Path,
+    private val maxBytes: Long,
+) : S3Helper {
+    private val logger: Logger = LoggerFactory.getLogger(javaClass)
+
+    private class Entry(val path: Path, val sizeBytes: Long, val contentType: String?)
+
+    private val lock = ReentrantLock()
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private var sizeBytes = 0L
+    private val fetchesInFlight = ConcurrentHashMap<String, CompletableFuture<Entry?>>()
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    // Yksittäinen objekti ei saa syrjäyttää koko välimuistia
+    private val maxEntryBytes = maxBytes / 4
+
+    init {
+        Files.createDirectories(cacheDir)
+        Files.list(cacheDir).use { files -> files.forEach { it.deleteIfExists() } }
+    }
+
+    override fun putObject(bucket: Bucket, key: String, file: MultipartFile) {
+        delegate.putObject(bucket, key, file)
+        invalidate(bucket, key)
+    }
+
+    override fun deleteObject(bucket: Bucket, key: String) {
+        delegate.deleteObject(bucket, key)
+        invalidate(bucket, key)
+    }
+
+    override fun getObject(bucket: Bucket, key: String): ResponseInputStream<GetObjectResponse>? {
+        if (!CACHEABLE_KEY.matches(key)) {
+            return delegate.getObject(bucket, key)
+        }
+        val cacheKey = "${bucket.name}_$key"
+
+        lookup(cacheKey)?.let { entry ->
+            open(entry)?.let {
+                hits.incrementAndGet()
+                return it
+            }
+        }
+        misses.incrementAndGet()
+
+        // Vain yksi säie hakee puuttuvan objektin, muut odottavat saman haun tulosta
+        val newFetch = CompletableFuture<Entry?>()
+        val fetch = fetchesInFlight.putIfAbsent(cacheKey, newFetch)
+        if (fetch != null) {
+            val entry = try {
+                fetch.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+            // Objekti puuttui S3:sta tai oli liian suuri välimuistiin, haetaan se suoraan
+            return entry?.let { open(it) } ?: delegate.getObject(bucket, key)
+        }
+
+        try {
+            val response = delegate.getObject(bucket, key)
+            if (response == null) {
+                newFetch.complete(null)
+                return null
+            }
+            val contentLength = response.response().contentLength()
+            if (contentLength != null && contentLength > maxEntryBytes) {
+                newFetch.complete(null)
+                return response
+            }
+
+            val entry = response.use { store(cacheKey, it) }
+            newFetch.complete(entry)
+            return open(entry) ?: delegate.getObject(bucket, key)
+        } catch (e: Exception) {
+            newFetch.completeExceptionally(e)
+            throw e
+        } finally {
+            fetchesInFlight.remove(cacheKey, newFetch)
+        }
+    }
+
+    // Välimuistissa olevasta objektista luetaan vain pyydetty väli, muuten väli haetaan suoraan S3:sta
+    override fun getObjectRange(
+        bucket: Bucket,
+        key: String,
+        start: Long,
+        endInclusive: Long
+    ): ResponseInputStream<GetObjectResponse>? {
+        lookup("${bucket.name}_$key")?.let { entry ->
+            open(entry, start, endInclusive)?.let {
+                hits.incrementAndGet()
+                return it
+            }
+        }
+        return delegate.getObjectRange(bucket, key, start, endInclusive)
+    }
+
+    override fun getObjectSize(bucket: Bucket, key: String): Long? =
+        lookup("${bucket.name}_$key")?.sizeBytes ?: delegate.getObjectSize(bucket, key)
+
+    override fun presignGetObject(
+        bucket: Bucket,
+        key: String,
+        signedAt: Instant,
+        expiry: Duration,
+        responseHeaders: DownloadResponseHeaders
+    ): URI = delegate.presignGetObject(bucket, key, signedAt, expiry, responseHeaders)
+
+    fun stats(): S3CacheStats = lock.withLock {
+        S3CacheStats(entries.size, sizeBytes, maxBytes, hits.get(), misses.get(), evictions.get())
+    }
+
+    private fun lookup(cacheKey: String): Entry? = lock.withLock { entries[cacheKey] }
+
+    private fun store(cacheKey: String, response: ResponseInputStream<GetObjectResponse>): Entry {
+        val tmp = cacheDir.resolve("$cacheKey.${UUID.randomUUID()}.tmp")
+        try {
+            val size = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).use {
+                it.transferFrom(Channels.newChannel(response), 0, Long.MAX_VALUE)
+            }
+            val path = cacheDir.resolve(cacheKey)
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            val entry = Entry(path, size, response.response().contentType())
+            add(cacheKey, entry)
+            return entry
+        } finally {
+            tmp.deleteIfExists()
+        }
+    }
+
+    private fun add(cacheKey: String, entry: Entry) {
+        val evicted = mutableListOf<Entry>()
+        lock.withLock {
+            entries.put(cacheKey, entry)?.let { sizeBytes -= it.sizeBytes }
+            sizeBytes += entry.sizeBytes
+            val iterator = entries.entries.iterator()
+            while (sizeBytes > maxBytes && iterator.hasNext()) {
+                val oldest = iterator.next().value
+                if (oldest === entry) continue
+                iterator.remove()
+                sizeBytes -= oldest.sizeBytes
+                evicted.add(oldest)
+                evictions.incrementAndGet()
+            }
+        }
+        // Jo avatut lukuvirrat säilyvät luettavina, vaikka tiedosto poistetaan
+        evicted.forEach { it.path.deleteIfExists() }
+    }
+
+    private fun invalidate(bucket: Bucket, key: String) {
+        val entry = lock.withLock {
+            entries.remove("${bucket.name}_$key")?.also { sizeBytes -= it.sizeBytes }
+        }
+        entry?.path?.deleteIfExists()
+    }
+
+    // Palauttaa null, jos tiedosto ehdittiin poistaa välimuistista ennen avaamista
+    private fun open(
+        entry: Entry,
+        start: Long = 0,
+        endInclusive: Long = entry.sizeBytes - 1
+    ): ResponseInputStream<GetObjectResponse>? {
+        val inputStream = try {
+            openFileRange(entry.path, start, endInclusive)
+        } catch (_: NoSuchFileException) {
+            logger.debug("Cached object ${entry.path} was evicted before it could be read")
+            return null
+        }
+        val response = GetObjectResponse.builder()
+            .contentType(entry.contentType)
+            .contentLength(endInclusive - start + 1)
+            .build()
+        return ResponseInputStream(response, inputStream)
+    }
+
+    companion object {
+        private val CACHEABLE_KEY = Regex("^[A-Za-z0-9_-]+$")
+    }
+}
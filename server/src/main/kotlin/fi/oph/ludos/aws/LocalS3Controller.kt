@@ -0,0 +1,55 @@
+package fi.oph.ludos.aws
+
+import fi.oph.ludos.Constants
+import org.springframework.context.annotation.Profile
+import org.springframework.core.io.FileSystemResource
+import org.springframework.core.io.Resource
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.http.ResponseEntity
+import org.springframework.web.bind.annotation.GetMapping
+import org.springframework.web.bind.annotation.PathVariable
+import org.springframework.web.bind.annotation.RequestMapping
+import org.springframework.web.bind.annotation.RequestParam
+import org.springframework.web.bind.annotation.RestController
+import org.springframework.web.server.ResponseStatusException
+import java.nio.file.Files
+
+/**
+ * Palvelee LocalS3Helperin allekirjoittamia osoitteita, jotta allekirjoitettujen latausten uudelleenohjausta voi
+ * käyttää ja testata ilman S3:a. Kuten S3, vastaus ei tarkista käyttöoikeuksia, vaan allekirjoituksen.
+ */
+@RestController
+@Profile("local")
+@RequestMapping("${Constants.API_PREFIX}/local-s3")
+class LocalS3Controller(val localS3Helper: LocalS3Helper) {
+    @GetMapping("/{bucket}/{key}")
+    fun getObject(
+        @PathVariable bucket: Bucket,
+        @PathVariable key: String,
+        @RequestParam expires: Long,
+        @RequestParam contentType: String,
+        @RequestParam contentDisposition: String,
+        @RequestParam cacheControl: String,
+        @RequestParam signature: String
+    ): ResponseEntity<Resource> {
+        val responseHeaders = DownloadResponseHeaders(contentType, contentDisposition, cacheControl)
+        if (!localS3Helper.isValidSignature(bucket, key, expires, responseHeaders, signature)) {
+            throw ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid or expired signature")
+        }
+
+        val path = localS3Helper.objectPath(bucket, key)
+        if (!Files.exists(path)) {
+            throw ResponseStatusException(HttpStatus.NOT_FOUND, "$key not found in $bucket")
+        }
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(contentType.ifEmpty { localS3Helper.contentType(path) }))
+            .apply {
+                if (contentDisposition.isNotEmpty()) header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
+                if (cacheControl.isNotEmpty()) header(HttpHeaders.CACHE_CONTROL, cacheControl)
+            }
+            .body(FileSystemResource(path))
+    }
+}
@@ -6,8 +6,31 @@ import ch.qos.logback.core.encoder.Encoder
 import org.slf4j.LoggerFactory
 import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient
 import software.amazon.awssdk.services.cloudwatchlogs.model.CreateLogStreamRequest
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent
+import software.amazon.awssdk.services.cloudwatchlogs.model.InvalidParameterException
 import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest
+import software.amazon.awssdk.services.cloudwatchlogs.model.RejectedLogEventsInfo
+import software.amazon.awssdk.services.cloudwatchlogs.model.ResourceAlreadyExistsException
+import java.nio.file.Path
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
+// PutLogEvents-kutsun rajat, ks. https://docs.aws.amazon.com/AmazonCloudWatchLogs/latest/APIReference/API_PutLogEvents.html
+const val CLOUDWATCH_MAX_BATCH_EVENTS = 10_000
+const val CLOUDWATCH_MAX_BATCH_BYTES = 1_048_576
+const val CLOUDWATCH_EVENT_OVERHEAD_BYTES = 26
+// Erän tapahtumien aikaleimat saavat olla alle 24 tunnin päässä toisistaan
+const val CLOUDWATCH_MAX_BATCH_SPAN_MILLIS = 24L * 60 * 60 * 1000 - 1
+private const val MAX_RETRY_BACKOFF_MILLIS = 30_000L
+
+/**
+ * Audit-lokin appender, joka ei tee verkkokutsuja pyyntösäikeessä. Tapahtumat kirjoitetaan ensin levypuskuriin
+ * (AuditSpool), ja yksi taustasäie lähettää ne CloudWatchiin erinä, kun erä on täynnä tai vanhin tapahtuma on
+ * odottanut maxBatchAgeMillis. Koska lähettäjiä on vain yksi, tapahtumat päätyvät lokivirtaan samassa järjestyksessä
+ * kuin ne kirjattiin. CloudWatch-katkon aikana tapahtumat jäävät levylle ja lähetetään, kun yhteys palaa, myös
+ * uudelleenkäynnistyksen jälkeen. Jos puskuri on täynnä (maxSpoolBytes), tapahtuma hylätään ja hylätyt lasketaan.
+ */
 class LudosLogbackCloudwatchAppender :
     AppenderBase<ILoggingEvent>() {
     private val logger = LoggerFactory.getLogger(javaClass)
@@ -16,12 +39,29 @@ class LudosLogbackCloudwatchAppender :
     var encoder: Encoder<ILoggingEvent>? = null
     var localAwsProfileName: String? = null
     var logGroupName: String? = null
+    var spoolDirectory: String = Path.of(System.getProperty("java.io.tmpdir"), "ludos-audit-spool").toString()
+    var maxSpoolBytes: Long = 512L * 1024 * 1024
+    var maxBatchAgeMillis: Long = 1_000
+    var initialRetryBackoffMillis: Long = 200
+    var stopTimeoutMillis: Long = 10_000
     // </logback-spring.xml-attributes>
 
-    private lateinit
-    var cloudWatchLogsClient: CloudWatchLogsClient
+    // Testeissä asetetaan ennen start-kutsua
+    internal var cloudWatchLogsClient: CloudWatchLogsClient? = null
+    internal var logStreamName: String = getEcsTaskIdFromEnv()
+
+    private lateinit var spool: AuditSpool
+    private lateinit var sender: Thread
+    private lateinit var stopSignal: CountDownLatch
+
+    private val droppedEvents = AtomicLong()
+    private var reportedDroppedEvents = 0L
 
-    private val logStreamName: String = getEcsTaskIdFromEnv()
+    val pendingBytes: Long
+        get() = if (::spool.isInitialized) spool.pendingBytes else 0
+
+    val droppedEventCount: Long
+        get() = droppedEvents.get()
 
     override fun start() {
         if (started) {
@@ -38,34 +78,152 @@ class LudosLogbackCloudwatchAppender :
             throw IllegalStateException("logGroupName was blank")
         }
 
-        cloudWatchLogsClient = CloudWatchLogsClient.builder()
+        val client = cloudWatchLogsClient ?: CloudWatchLogsClient.builder()
             .region(AWS_REGION)
             .credentialsProvider(awsCredentialsProviderChain(localAwsProfileName))
             .build()
-        val createLogStreamRequest = CreateLogStreamRequest.builder()
-            .logGroupName(logGroupName).logStreamName(logStreamName).build()
-        cloudWatchLogsClient.createLogStream(createLogStreamRequest)
+        cloudWatchLogsClient = client
+
+        // Lokivirta luodaan taustasäikeessä, jotta appender käynnistyy ja tapahtumat tallentuvat levylle myös
+        // CloudWatch-katkon aikana
+        spool = AuditSpool(Path.of(spoolDirectory), maxSpoolBytes)
+        stopSignal = CountDownLatch(1)
+        sender = Thread.ofPlatform().daemon().name("cloudwatch-audit-sender").start { runSender() }
 
         super.start()
     }
 
+    override fun stop() {
+        if (!started) {
+            return
+        }
+        super.stop()
+
+        stopSignal.countDown()
+        sender.join(stopTimeoutMillis)
+        if (sender.isAlive) {
+            logger.error("CloudWatch audit sender did not finish in $stopTimeoutMillis ms, ${spool.pendingBytes} bytes left in spool")
+        } else {
+            spool.close()
+        }
+    }
+
     override fun append(eventObject: ILoggingEvent) {
         val message = encoder?.encode(eventObject)?.toString(Charsets.UTF_8) ?: eventObject.formattedMessage
+        if (!spool.append(eventObject.timeStamp, message)) {
+            droppedEvents.incrementAndGet()
+        }
+    }
+
+    private val stopping: Boolean
+        get() = stopSignal.count == 0L
+
+    // Odottaa annetun ajan tai kunnes appender pysäytetään
+    private fun pause(millis: Long) {
+        stopSignal.await(millis, TimeUnit.MILLISECONDS)
+    }
+
+    private fun runSender() {
+        if (!retryUntilSuccess("create-log-stream") { createLogStream() }) {
+            return
+        }
+
+        while (true) {
+            val batch = spool.read(CLOUDWATCH_MAX_BATCH_EVENTS, CLOUDWATCH_MAX_BATCH_BYTES, CLOUDWATCH_MAX_BATCH_SPAN_MILLIS)
+            if (batch.records.isEmpty()) {
+                if (stopping) break
+                pause(maxBatchAgeMillis)
+                continue
+            }
+
+            val waitMillis = batch.records.first().timestamp + maxBatchAgeMillis - System.currentTimeMillis()
+            if (!batch.full && !stopping && waitMillis > 0) {
+                pause(waitMillis)
+                continue
+            }
+
+            if (!send(batch.records)) {
+                // Pysäytetty kesken uudelleenyritysten, erä jää levylle seuraavaa käynnistystä varten
+                break
+            }
+            spool.commit(batch.nextOffset)
+            reportDroppedEvents()
+        }
+    }
+
+    private fun createLogStream() {
+        val request = CreateLogStreamRequest.builder().logGroupName(logGroupName).logStreamName(logStreamName).build()
+        try {
+            cloudWatchLogsClient!!.createLogStream(request)
+        } catch (_: ResourceAlreadyExistsException) {
+        }
+    }
+
+    private fun send(records: List<AuditSpool.Record>): Boolean {
+        // CloudWatch vaatii erän tapahtumat aikajärjestyksessä. Järjestys on vakaa, joten saman millisekunnin
+        // tapahtumat säilyttävät kirjausjärjestyksensä.
         val request = PutLogEventsRequest.builder()
             .logGroupName(logGroupName)
             .logStreamName(logStreamName)
             .logEvents(
-                software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent.builder()
-                    .message(message)
-                    .timestamp(eventObject.timeStamp)
-                    .build()
+                records.sortedBy { it.timestamp }.map {
+                    InputLogEvent.builder().message(it.message).timestamp(it.timestamp).build()
+                }
             )
             .build()
 
-        try {
-            cloudWatchLogsClient.putLogEvents(request)
-        } catch (e: Throwable) {
-            logger.error("Error calling put-log-events(${eventObject.formattedMessage})", e)
+        return retryUntilSuccess("put-log-events") {
+            try {
+                val response = cloudWatchLogsClient!!.putLogEvents(request)
+                countRejectedEvents(records.size, response.rejectedLogEventsInfo())
+            } catch (e: InvalidParameterException) {
+                // Erä ei mene läpi uudelleen yrittämälläkään, eikä se saa estää seuraavien lähettämistä
+                droppedEvents.addAndGet(records.size.toLong())
+                logger.error("Dropping ${records.size} audit events rejected by put-log-events", e)
+            }
+        }
+    }
+
+    // CloudWatch hyväksyy erän, vaikka osa sen tapahtumista olisi liian vanhoja tai liian kaukana tulevaisuudessa.
+    // Hylätyt tapahtumat kerrotaan indekseinä aikajärjestetyssä erässä.
+    private fun countRejectedEvents(batchSize: Int, info: RejectedLogEventsInfo?) {
+        if (info == null) {
+            return
+        }
+        val tooOld = maxOf(info.tooOldLogEventEndIndex() ?: 0, info.expiredLogEventEndIndex() ?: 0)
+        val tooNew = info.tooNewLogEventStartIndex()?.let { (batchSize - it).coerceAtLeast(0) } ?: 0
+        val rejected = (tooOld + tooNew).coerceAtMost(batchSize)
+        if (rejected > 0) {
+            droppedEvents.addAndGet(rejected.toLong())
+            logger.error("put-log-events rejected $rejected audit events: $info")
+        }
+    }
+
+    // Yrittää uudelleen kasvavin väliajoin, kunnes kutsu onnistuu. Palauttaa false, jos appender pysäytettiin ensin.
+    private fun retryUntilSuccess(operation: String, call: () -> Unit): Boolean {
+        var backoffMillis = initialRetryBackoffMillis
+        var attempt = 1
+        while (true) {
+            try {
+                call()
+                return true
+            } catch (e: Exception) {
+                if (stopping) {
+                    return false
+                }
+                logger.warn("$operation failed (attempt $attempt), retrying in $backoffMillis ms", e)
+                pause(backoffMillis)
+                backoffMillis = minOf(backoffMillis * 2, MAX_RETRY_BACKOFF_MILLIS)
+                attempt++
+            }
+        }
+    }
+
+    private fun reportDroppedEvents() {
+        val dropped = droppedEvents.get()
+        if (dropped > reportedDroppedEvents) {
+            logger.warn("${dropped - reportedDroppedEvents} audit events dropped, ${spool.pendingBytes} bytes pending in spool")
+            reportedDroppedEvents = dropped
         }
     }
 }
@@ -76,4 +234,4 @@ fun getEcsTaskIdFromEnv(): String {
     val metadataUri = System.getenv("ECS_CONTAINER_METADATA_URI")
     val taskId = metadataUri?.split("/")?.last()?.split("-")?.first()
     return taskId ?: ("unknown_task_id-" + System.currentTimeMillis())
-}
\ No newline at end of file
+}
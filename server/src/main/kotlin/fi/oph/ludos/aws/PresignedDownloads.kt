@@ -0,0 +1,65 @@
+package fi.oph.ludos.aws
+
+import fi.oph.ludos.config.Features
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.http.CacheControl
+import org.springframework.http.HttpStatus
+import org.springframework.http.ResponseEntity
+import org.springframework.stereotype.Component
+import org.springframework.web.server.ResponseStatusException
+import software.amazon.awssdk.core.exception.SdkException
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+
+// Osoitteet allekirjoitetaan ikkunan alkuhetkellä, joten sama objekti saa koko ikkunan ajan saman osoitteen ja
+// selain voi käyttää välimuistiin tallentamaansa kopiota. Ikkuna on lyhyt, koska osoite lakkaa toimimasta myös,
+// jos allekirjoittamiseen käytetyt väliaikaiset tunnukset vanhenevat.
+val PRESIGNED_URL_WINDOW: Duration = Duration.ofMinutes(15)
+
+// Ikkunan lopussa annettu osoite on vielä tämän ajan voimassa
+val PRESIGNED_URL_MIN_VALIDITY: Duration = Duration.ofMinutes(5)
+
+/**
+ * Valinnainen lataustapa, jossa käyttöoikeudet ja julkaisutila tarkistetaan kuten ennenkin, mutta tiedostoa ei
+ * välitetä sovelluksen kautta. Sen sijaan selain ohjataan lyhytikäiseen allekirjoitettuun S3-osoitteeseen, jonka
+ * vastaukseen S3 asettaa samat Content-Type-, Content-Disposition- ja Cache-Control-otsakkeet kuin sovellus.
+ *
+ * Objektin välimuistikelpoisuus on käytännössä lyhyempi kuin ilman uudelleenohjausta: selain tallentaa objektin
+ * allekirjoitetun osoitteen perusteella, ja osoite vaihtuu ikkunan (PRESIGNED_URL_WINDOW) vaihtuessa.
+ */
+@Component
+class PresignedDownloads(
+    private val s3Helper: S3Helper,
+    private val features: Features,
+    private val clock: Clock = Clock.systemUTC(),
+) {
+    private val logger: Logger = LoggerFactory.getLogger(javaClass)
+
+    val enabled: Boolean
+        get() = features.presignedDownloads
+
+    fun <T> redirect(bucket: Bucket, key: String, responseHeaders: DownloadResponseHeaders): ResponseEntity<T> {
+        val now = clock.instant()
+        val windowSeconds = PRESIGNED_URL_WINDOW.seconds
+        val windowStart = Instant.ofEpochSecond(now.epochSecond - now.epochSecond % windowSeconds)
+        val windowEnd = windowStart.plus(PRESIGNED_URL_WINDOW)
+
+        val url = try {
+            s3Helper.presignGetObject(
+                bucket, key, windowStart, PRESIGNED_URL_WINDOW.plus(PRESIGNED_URL_MIN_VALIDITY), responseHeaders
+            )
+        } catch (ex: SdkException) {
+            val errorMsg = "Failed to presign '$key' in S3"
+            logger.error(errorMsg, ex)
+            throw ResponseStatusException(HttpStatus.BAD_GATEWAY, errorMsg)
+        }
+
+        return ResponseEntity.status(HttpStatus.FOUND)
+            .location(url)
+            // Uudelleenohjauksen saa käyttää uudelleen ikkunan loppuun asti, jolloin osoite pysyy samana
+            .cacheControl(CacheControl.maxAge(Duration.between(now, windowEnd)).cachePrivate())
+            .build()
+    }
+}
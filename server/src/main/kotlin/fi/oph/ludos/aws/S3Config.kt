@@ -1,10 +1,13 @@
 package fi.oph.ludos.aws
 
+import org.springframework.beans.factory.ObjectProvider
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
+import org.springframework.context.annotation.Primary
 import org.springframework.context.annotation.Profile
 import org.springframework.core.env.Environment
 import software.amazon.awssdk.services.s3.S3Client
+import java.nio.file.Path
 
 @Configuration
 class S3Config {
@@ -18,4 +21,17 @@ class S3Config {
         return S3Client.builder().region(AWS_REGION).credentialsProvider(providerChain).build()
     }
 
-}
\ No newline at end of file
+    @Bean
+    @Primary
+    fun cachingS3Helper(
+        environment: Environment,
+        cloudS3Helper: ObjectProvider<CloudS3Helper>,
+        localS3Helper: ObjectProvider<LocalS3Helper>
+    ): CachingS3Helper {
+        val cacheDir = environment.getProperty("ludos.s3-cache.directory")
+            ?: Path.of(System.getProperty("java.io.tmpdir"), "ludos_s3_cache").toString()
+        val maxBytes = environment.getProperty("ludos.s3-cache.max-bytes", Long::class.java, 1024L * 1024 * 1024)
+
+        return CachingS3Helper(cloudS3Helper.ifAvailable ?: localS3Helper.getObject(), Path.of(cacheDir), maxBytes)
+    }
+}
@@ -1,5 +1,6 @@
 package fi.oph.ludos.aws
 
+import fi.oph.ludos.Constants
 import jakarta.annotation.PostConstruct
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -7,15 +8,35 @@ import org.springframework.context.annotation.Profile
 import org.springframework.core.env.Environment
 import org.springframework.stereotype.Component
 import org.springframework.web.multipart.MultipartFile
+import org.springframework.web.util.UriComponentsBuilder
 import software.amazon.awssdk.core.ResponseInputStream
 import software.amazon.awssdk.core.exception.SdkException
 import software.amazon.awssdk.core.sync.RequestBody
 import software.amazon.awssdk.services.s3.S3Client
 import software.amazon.awssdk.services.s3.model.*
+import software.amazon.awssdk.http.SdkHttpMethod
+import software.amazon.awssdk.http.SdkHttpRequest
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner
+import software.amazon.awssdk.http.auth.spi.signer.HttpSigner
+import software.amazon.awssdk.utils.http.SdkHttpUtils
+import java.io.FilterInputStream
 import java.io.InputStream
+import java.net.URI
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.nio.file.StandardOpenOption
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneOffset
+import java.util.Base64
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
 import kotlin.io.path.deleteIfExists
 
 enum class Bucket(private val bucketNameProperty: String) {
@@ -31,14 +52,70 @@ enum class Bucket(private val bucketNameProperty: String) {
 interface S3Helper {
     fun putObject(bucket: Bucket, key: String, file: MultipartFile)
     fun getObject(bucket: Bucket, key: String): ResponseInputStream<GetObjectResponse>?
+    fun getObjectRange(
+        bucket: Bucket,
+        key: String,
+        start: Long,
+        endInclusive: Long
+    ): ResponseInputStream<GetObjectResponse>?
+    fun getObjectSize(bucket: Bucket, key: String): Long?
+    // Sama allekirjoitushetki tuottaa saman osoitteen, kunhan muut parametrit eivät muutu
+    fun presignGetObject(
+        bucket: Bucket,
+        key: String,
+        signedAt: Instant,
+        expiry: Duration,
+        responseHeaders: DownloadResponseHeaders
+    ): URI
     fun deleteObject(bucket: Bucket, key: String)
 }
 
+// Otsakkeet, jotka allekirjoitetun osoitteen vastaus palauttaa objektin omien otsakkeiden sijaan
+data class DownloadResponseHeaders(
+    val contentType: String? = null,
+    val contentDisposition: String? = null,
+    val cacheControl: String? = null,
+)
+
+// Lukee tiedostosta tavuvälin start..endInclusive siirtymällä suoraan välin alkuun
+fun openFileRange(path: Path, start: Long, endInclusive: Long): InputStream {
+    val channel = FileChannel.open(path, StandardOpenOption.READ).position(start)
+    return LimitedInputStream(Channels.newInputStream(channel), endInclusive - start + 1)
+}
+
+private class LimitedInputStream(input: InputStream, private var remaining: Long) : FilterInputStream(input) {
+    override fun read(): Int {
+        if (remaining <= 0) return -1
+        val b = super.read()
+        if (b >= 0) remaining--
+        return b
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (remaining <= 0) return -1
+        val n = super.read(b, off, minOf(len.toLong(), remaining).toInt())
+        if (n > 0) remaining -= n
+        return n
+    }
+
+    override fun skip(n: Long): Long {
+        val skipped = super.skip(minOf(n, remaining))
+        remaining -= skipped
+        return skipped
+    }
+
+    override fun available(): Int = minOf(super.available().toLong(), remaining).toInt()
+}
+
 @Component
 @Profile("!local")
 class CloudS3Helper(val environment: Environment, val s3: S3Client) : S3Helper {
     val logger: Logger = LoggerFactory.getLogger(javaClass)
 
+    private val credentialsProvider =
+        awsCredentialsProviderChain(environment.getProperty("ludos.local-dev-aws-profile"))
+    private val signer = AwsV4HttpSigner.create()
+
     @PostConstruct
     fun checkS3Credentials() {
         Bucket.entries.forEach {
@@ -119,6 +196,79 @@ class CloudS3Helper(val environment: Environment, val s3: S3Client) : S3Helper {
         }
     }
 
+    override fun getObjectRange(
+        bucket: Bucket,
+        key: String,
+        start: Long,
+        endInclusive: Long
+    ): ResponseInputStream<GetObjectResponse>? {
+        val bucketName = bucket.getBucketName(environment)
+        val objectRequest =
+            GetObjectRequest.builder().bucket(bucketName).key(key).range("bytes=$start-$endInclusive").build()
+
+        return try {
+            s3.getObject(objectRequest)
+        } catch (ex: NoSuchKeyException) {
+            null
+        } catch (ex: SdkException) {
+            logger.error("Unexpected error getting range $start-$endInclusive of object '$key' from S3 bucket '${bucketName}'", ex)
+            throw ex
+        }
+    }
+
+    override fun getObjectSize(bucket: Bucket, key: String): Long? {
+        val bucketName = bucket.getBucketName(environment)
+        val objectRequest = HeadObjectRequest.builder().bucket(bucketName).key(key).build()
+
+        return try {
+            s3.headObject(objectRequest).contentLength()
+        } catch (ex: NoSuchKeyException) {
+            null
+        } catch (ex: S3Exception) {
+            if (ex.statusCode() == 404) {
+                null
+            } else {
+                logger.error("Unexpected error getting size of object '$key' from S3 bucket '${bucketName}'", ex)
+                throw ex
+            }
+        }
+    }
+
+    // S3Presigner allekirjoittaa aina nykyhetkellä, joten osoite allekirjoitetaan suoraan SigV4-allekirjoittajalla
+    override fun presignGetObject(
+        bucket: Bucket,
+        key: String,
+        signedAt: Instant,
+        expiry: Duration,
+        responseHeaders: DownloadResponseHeaders
+    ): URI {
+        val host = "${bucket.getBucketName(environment)}.s3.${AWS_REGION.id()}.amazonaws.com"
+        val request = SdkHttpRequest.builder()
+            .method(SdkHttpMethod.GET)
+            .uri(URI.create("https://$host/${SdkHttpUtils.urlEncodeIgnoreSlashes(key)}"))
+            .apply {
+                responseHeaders.contentType?.let { putRawQueryParameter("response-content-type", it) }
+                responseHeaders.contentDisposition?.let { putRawQueryParameter("response-content-disposition", it) }
+                responseHeaders.cacheControl?.let { putRawQueryParameter("response-cache-control", it) }
+            }
+            .build()
+
+        val signed = signer.sign { signRequest ->
+            signRequest
+                .identity(credentialsProvider.resolveCredentials())
+                .request(request)
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, "s3")
+                .putProperty(AwsV4HttpSigner.REGION_NAME, AWS_REGION.id())
+                .putProperty(AwsV4HttpSigner.AUTH_LOCATION, AwsV4HttpSigner.AuthLocation.QUERY_STRING)
+                .putProperty(AwsV4HttpSigner.EXPIRATION_DURATION, expiry)
+                .putProperty(AwsV4HttpSigner.PAYLOAD_SIGNING_ENABLED, false)
+                .putProperty(AwsV4HttpSigner.DOUBLE_URL_ENCODE, false)
+                .putProperty(AwsV4HttpSigner.NORMALIZE_PATH, false)
+                .putProperty(HttpSigner.SIGNING_CLOCK, Clock.fixed(signedAt, ZoneOffset.UTC))
+        }
+        return signed.request().getUri()
+    }
+
     override fun deleteObject(bucket: Bucket, key: String) {
         val bucketName = bucket.getBucketName(environment)
         val objectRequest = DeleteObjectRequest.builder().bucket(bucketName).key(key).build()
@@ -146,6 +296,11 @@ class LocalS3Helper(val environment: Environment) : S3Helper {
 
     fun bucketDir(bucket: Bucket): Path = s3Dir.resolve(bucket.getBucketName(environment))
 
+    fun objectPath(bucket: Bucket, key: String): Path = bucketDir(bucket).resolve(key)
+
+    // Allekirjoitusavain luodaan käynnistyksessä, joten osoitteet eivät ole voimassa uudelleenkäynnistyksen jälkeen
+    private val signingKey = ByteArray(32).also { SecureRandom().nextBytes(it) }
+
     @PostConstruct
     fun init() {
         if (!Files.exists(s3Dir)) {
@@ -175,16 +330,17 @@ class LocalS3Helper(val environment: Environment) : S3Helper {
         logger.info("Uploaded $key to $bucket")
     }
 
+    fun contentType(filePath: Path): String {
+        // Read the content type from the separate file
+        val contentTypePath = contentTypeFilePath(filePath)
+        return if (Files.exists(contentTypePath)) Files.readString(contentTypePath) else "application/octet-stream"
+    }
+
     override fun getObject(bucket: Bucket, key: String): ResponseInputStream<GetObjectResponse>? {
         return try {
             val filePath = bucketDir(bucket).resolve(key)
-            // Read the content type from the separate file
-            val contentTypePath = contentTypeFilePath(filePath)
-            val contentType =
-                if (Files.exists(contentTypePath)) Files.readString(contentTypePath) else "application/octet-stream"
-
             val inputStream = Files.newInputStream(filePath)
-            val objectResponse = GetObjectResponse.builder().contentType(contentType).build()
+            val objectResponse = GetObjectResponse.builder().contentType(contentType(filePath)).build()
 
             ResponseInputStream(objectResponse, inputStream)
         } catch (e: Exception) {
@@ -193,6 +349,79 @@ class LocalS3Helper(val environment: Environment) : S3Helper {
         }
     }
 
+    override fun getObjectRange(
+        bucket: Bucket,
+        key: String,
+        start: Long,
+        endInclusive: Long
+    ): ResponseInputStream<GetObjectResponse>? {
+        return try {
+            val filePath = bucketDir(bucket).resolve(key)
+            val objectResponse = GetObjectResponse.builder()
+                .contentType(contentType(filePath))
+                .contentLength(endInclusive - start + 1)
+                .contentRange("bytes $start-$endInclusive/${Files.size(filePath)}")
+                .build()
+
+            ResponseInputStream(objectResponse, openFileRange(filePath, start, endInclusive))
+        } catch (e: Exception) {
+            logger.error("Error getting range $start-$endInclusive of $key from $bucket", e)
+            null
+        }
+    }
+
+    override fun getObjectSize(bucket: Bucket, key: String): Long? {
+        val filePath = bucketDir(bucket).resolve(key)
+        return if (Files.exists(filePath)) Files.size(filePath) else null
+    }
+
+    // Paikallinen vastine S3:n allekirjoitetulle osoitteelle, ks. LocalS3Controller
+    override fun presignGetObject(
+        bucket: Bucket,
+        key: String,
+        signedAt: Instant,
+        expiry: Duration,
+        responseHeaders: DownloadResponseHeaders
+    ): URI {
+        val expires = signedAt.plus(expiry).epochSecond
+        val params = mapOf(
+            "expires" to expires.toString(),
+            "contentType" to (responseHeaders.contentType ?: ""),
+            "contentDisposition" to (responseHeaders.contentDisposition ?: ""),
+            "cacheControl" to (responseHeaders.cacheControl ?: ""),
+            "signature" to sign(bucket, key, expires, responseHeaders),
+        )
+        val builder = UriComponentsBuilder.fromPath("${Constants.API_PREFIX}/local-s3/{bucket}/{key}")
+        params.keys.forEach { builder.queryParam(it, "{$it}") }
+
+        return builder.encode().buildAndExpand(params + mapOf("bucket" to bucket.name, "key" to key)).toUri()
+    }
+
+    fun isValidSignature(
+        bucket: Bucket,
+        key: String,
+        expires: Long,
+        responseHeaders: DownloadResponseHeaders,
+        signature: String
+    ): Boolean = expires >= Instant.now().epochSecond && MessageDigest.isEqual(
+        sign(bucket, key, expires, responseHeaders).toByteArray(),
+        signature.toByteArray()
+    )
+
+    private fun sign(bucket: Bucket, key: String, expires: Long, responseHeaders: DownloadResponseHeaders): String {
+        val mac = Mac.getInstance("HmacSHA256")
+        mac.init(SecretKeySpec(signingKey, "HmacSHA256"))
+        val signed = listOf(
+            bucket.name,
+            key,
+            expires.toString(),
+            responseHeaders.contentType ?: "",
+            responseHeaders.contentDisposition ?: "",
+            responseHeaders.cacheControl ?: ""
+        ).joinToString("\n")
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal(signed.toByteArray()))
+    }
+
     override fun deleteObject(bucket: Bucket, key: String) {
         try {
             val filePath = bucketDir(bucket).resolve(key)
@@ -0,0 +1,198 @@
+package fi.oph.ludos.cache
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.cache.Cache
+import org.springframework.cache.support.AbstractValueAdaptingCache
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+data class CacheStats(
+    val size: Int,
+    val maxSize: Int,
+    val hits: Long,
+    val misses: Long,
+    val evictions: Long,
+    val expirations: Long,
+    val refreshes: Long,
+)
+
+/**
+ * Kokorajoitettu LRU-välimuisti, jonka arvot voivat vanhentua kirjoitushetkestä laskettuna. Jos välimuistia
+ * käytetään latausfunktion kanssa (get(key, valueLoader)), refreshAfterWrite-ajan ylittänyt arvo palautetaan
+ * heti ja ladataan taustalla uudelleen ennen kuin se ehtii vanhentua.
+ *
+ * Jokainen clear- ja evict-kutsu kasvattaa sukupolvilaskuria. Lataus tai taustapäivitys, joka alkoi ennen
+ * mitätöintiä, ei kirjoita tulostaan välimuistiin, koska tulos voi olla luettu ennen mitätöinnin aiheuttanutta
+ * muutosta. Samaa tarkistusta voi käyttää välimuistin ulkopuolella tehdyille hauille (generation, putIfGeneration).
+ */
+class BoundedCache(
+    private val name: String,
+    private val maxSize: Int,
+    private val expireAfterWrite: Duration?,
+    private val refreshAfterWrite: Duration?,
+    private val refreshExecutor: Executor,
+    private val nanoTime: () -> Long = System::nanoTime,
+) : AbstractValueAdaptingCache(false) {
+    private val logger: Logger = LoggerFactory.getLogger(javaClass)
+
+    private class Entry(val value: Any, val writtenAt: Long) {
+        val refreshing = AtomicBoolean(false)
+    }
+
+    private val lock = ReentrantLock()
+    private val entries = LinkedHashMap<Any, Entry>(16, 0.75f, true)
+    private val loadsInFlight = ConcurrentHashMap<Any, CompletableFuture<Any>>()
+    private var generation = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+    private val expirations = AtomicLong()
+    private val refreshes = AtomicLong()
+
+    override fun getName(): String = name
+
+    override fun getNativeCache(): Any = this
+
+    private fun isOlderThan(entry: Entry, duration: Duration?) =
+        duration != null && nanoTime() - entry.writtenAt >= duration.toNanos()
+
+    private fun getEntry(key: Any): Entry? = lock.withLock {
+        val entry = entries[key]
+        when {
+            entry == null -> null
+            isOlderThan(entry, expireAfterWrite) -> {
+                entries.remove(key)
+                expirations.incrementAndGet()
+                null
+            }
+
+            else -> entry
+        }
+    }.also { if (it == null) misses.incrementAndGet() else hits.incrementAndGet() }
+
+    override fun lookup(key: Any): Any? = getEntry(key)?.value
+
+    @Suppress("UNCHECKED_CAST")
+    override fun <T : Any?> get(key: Any, valueLoader: Callable<T>): T {
+        val entry = getEntry(key)
+        if (entry != null) {
+            if (isOlderThan(entry, refreshAfterWrite) && entry.refreshing.compareAndSet(false, true)) {
+                refreshInBackground(key, valueLoader)
+            }
+            return fromStoreValue(entry.value) as T
+        }
+
+        // Vain yksi säie lataa puuttuvan arvon, muut odottavat saman latauksen tulosta
+        val newLoad = CompletableFuture<Any>()
+        val load = loadsInFlight.putIfAbsent(key, newLoad)
+        if (load != null) {
+            try {
+                return fromStoreValue(load.get()) as T
+            } catch (e: ExecutionException) {
+                throw Cache.ValueRetrievalException(key, valueLoader, e.cause)
+            }
+        }
+
+        try {
+            val loadGeneration = generation()
+            val storeValue = toStoreValue(valueLoader.call())
+            putIfGeneration(key, storeValue, loadGeneration, alreadyStoreValue = true)
+            newLoad.complete(storeValue)
+            return fromStoreValue(storeValue) as T
+        } catch (e: Exception) {
+            newLoad.completeExceptionally(e)
+            throw Cache.ValueRetrievalException(key, valueLoader, e)
+        } finally {
+            loadsInFlight.remove(key, newLoad)
+        }
+    }
+
+    private fun refreshInBackground(key: Any, valueLoader: Callable<*>) {
+        refreshExecutor.execute {
+            try {
+                val loadGeneration = generation()
+                if (putIfGeneration(key, valueLoader.call(), loadGeneration)) {
+                    refreshes.incrementAndGet()
+                } else {
+                    // Mitätöity kesken päivityksen: jos arvo on yhä välimuistissa, se päivitetään seuraavalla kerralla
+                    lock.withLock { entries[key]?.refreshing?.set(false) }
+                }
+            } catch (e: Exception) {
+                logger.warn("Failed to refresh cache $name entry $key", e)
+                lock.withLock { entries[key]?.refreshing?.set(false) }
+            }
+        }
+    }
+
+    override fun put(key: Any, value: Any?) {
+        val storeValue = toStoreValue(value)
+        lock.withLock { putLocked(key, storeValue) }
+    }
+
+    fun generation(): Long = lock.withLock { generation }
+
+    /**
+     * Tallentaa arvon vain, jos välimuistia ei ole mitätöity sen jälkeen, kun generation() palautti annetun arvon.
+     */
+    fun putIfGeneration(key: Any, value: Any?, expectedGeneration: Long): Boolean =
+        putIfGeneration(key, value, expectedGeneration, alreadyStoreValue = false)
+
+    private fun putIfGeneration(key: Any, value: Any?, expectedGeneration: Long, alreadyStoreValue: Boolean): Boolean {
+        val storeValue = if (alreadyStoreValue) value!! else toStoreValue(value)
+        return lock.withLock {
+            if (generation != expectedGeneration) {
+                false
+            } else {
+                putLocked(key, storeValue)
+                true
+            }
+        }
+    }
+
+    private fun putLocked(key: Any, storeValue: Any) {
+        entries[key] = Entry(storeValue, nanoTime())
+        val iterator = entries.entries.iterator()
+        while (entries.size > maxSize && iterator.hasNext()) {
+            iterator.next()
+            iterator.remove()
+            evictions.incrementAndGet()
+        }
+    }
+
+    // Uudet hakijat eivät saa liittyä ennen mitätöintiä alkaneeseen lataukseen
+    override fun evict(key: Any) {
+        lock.withLock {
+            generation++
+            entries.remove(key)
+            loadsInFlight.remove(key)
+        }
+    }
+
+    override fun clear() {
+        lock.withLock {
+            generation++
+            entries.clear()
+            loadsInFlight.clear()
+        }
+    }
+
+    fun stats(): CacheStats = CacheStats(
+        size = lock.withLock { entries.size },
+        maxSize = maxSize,
+        hits = hits.get(),
+        misses = misses.get(),
+        evictions = evictions.get(),
+        expirations = expirations.get(),
+        refreshes = refreshes.get(),
+    )
+}
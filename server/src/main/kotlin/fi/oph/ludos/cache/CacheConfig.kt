@@ -1,19 +1,56 @@
 package fi.oph.ludos.cache
 
+import fi.oph.ludos.ContentType
 import org.springframework.cache.CacheManager
 import org.springframework.cache.annotation.EnableCaching
-import org.springframework.cache.concurrent.ConcurrentMapCacheManager
+import org.springframework.cache.support.AbstractCacheManager
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
+import java.time.Duration
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
 
 @Configuration
 @EnableCaching
 class CacheConfig {
     @Bean
-    fun cacheManager(): CacheManager = ConcurrentMapCacheManager(CacheName.LOCALIZED_TEXT.key, CacheName.KOODISTO.key)
+    fun cacheManager(): BoundedCacheManager = BoundedCacheManager(Executors.newVirtualThreadPerTaskExecutor())
 }
 
-enum class CacheName(val key: String) {
-    LOCALIZED_TEXT ("localizedText"),
-    KOODISTO ("koodisto")
-}
\ No newline at end of file
+class BoundedCacheManager(private val refreshExecutor: Executor) : AbstractCacheManager() {
+    override fun loadCaches(): Collection<BoundedCache> = CacheName.entries.map {
+        BoundedCache(it.key, it.maxSize, it.expireAfterWrite, it.refreshAfterWrite, refreshExecutor)
+    }
+
+    fun stats(): Map<String, CacheStats> =
+        cacheNames.associateWith { (getCache(it) as BoundedCache).stats() }
+}
+
+enum class CacheName(
+    val key: String,
+    val maxSize: Int,
+    val expireAfterWrite: Duration? = null,
+    val refreshAfterWrite: Duration? = null,
+    // Sisältötyypit, joiden muuttuminen tyhjentää välimuistin, ks. CacheInvalidationBus
+    val invalidatedBy: Set<ContentType> = emptySet(),
+) {
+    // Ajastetusti päivitettävät kokonaiset aineistot, joita ei saa vanhentaa
+    LOCALIZED_TEXT("localizedText", maxSize = 10),
+    KOODISTO("koodisto", maxSize = 10),
+    ASSIGNMENT_LIST_METADATA(
+        "assignmentListMetadata",
+        maxSize = 2000,
+        expireAfterWrite = Duration.ofMinutes(30),
+        invalidatedBy = setOf(ContentType.ASSIGNMENT)
+    ),
+    UPDATER_NAME("updaterName", maxSize = 5000, expireAfterWrite = Duration.ofHours(1)),
+    // Lyhyt vanhenemisaika, jotta käyttöoikeusmuutokset näkyvät pian seuraavassa kirjautumisessa
+    KAYTTOOIKEUS("kayttooikeus", maxSize = 5000, expireAfterWrite = Duration.ofMinutes(2)),
+    USERNAME_TO_OID("usernameToOid", maxSize = 20000, expireAfterWrite = Duration.ofHours(24)),
+    SEARCH_SUGGESTIONS(
+        "searchSuggestions",
+        maxSize = 5000,
+        expireAfterWrite = Duration.ofMinutes(10),
+        invalidatedBy = ContentType.entries.toSet()
+    ),
+}
@@ -0,0 +1,20 @@
+package fi.oph.ludos.cache
+
+import fi.oph.ludos.Constants
+import fi.oph.ludos.aws.CachingS3Helper
+import fi.oph.ludos.aws.S3CacheStats
+import fi.oph.ludos.auth.RequireAtLeastYllapitajaRole
+import org.springframework.web.bind.annotation.GetMapping
+import org.springframework.web.bind.annotation.RequestMapping
+import org.springframework.web.bind.annotation.RestController
+
+@RestController
+@RequireAtLeastYllapitajaRole
+@RequestMapping("${Constants.API_PREFIX}/cache")
+class CacheController(val cacheManager: BoundedCacheManager, val s3Cache: CachingS3Helper) {
+    @GetMapping("/stats")
+    fun getCacheStats(): Map<String, CacheStats> = cacheManager.stats()
+
+    @GetMapping("/s3/stats")
+    fun getS3CacheStats(): S3CacheStats = s3Cache.stats()
+}
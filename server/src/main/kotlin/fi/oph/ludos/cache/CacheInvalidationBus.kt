@@ -0,0 +1,138 @@
+package fi.oph.ludos.cache
+
+import fi.oph.ludos.ContentType
+import jakarta.annotation.PostConstruct
+import jakarta.annotation.PreDestroy
+import org.postgresql.PGConnection
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.cache.CacheManager
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.RowCallbackHandler
+import org.springframework.stereotype.Component
+import org.springframework.transaction.support.TransactionSynchronization
+import org.springframework.transaction.support.TransactionSynchronizationManager
+import java.sql.Connection
+import java.sql.DriverManager
+import java.util.Properties
+
+const val CACHE_INVALIDATION_CHANNEL = "ludos_cache_invalidation"
+const val CACHE_INVALIDATION_APPLICATION_NAME = "ludos-cache-invalidation-listener"
+
+/**
+ * Välimuistien mitätöinti kaikissa palvelininstansseissa Postgresin LISTEN/NOTIFY:n avulla. Kirjoituspolut
+ * kutsuvat contentChanged-funktiota, joka tyhjentää paikalliset välimuistit heti ja lähettää ilmoituksen,
+ * jonka Postgres välittää kaikille kuuntelijoille (myös tälle instanssille) vasta transaktion commitissa.
+ *
+ * Kuuntelija pitää yhteyttä auki koko prosessin ajan, joten se avataan yhteyspoolin ohi. Poolin yhteydet jäävät
+ * kokonaan pyyntöjen käyttöön, eikä poolin täyttyminen estä ilmoitusten vastaanottoa.
+ */
+@Component
+class CacheInvalidationBus(
+    private val cacheManager: CacheManager,
+    private val jdbcTemplate: JdbcTemplate,
+    private val contentChangeCounter: ContentChangeCounter,
+    @Value("\${spring.datasource.url}") private val datasourceUrl: String,
+    @Value("\${spring.datasource.username}") private val datasourceUsername: String,
+    @Value("\${spring.datasource.password}") private val datasourcePassword: String,
+) {
+    private val logger: Logger = LoggerFactory.getLogger(javaClass)
+
+    @Volatile
+    private var running = false
+    private var listenerThread: Thread? = null
+
+    fun contentChanged(contentType: ContentType) {
+        evictLocally(contentType)
+        contentChangeCounter.increment(contentType.toString())
+        jdbcTemplate.query(
+            "SELECT pg_notify(?, ?)",
+            RowCallbackHandler { },
+            CACHE_INVALIDATION_CHANNEL,
+            contentType.toString()
+        )
+
+        // Rollbackin jälkeen ilmoitusta ei lähetetä, joten tyhjennetään vielä transaktion aikana täytetyt arvot
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(object : TransactionSynchronization {
+                override fun afterCompletion(status: Int) = evictLocally(contentType)
+            })
+        }
+    }
+
+    private fun evictLocally(contentType: ContentType) {
+        CacheName.entries
+            .filter { contentType in it.invalidatedBy }
+            .forEach { cacheManager.getCache(it.key)?.clear() }
+    }
+
+    private fun evictAllInvalidatable() {
+        ContentType.entries.forEach { evictLocally(it) }
+    }
+
+    @PostConstruct
+    fun startListening() {
+        running = true
+        listenerThread = Thread.ofVirtual().name("cache-invalidation-listener").start { listenLoop() }
+    }
+
+    @PreDestroy
+    fun stopListening() {
+        running = false
+        listenerThread?.interrupt()
+    }
+
+    private fun listenLoop() {
+        var backoffMillis = 1000L
+        while (running) {
+            try {
+                openListenerConnection().use { connection ->
+                    listen(connection)
+                    // Yhteyskatkon aikana ilmoituksia on voinut jäädä saamatta
+                    evictAllInvalidatable()
+                    backoffMillis = 1000L
+                    receiveNotifications(connection)
+                }
+            } catch (e: InterruptedException) {
+                return
+            } catch (e: Exception) {
+                if (!running) return
+                logger.warn("Cache invalidation listener failed, reconnecting in $backoffMillis ms", e)
+                try {
+                    Thread.sleep(backoffMillis)
+                } catch (e: InterruptedException) {
+                    return
+                }
+                backoffMillis = (backoffMillis * 2).coerceAtMost(60_000L)
+            }
+        }
+    }
+
+    private fun openListenerConnection(): Connection {
+        val properties = Properties()
+        properties.setProperty("user", datasourceUsername)
+        properties.setProperty("password", datasourcePassword)
+        properties.setProperty("ApplicationName", CACHE_INVALIDATION_APPLICATION_NAME)
+        return DriverManager.getConnection(datasourceUrl, properties)
+    }
+
+    private fun listen(connection: Connection) {
+        connection.autoCommit = true
+        connection.createStatement().use { it.execute("LISTEN $CACHE_INVALIDATION_CHANNEL") }
+    }
+
+    private fun receiveNotifications(connection: Connection) {
+        val pgConnection = connection.unwrap(PGConnection::class.java)
+        while (running) {
+            pgConnection.getNotifications(10_000)?.forEach { notification ->
+                val contentType = ContentType.entries.find { it.toString() == notification.parameter }
+                if (contentType != null) {
+                    evictLocally(contentType)
+                } else {
+                    logger.warn("Unknown cache invalidation notification '${notification.parameter}'")
+                }
+            }
+        }
+    }
+}
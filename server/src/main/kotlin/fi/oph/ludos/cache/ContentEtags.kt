@@ -0,0 +1,84 @@
+package fi.oph.ludos.cache
+
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.auth.Kayttajatiedot
+import org.springframework.http.CacheControl
+import org.springframework.http.HttpStatus
+import org.springframework.http.ResponseEntity
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.stereotype.Component
+import org.springframework.util.DigestUtils
+import org.springframework.web.context.request.ServletWebRequest
+import org.springframework.web.context.request.WebRequest
+import org.springframework.web.filter.ShallowEtagHeaderFilter
+
+/**
+ * Muutoslaskurit kasvavat samassa transaktiossa kuin sisältö muuttuu, joten kaikki instanssit näkevät
+ * commitin jälkeen saman arvon.
+ */
+@Component
+class ContentChangeCounter(private val namedJdbcTemplate: NamedParameterJdbcTemplate) {
+    fun increment(counterName: String) {
+        namedJdbcTemplate.jdbcTemplate.update(
+            "UPDATE content_change_counter SET counter_value = counter_value + 1 WHERE counter_name = ?",
+            counterName
+        )
+    }
+
+    fun values(counterNames: Collection<String>): Map<String, Long> = namedJdbcTemplate.query(
+        "SELECT counter_name, counter_value FROM content_change_counter WHERE counter_name IN (:counterNames)",
+        mapOf("counterNames" to counterNames)
+    ) { rs, _ -> rs.getString("counter_name") to rs.getLong("counter_value") }.toMap()
+
+    // Suosikit ovat käyttäjäkohtaisia, joten niiden laskurikin on: käyttäjien kirjoitukset eivät lukitse samaa riviä
+    fun incrementFavorites(userOid: String) {
+        namedJdbcTemplate.jdbcTemplate.update(
+            """INSERT INTO assignment_favorite_change_counter (user_oid, counter_value) VALUES (?, 1)
+               ON CONFLICT (user_oid) DO UPDATE SET counter_value = assignment_favorite_change_counter.counter_value + 1""",
+            userOid
+        )
+    }
+
+    fun favoritesValue(userOid: String): Long = namedJdbcTemplate.jdbcTemplate.query(
+        "SELECT counter_value FROM assignment_favorite_change_counter WHERE user_oid = ?",
+        { rs, _ -> rs.getLong("counter_value") },
+        userOid
+    ).firstOrNull() ?: 0L
+}
+
+/**
+ * Syvät ETagit: tunniste lasketaan muutoslaskureista ja käyttäjästä, joten vastaava If-None-Match palauttaa
+ * 304:n ennen sisältökyselyitä. Vastaus vaihtelee roolin (julkaisutila) ja käyttäjän (suosikit) mukaan.
+ */
+@Component
+class ContentEtags(private val contentChangeCounter: ContentChangeCounter) {
+    fun <T> ifChanged(
+        request: WebRequest,
+        contentType: ContentType,
+        includeFavorites: Boolean = false,
+        body: () -> T
+    ): ResponseEntity<T> {
+        // Vastausta ei tarvitse puskuroida ShallowEtagHeaderFilterissä, koska ETag on jo tiedossa
+        (request as? ServletWebRequest)?.let { ShallowEtagHeaderFilter.disableContentCaching(it.request) }
+
+        // checkNotModified kirjoittaa ETag-otsakkeen vastaukseen molemmissa tapauksissa, joten sitä ei lisätä
+        // ResponseEntityyn uudelleen
+        val etag = etag(contentType, includeFavorites)
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build()
+        }
+
+        return ResponseEntity.ok()
+            .cacheControl(CacheControl.noCache().cachePrivate())
+            .body(body())
+    }
+
+    private fun etag(contentType: ContentType, includeFavorites: Boolean): String {
+        val counterName = contentType.toString()
+        val counter = contentChangeCounter.values(listOf(counterName))[counterName]
+        val user = Kayttajatiedot.fromSecurityContext()
+        val favorites = if (includeFavorites) ",favorites=${contentChangeCounter.favoritesValue(user.oidHenkilo)}" else ""
+        val key = "$counterName=$counter$favorites:${user.role}:${user.oidHenkilo}"
+        return "\"${DigestUtils.md5DigestAsHex(key.toByteArray())}\""
+    }
+}
@@ -7,7 +7,9 @@ import com.fasterxml.jackson.annotation.JsonTypeName
 import fi.oph.ludos.*
 import fi.oph.ludos.koodisto.KoodistoName
 import fi.oph.ludos.koodisto.ValidKoodiArvo
+import jakarta.validation.constraints.Min
 import jakarta.validation.constraints.NotBlank
+import jakarta.validation.constraints.Pattern
 import jakarta.validation.constraints.Size
 import java.sql.Timestamp
 
@@ -172,10 +174,25 @@ data class CertificateAttachmentDtoOut(
     override val fileUploadDate: Timestamp,
 ) : AttachmentOut
 
+const val CERTIFICATE_PAGE_SIZE = 20
+
+data class CertificateFilterOptionsDtoOut(
+    val aine: List<String>? = null,
+)
+
 data class CertificatesOut(
-    val content: List<CertificateOut>
+    val content: List<CertificateOut>,
+    val totalCount: Int,
+    val totalPages: Int,
+    val currentPage: Int,
+    val certificateFilterOptions: CertificateFilterOptionsDtoOut
 )
 
 data class CertificateFilters(
-    override val jarjesta: String?
+    override val jarjesta: String?,
+    // vain LD-todistuksilla on aine
+    @field:Pattern(regexp = "^[0-9,]+\$")
+    val aine: String? = null,
+    @field:Min(1)
+    val sivu: Int = 1
 ) : BaseFilters
\ No newline at end of file
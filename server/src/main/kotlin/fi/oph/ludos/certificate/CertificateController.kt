@@ -1,24 +1,33 @@
 package fi.oph.ludos.certificate
 
+import fi.oph.ludos.AttachmentResponses
 import fi.oph.ludos.Constants
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.ContentVersionDtoOut
 import fi.oph.ludos.Exam
 import fi.oph.ludos.auth.RequireAtLeastOpettajaRole
 import fi.oph.ludos.auth.RequireAtLeastYllapitajaRole
+import fi.oph.ludos.aws.Bucket
+import fi.oph.ludos.cache.ContentEtags
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.validation.Valid
 import org.springframework.core.io.InputStreamResource
 import org.springframework.http.*
 import org.springframework.validation.annotation.Validated
 import org.springframework.web.bind.annotation.*
+import org.springframework.web.context.request.WebRequest
 import org.springframework.web.multipart.MultipartFile
 import org.springframework.web.server.ResponseStatusException
-import java.time.Duration
 
 @RestController
 @Validated
 @RequireAtLeastYllapitajaRole
 @RequestMapping("${Constants.API_PREFIX}/certificate")
-class CertificateController(val service: CertificateService) {
+class CertificateController(
+    val service: CertificateService,
+    val contentEtags: ContentEtags,
+    val attachmentResponses: AttachmentResponses
+) {
     @PostMapping("", consumes = [MediaType.MULTIPART_FORM_DATA_VALUE])
     @RequireAtLeastYllapitajaRole
     fun createCertificate(
@@ -45,44 +54,76 @@ class CertificateController(val service: CertificateService) {
     @GetMapping("/SUKO")
     @RequireAtLeastOpettajaRole
     fun getSukoCertificates(
-        @Valid filters: CertificateFilters
-    ): CertificatesOut = CertificatesOut(service.getCertificates(Exam.SUKO, filters))
+        @Valid filters: CertificateFilters,
+        request: WebRequest
+    ): ResponseEntity<CertificatesOut> = contentEtags.ifChanged(request, ContentType.CERTIFICATE) {
+        service.getCertificates(Exam.SUKO, filters)
+    }
 
     @GetMapping("/PUHVI")
     @RequireAtLeastOpettajaRole
     fun getPuhviCertificates(
-        @Valid filters: CertificateFilters
-    ): CertificatesOut = CertificatesOut(service.getCertificates(Exam.PUHVI, filters))
+        @Valid filters: CertificateFilters,
+        request: WebRequest
+    ): ResponseEntity<CertificatesOut> = contentEtags.ifChanged(request, ContentType.CERTIFICATE) {
+        service.getCertificates(Exam.PUHVI, filters)
+    }
 
     @GetMapping("/LD")
     @RequireAtLeastOpettajaRole
     fun getLdCertificates(
-        @Valid filters: CertificateFilters
-    ): CertificatesOut = CertificatesOut(service.getCertificates(Exam.LD, filters))
+        @Valid filters: CertificateFilters,
+        request: WebRequest
+    ): ResponseEntity<CertificatesOut> = contentEtags.ifChanged(request, ContentType.CERTIFICATE) {
+        service.getCertificates(Exam.LD, filters)
+    }
 
     @GetMapping("/{exam}/{id}")
     @RequireAtLeastOpettajaRole
-    fun getCertificateById(@PathVariable exam: Exam, @PathVariable("id") id: Int): CertificateOut? =
+    fun getCertificateById(
+        @PathVariable exam: Exam,
+        @PathVariable("id") id: Int,
+        request: WebRequest
+    ): ResponseEntity<CertificateOut> = contentEtags.ifChanged(request, ContentType.CERTIFICATE) {
         service.getCertificateById(id, exam, null) ?: throw ResponseStatusException(
             HttpStatus.NOT_FOUND,
             "Certificate $id not found"
         )
+    }
+
+    @GetMapping("/{exam}/{id}/history")
+    @RequireAtLeastYllapitajaRole
+    fun getCertificateVersionHistory(
+        @PathVariable exam: Exam,
+        @PathVariable id: Int,
+        request: WebRequest
+    ): ResponseEntity<List<ContentVersionDtoOut>> = contentEtags.ifChanged(request, ContentType.CERTIFICATE) {
+        service.getVersionHistory(exam, id)
+    }
 
     @GetMapping("/{exam}/{id}/versions")
     @RequireAtLeastYllapitajaRole
-    fun getAllVersionsOfCertificate(@PathVariable exam: Exam, @PathVariable id: Int): List<CertificateOut> =
+    fun getAllVersionsOfCertificate(
+        @PathVariable exam: Exam,
+        @PathVariable id: Int,
+        request: WebRequest
+    ): ResponseEntity<List<CertificateOut>> = contentEtags.ifChanged(request, ContentType.CERTIFICATE) {
         service.getAllVersionsOfCertificate(exam, id)
+    }
 
     @GetMapping("/{exam}/{id}/{version}")
     @RequireAtLeastYllapitajaRole
     fun getCertificateVersion(
         @PathVariable exam: Exam,
         @PathVariable("id") id: Int,
-        @PathVariable("version") version: Int
-    ): CertificateOut = service.getCertificateById(id, exam, version) ?: throw ResponseStatusException(
-        HttpStatus.NOT_FOUND,
-        "Certificate $id or its version $version not found"
-    )
+        @PathVariable("version") version: Int,
+        request: WebRequest
+    ): ResponseEntity<CertificateOut> = contentEtags.ifChanged(request, ContentType.CERTIFICATE) {
+        service.getCertificateById(id, exam, version) ?: throw ResponseStatusException(
+            HttpStatus.NOT_FOUND,
+            "Certificate $id or its version $version not found"
+        )
+    }
 
     @PostMapping("/{exam}/{id}/{version}/restore")
     @RequireAtLeastYllapitajaRole
@@ -99,13 +140,10 @@ class CertificateController(val service: CertificateService) {
 
     @GetMapping("/{exam}/attachment/{key}")
     @RequireAtLeastOpettajaRole
-    fun getAttachment(@PathVariable exam: Exam, @PathVariable("key") key: String): ResponseEntity<InputStreamResource> {
-        val (uploadFile, attachmentInputStream) = service.getAttachment(key)
-
-        return ResponseEntity.ok()
-            .contentType(MediaType.APPLICATION_PDF)
-            .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"${uploadFile.fileName}\"")
-            .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable())
-            .body(InputStreamResource(attachmentInputStream))
-    }
+    fun getAttachment(
+        @PathVariable exam: Exam,
+        @PathVariable("key") key: String,
+        request: WebRequest
+    ): ResponseEntity<InputStreamResource> =
+        attachmentResponses.pdfResponse(Bucket.CERTIFICATE, service.getAttachment(key), request)
 }
@@ -1,6 +1,8 @@
 package fi.oph.ludos.certificate
 
 import arrow.core.Either
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.ContentVersionDtoOut
 import fi.oph.ludos.Exam
 import fi.oph.ludos.INITIAL_VERSION_NUMBER
 import fi.oph.ludos.PublishState
@@ -8,11 +10,18 @@ import fi.oph.ludos.auth.Kayttajatiedot
 import fi.oph.ludos.auth.Role
 import fi.oph.ludos.aws.Bucket
 import fi.oph.ludos.aws.S3Helper
+import fi.oph.ludos.cache.CacheInvalidationBus
+import fi.oph.ludos.repository.getKotlinList
+import fi.oph.ludos.repository.publishStateCondition
+import fi.oph.ludos.repository.queryVersionHistory
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import org.springframework.dao.EmptyResultDataAccessException
 import org.springframework.http.HttpStatus
 import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.ResultSetExtractor
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
 import org.springframework.stereotype.Component
 import org.springframework.transaction.support.TransactionTemplate
 import org.springframework.web.multipart.MultipartFile
@@ -25,15 +34,14 @@ import java.util.*
 @Component
 class CertificateRepository(
     private val jdbcTemplate: JdbcTemplate,
+    private val namedJdbcTemplate: NamedParameterJdbcTemplate,
     private val transactionTemplate: TransactionTemplate,
-    private val s3Helper: S3Helper
+    private val s3Helper: S3Helper,
+    private val cacheInvalidationBus: CacheInvalidationBus
 ) {
     val logger: Logger = LoggerFactory.getLogger(javaClass)
 
-    fun publishStateFilter(role: Role) = when (role) {
-        Role.OPETTAJA -> "AND c.certificate_publish_state = '${PublishState.PUBLISHED}'"
-        else -> "AND c.certificate_publish_state in ('${PublishState.PUBLISHED}', '${PublishState.DRAFT}')"
-    }
+    fun publishStateFilter(role: Role) = publishStateCondition("c.certificate_publish_state", role)
 
     fun <T : CertificateOut> createSukoCertificate(
         attachment: MultipartFile,
@@ -41,7 +49,10 @@ class CertificateRepository(
     ) = transactionTemplate.execute { _ ->
         val certificateAttachment = createAttachment(attachment)
 
-        insertCertificateRow(certificateAttachment)
+        insertCertificateRow(certificateAttachment).also {
+            setLatestCertificateVersion(it.exam, it.id, INITIAL_VERSION_NUMBER)
+            cacheInvalidationBus.contentChanged(ContentType.CERTIFICATE)
+        }
     }
 
     fun createSukoCertificate(
@@ -101,7 +112,10 @@ class CertificateRepository(
         val certificateAttachmentFi = createAttachment(attachmentFi)
         val certificateAttachmentSv = createAttachment(attachmentSv)
 
-        insertCertificateRow(certificateAttachmentFi, certificateAttachmentSv)
+        insertCertificateRow(certificateAttachmentFi, certificateAttachmentSv).also {
+            setLatestCertificateVersion(it.exam, it.id, INITIAL_VERSION_NUMBER)
+            cacheInvalidationBus.contentChanged(ContentType.CERTIFICATE)
+        }
     }
 
     fun createLdCertificate(
@@ -335,12 +349,28 @@ class CertificateRepository(
         Exam.PUHVI -> Pair("puhvi_certificate", ::mapResultSetPuhvi)
     }
 
+    private fun latestVersionTableNameByExam(exam: Exam) = "${tableNameAndMapperByExam(exam).first}_latest_version"
+
+    private fun latestVersionJoin(exam: Exam) =
+        "INNER JOIN ${latestVersionTableNameByExam(exam)} latest_version ON c.certificate_id = latest_version.certificate_id AND c.certificate_version = latest_version.certificate_version"
+
+    private fun setLatestCertificateVersion(exam: Exam, certificateId: Int, certificateVersion: Int) {
+        jdbcTemplate.update(
+            """
+            INSERT INTO ${latestVersionTableNameByExam(exam)} (certificate_id, certificate_version)
+            VALUES (?, ?)
+            ON CONFLICT (certificate_id) DO UPDATE SET certificate_version = EXCLUDED.certificate_version""".trimIndent(),
+            certificateId,
+            certificateVersion
+        )
+    }
+
     fun getCertificateById(id: Int, exam: Exam, version: Int?): CertificateOut? {
         val role = Kayttajatiedot.fromSecurityContext().role
         val (table, mapper) = tableNameAndMapperByExam(exam)
 
-        val versionCondition = version?.let { "AND c.certificate_version = $version" }
-            ?: "AND c.certificate_version = (SELECT MAX(certificate_version) FROM $table WHERE certificate_id = c.certificate_id)"
+        val latestVersionJoin = if (version == null) latestVersionJoin(exam) else ""
+        val versionCondition = version?.let { "AND c.certificate_version = $version" } ?: ""
 
         val sql = when (exam) {
             Exam.SUKO -> """
@@ -350,6 +380,7 @@ class CertificateRepository(
                     ca.attachment_file_name AS attachment_file_name, 
                     ca.attachment_upload_date AS attachment_upload_date
                 FROM suko_certificate AS c 
+                $latestVersionJoin
                 LEFT JOIN certificate_attachment AS ca ON c.attachment_file_key_fi = ca.attachment_file_key
                 WHERE c.certificate_id = ? $versionCondition ${publishStateFilter(role)}
             """.trimIndent()
@@ -364,6 +395,7 @@ class CertificateRepository(
                     a_sv.attachment_file_name AS attachment_file_name_sv,
                     a_sv.attachment_upload_date AS attachment_upload_date_sv
                 FROM $table AS c
+                $latestVersionJoin
                 JOIN certificate_attachment AS a_fi ON c.attachment_file_key_fi = a_fi.attachment_file_key
                 LEFT JOIN certificate_attachment AS a_sv ON c.attachment_file_key_sv = a_sv.attachment_file_key
                 WHERE c.certificate_id = ? $versionCondition ${publishStateFilter(role)}
@@ -391,55 +423,104 @@ class CertificateRepository(
         return results.firstOrNull()
     }
 
-    fun getCertificates(exam: Exam, filters: CertificateFilters): List<CertificateOut> {
+    // Suodatusvaihtoehdot, kokonaismäärä ja sivu haetaan yhdellä kyselyllä. Liitteet liitetään vasta sivun riveihin.
+    // Metatietorivi palautetaan aina, joten tyhjälläkin sivulla saadaan kokonaismäärä ja suodatusvaihtoehdot.
+    fun getCertificates(exam: Exam, filters: CertificateFilters): CertificatesOut {
         val role = Kayttajatiedot.fromSecurityContext().role
         val (table, mapper) = tableNameAndMapperByExam(exam)
 
         val orderDirection = filters.jarjesta ?: ""
+        val parameters = MapSqlParameterSource()
+            .addValue("limit", CERTIFICATE_PAGE_SIZE)
+            .addValue("offset", (filters.sivu - 1) * CERTIFICATE_PAGE_SIZE)
 
-        val sql = when (exam) {
+        val aineFilter = if (exam == Exam.LD && filters.aine != null) {
+            parameters.addValue("aineKoodiArvo", filters.aine.split(","))
+            "AND ld_certificate_aine_koodi_arvo IN (:aineKoodiArvo)"
+        } else ""
+
+        val aineOptions = if (exam == Exam.LD) {
+            "ARRAY(SELECT DISTINCT ld_certificate_aine_koodi_arvo FROM latest ORDER BY ld_certificate_aine_koodi_arvo)"
+        } else "NULL::text[]"
+
+        val attachmentColumnsAndJoins = when (exam) {
             Exam.SUKO -> """
-                SELECT 
-                    c.*, 
-                    ca.attachment_file_key AS attachment_file_key, 
-                    ca.attachment_file_name AS attachment_file_name, 
+                    ca.attachment_file_key AS attachment_file_key,
+                    ca.attachment_file_name AS attachment_file_name,
                     ca.attachment_upload_date AS attachment_upload_date
-                FROM suko_certificate AS c
-                INNER JOIN (
-                    SELECT certificate_id, MAX(certificate_version) as latest_version
-                    FROM suko_certificate
-                    GROUP BY certificate_id
-                ) latest ON c.certificate_id = latest.certificate_id AND c.certificate_version = latest.latest_version
+                FROM page AS c
                 LEFT JOIN certificate_attachment AS ca ON c.attachment_file_key_fi = ca.attachment_file_key
-                WHERE true ${publishStateFilter(role)}
-                ORDER BY c.certificate_updated_at $orderDirection
             """.trimIndent()
 
             Exam.LD, Exam.PUHVI -> """
-                SELECT
-                    c.*,
                     a_fi.attachment_file_key AS attachment_file_key_fi,
                     a_fi.attachment_file_name AS attachment_file_name_fi,
                     a_fi.attachment_upload_date AS attachment_upload_date_fi,
                     a_sv.attachment_file_key AS attachment_file_key_sv,
                     a_sv.attachment_file_name AS attachment_file_name_sv,
                     a_sv.attachment_upload_date AS attachment_upload_date_sv
-                FROM $table AS c
-                INNER JOIN (
-                    SELECT certificate_id, MAX(certificate_version) as latest_version
-                    FROM $table
-                    GROUP BY certificate_id
-                ) latest ON c.certificate_id = latest.certificate_id AND c.certificate_version = latest.latest_version
+                FROM page AS c
                 JOIN certificate_attachment AS a_fi ON c.attachment_file_key_fi = a_fi.attachment_file_key
                 LEFT JOIN certificate_attachment AS a_sv ON c.attachment_file_key_sv = a_sv.attachment_file_key
-                WHERE true ${publishStateFilter(role)}
-                ORDER BY c.certificate_updated_at $orderDirection
             """.trimIndent()
         }
 
-        return jdbcTemplate.query(sql) { rs, _ -> mapper(rs, exam) }
+        // latest ja filtered liitetään jokaiseen käyttökohtaansa (NOT MATERIALIZED), jolloin sivu luetaan
+        // (certificate_updated_at, certificate_id)-indeksistä järjestyksessä ja uusin versio tarkistetaan osoitintaulusta
+        val sql = """
+            WITH latest AS NOT MATERIALIZED (
+                SELECT c.*
+                FROM $table AS c
+                ${latestVersionJoin(exam)}
+                WHERE true ${publishStateFilter(role)}
+            ),
+            filtered AS NOT MATERIALIZED (
+                SELECT * FROM latest WHERE true $aineFilter
+            ),
+            page AS (
+                SELECT * FROM filtered
+                ORDER BY certificate_updated_at $orderDirection, certificate_id $orderDirection
+                LIMIT :limit OFFSET :offset
+            ),
+            page_with_attachments AS (
+                SELECT
+                    c.*,
+                    $attachmentColumnsAndJoins
+            )
+            SELECT
+                metadata.total_count,
+                metadata.aine_options,
+                p.*
+            FROM (SELECT (SELECT count(*) FROM filtered) AS total_count, $aineOptions AS aine_options) AS metadata
+            LEFT JOIN page_with_attachments AS p ON true
+            ORDER BY p.certificate_updated_at $orderDirection, p.certificate_id $orderDirection
+        """.trimIndent()
+
+        return namedJdbcTemplate.query(sql, parameters, ResultSetExtractor { rs ->
+            var totalCount = 0
+            var aineOptions: List<String>? = null
+            val certificates = mutableListOf<CertificateOut>()
+            while (rs.next()) {
+                totalCount = rs.getInt("total_count")
+                aineOptions = if (exam == Exam.LD) rs.getKotlinList("aine_options") else null
+                if (rs.getObject("certificate_id") != null) {
+                    certificates.add(mapper(rs, exam))
+                }
+            }
+
+            CertificatesOut(
+                content = certificates,
+                totalCount = totalCount,
+                totalPages = if (totalCount == 0) 1 else (totalCount + CERTIFICATE_PAGE_SIZE - 1) / CERTIFICATE_PAGE_SIZE,
+                currentPage = filters.sivu,
+                certificateFilterOptions = CertificateFilterOptionsDtoOut(aine = aineOptions)
+            )
+        })!!
     }
 
+    fun getVersionHistory(id: Int, exam: Exam): List<ContentVersionDtoOut> =
+        jdbcTemplate.queryVersionHistory(ContentType.CERTIFICATE, exam, id)
+
     fun getAllVersionsOfCertificate(id: Int, exam: Exam): List<CertificateOut> {
         val (table, mapper) = tableNameAndMapperByExam(exam)
 
@@ -634,15 +715,14 @@ class CertificateRepository(
     }
 
     private fun getLatestCertificateDataForNewVersion(id: Int, exam: Exam): Triple<Int, String, Timestamp>? = try {
+        // Lukitaan osoitinrivi, jotta samanaikaiset uudet versiot samasta todistuksesta sarjallistuvat
         jdbcTemplate.queryForObject(
             """
-            SELECT certificate_version, certificate_author_oid, certificate_created_at
-            FROM ${tableNameAndMapperByExam(exam).first}
-            WHERE certificate_id = ? AND certificate_version = (SELECT MAX(certificate_version) FROM ${
-                tableNameAndMapperByExam(
-                    exam
-                ).first
-            } WHERE certificate_id = ?) FOR UPDATE;""".trimIndent(),
+            SELECT c.certificate_version, c.certificate_author_oid, c.certificate_created_at
+            FROM ${tableNameAndMapperByExam(exam).first} c
+            ${latestVersionJoin(exam)}
+            WHERE c.certificate_id = ?
+            FOR UPDATE OF latest_version;""".trimIndent(),
             { rs, _ ->
                 Triple(
                     rs.getInt("certificate_version"),
@@ -650,7 +730,7 @@ class CertificateRepository(
                     rs.getTimestamp("certificate_created_at")
                 )
             },
-            id, id
+            id
         )
     } catch (e: EmptyResultDataAccessException) {
         null
@@ -676,6 +756,8 @@ class CertificateRepository(
 
         val versionToCreate = latestAssignmentVersion + 1
         updateCertificateRow(attachmentKeys, versionToCreate, author, originalCreatedAt)
+        setLatestCertificateVersion(certificateDtoIn.exam, id, versionToCreate)
+        cacheInvalidationBus.contentChanged(ContentType.CERTIFICATE)
 
         return@execute versionToCreate
     }
@@ -2,9 +2,7 @@ package fi.oph.ludos.certificate
 
 import arrow.core.Either
 import fi.oph.ludos.*
-import fi.oph.ludos.auth.OppijanumerorekisteriClient
-import fi.oph.ludos.aws.Bucket
-import fi.oph.ludos.aws.S3Helper
+import fi.oph.ludos.auth.UpdaterNameService
 import jakarta.servlet.ServletRequest
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -12,19 +10,16 @@ import org.springframework.http.HttpStatus
 import org.springframework.stereotype.Service
 import org.springframework.web.multipart.MultipartFile
 import org.springframework.web.server.ResponseStatusException
-import software.amazon.awssdk.core.exception.SdkException
-import java.io.InputStream
 
 @Service
 class CertificateService(
     val repository: CertificateRepository,
-    val s3Helper: S3Helper,
-    val oppijanumerorekisteriClient: OppijanumerorekisteriClient
+    val updaterNameService: UpdaterNameService
 ) {
     val logger: Logger = LoggerFactory.getLogger(javaClass)
     val auditLogger: Logger = LoggerFactory.getLogger(AUDIT_LOGGER_NAME)
 
-    fun getCertificates(exam: Exam, filters: CertificateFilters): List<CertificateOut> =
+    fun getCertificates(exam: Exam, filters: CertificateFilters): CertificatesOut =
         repository.getCertificates(exam, filters)
 
     fun createCertificate(
@@ -58,14 +53,19 @@ class CertificateService(
     fun getCertificateById(id: Int, exam: Exam, version: Int?): CertificateOut? =
         repository.getCertificateById(id, exam, version)
 
+    fun getVersionHistory(exam: Exam, id: Int): List<ContentVersionDtoOut> {
+        val versions = repository.getVersionHistory(id, exam)
+        val oidToName = updaterNameService.getUpdaterNames(versions.map { it.updaterOid })
+        return versions.map { it.copy(updaterName = oidToName[it.updaterOid]) }
+    }
+
     fun getAllVersionsOfCertificate(exam: Exam, id: Int): List<CertificateOut> =
         addUpdaterNames(repository.getAllVersionsOfCertificate(id, exam))
 
     fun addUpdaterNames(assignments: List<CertificateOut>): List<CertificateOut> {
-        val uniqueOids = assignments.map { it.updaterOid }.toSet()
-        val oidToName = uniqueOids.associateWith { oppijanumerorekisteriClient.getUserDetailsByOid(it) }
+        val oidToName = updaterNameService.getUpdaterNames(assignments.map { it.updaterOid })
         return assignments.map {
-            val updaterName = oidToName.getOrDefault(it.updaterOid, null)?.formatName()
+            val updaterName = oidToName[it.updaterOid]
             when (it) {
                 is SukoCertificateDtoOut -> it.copy(updaterName = updaterName)
                 is LdCertificateDtoOut -> it.copy(updaterName = updaterName)
@@ -146,19 +146,8 @@ class CertificateService(
         return createdVersion
     }
 
-    fun getAttachment(key: String): Pair<CertificateAttachmentDtoOut, InputStream> {
-        val fileUpload = repository.getCertificateAttachmentByFileKey(key) ?: throw ResponseStatusException(
+    fun getAttachment(key: String): CertificateAttachmentDtoOut =
+        repository.getCertificateAttachmentByFileKey(key) ?: throw ResponseStatusException(
             HttpStatus.NOT_FOUND, "Certificate attachment '${key}' not found in db"
         )
-
-        val responseInputStream = try {
-            s3Helper.getObject(Bucket.CERTIFICATE, key)
-        } catch (ex: SdkException) {
-            val errorMsg = "Failed to get attachment '${key}' from S3"
-            logger.error(errorMsg, ex)
-            throw ResponseStatusException(HttpStatus.BAD_GATEWAY, errorMsg)
-        } ?: throw ResponseStatusException(HttpStatus.NOT_FOUND, "Certificate attachment '${key}' not found in S3")
-
-        return Pair(fileUpload, responseInputStream)
-    }
-}
\ No newline at end of file
+}
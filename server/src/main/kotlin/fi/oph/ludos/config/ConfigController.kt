@@ -32,4 +32,6 @@ data class FeaturesResponse(
 @Component
 @Configuration
 class Features(
+    // Liitteet ja kuvat ohjataan ladattavaksi suoraan S3:sta lyhytikäisellä allekirjoitetulla osoitteella
+    @Value("\${features.presigned-downloads:false}") val presignedDownloads: Boolean
 )
\ No newline at end of file
@@ -3,6 +3,9 @@ package fi.oph.ludos.image
 import fi.oph.ludos.Constants
 import fi.oph.ludos.auth.RequireAtLeastOpettajaRole
 import fi.oph.ludos.auth.RequireAtLeastYllapitajaRole
+import fi.oph.ludos.aws.Bucket
+import fi.oph.ludos.aws.DownloadResponseHeaders
+import fi.oph.ludos.aws.PresignedDownloads
 import jakarta.servlet.http.HttpServletRequest
 import org.springframework.core.io.InputStreamResource
 import org.springframework.http.CacheControl
@@ -17,7 +20,7 @@ import java.time.Duration
 @RestController
 @RequestMapping("${Constants.API_PREFIX}/image")
 @RequireAtLeastYllapitajaRole
-class ImageController(val service: ImageService) {
+class ImageController(val service: ImageService, val presignedDownloads: PresignedDownloads) {
     @PostMapping("")
     @RequireAtLeastYllapitajaRole
     fun uploadImage(@RequestPart("file") file: MultipartFile, request: HttpServletRequest): ImageDtoOut {
@@ -31,12 +34,20 @@ class ImageController(val service: ImageService) {
     @GetMapping("{fileKey}")
     @RequireAtLeastOpettajaRole
     fun getImage(@PathVariable("fileKey") fileKey: String): ResponseEntity<InputStreamResource> {
+        val cacheControl = CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable()
+        if (presignedDownloads.enabled) {
+            // Content-Type tulee S3:een tallennetusta objektista
+            return presignedDownloads.redirect(
+                Bucket.IMAGE, fileKey, DownloadResponseHeaders(cacheControl = cacheControl.headerValue)
+            )
+        }
+
         val response = service.getImageByFileKey(fileKey)
         val contentType = response.response().contentType()
 
         return ResponseEntity.ok()
             .contentType(MediaType.parseMediaType(contentType))
-            .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable())
+            .cacheControl(cacheControl)
             .body(InputStreamResource(response))
     }
 }
\ No newline at end of file
@@ -11,6 +11,7 @@ import jakarta.validation.Constraint
 import jakarta.validation.ConstraintValidator
 import jakarta.validation.ConstraintValidatorContext
 import jakarta.validation.Payload
+import jakarta.validation.constraints.Min
 import jakarta.validation.constraints.Pattern
 import org.springframework.web.multipart.MultipartFile
 import java.sql.Timestamp
@@ -210,8 +211,13 @@ data class LdInstructionFilterOptionsDtoOut(
 
 data class PuhviInstructionFilterOptionsDtoOut(val dummy: Int = 0) : InstructionFilterOptions
 
+const val INSTRUCTION_PAGE_SIZE = 20
+
 data class InstructionListDtoOut<I : InstructionOut, O : InstructionFilterOptions>(
     val content: List<I>,
+    val totalCount: Int,
+    val totalPages: Int,
+    val currentPage: Int,
     val instructionFilterOptions: O
 )
 
@@ -230,20 +236,26 @@ data class InstructionAttachmentDtoOut(
 
 sealed interface InstructionBaseFilters : BaseFilters {
     override val jarjesta: String?
+
+    @get:Min(1)
+    val sivu: Int
 }
 
 data class SukoInstructionFilters(
-    override val jarjesta: String? = null
+    override val jarjesta: String? = null,
+    override val sivu: Int = 1
 ) : InstructionBaseFilters
 
 data class LdInstructionFilters(
     override val jarjesta: String? = null,
     @field:Pattern(regexp = "^[0-9,]+\$")
-    val aine: String? = null
+    val aine: String? = null,
+    override val sivu: Int = 1
 ) : InstructionBaseFilters
 
 data class PuhviInstructionFilters(
-    override val jarjesta: String? = null
+    override val jarjesta: String? = null,
+    override val sivu: Int = 1
 ) : InstructionBaseFilters
 
 @Target(AnnotationTarget.CLASS)
@@ -2,24 +2,34 @@ package fi.oph.ludos.instruction
 
 import tools.jackson.databind.ObjectMapper
 import tools.jackson.module.kotlin.readValue
+import fi.oph.ludos.AttachmentResponses
 import fi.oph.ludos.Constants
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.ContentVersionDtoOut
 import fi.oph.ludos.Exam
 import fi.oph.ludos.auth.RequireAtLeastOpettajaRole
 import fi.oph.ludos.auth.RequireAtLeastYllapitajaRole
+import fi.oph.ludos.aws.Bucket
+import fi.oph.ludos.cache.ContentEtags
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.Part
 import jakarta.validation.Valid
 import org.springframework.core.io.InputStreamResource
 import org.springframework.http.*
 import org.springframework.web.bind.annotation.*
+import org.springframework.web.context.request.WebRequest
 import org.springframework.web.multipart.MultipartFile
 import org.springframework.web.server.ResponseStatusException
-import java.time.Duration
 
 @RestController
 @RequestMapping("${Constants.API_PREFIX}/instruction")
 @RequireAtLeastYllapitajaRole
-class InstructionController(val service: InstructionService, private val objectMapper: ObjectMapper) {
+class InstructionController(
+    val service: InstructionService,
+    private val objectMapper: ObjectMapper,
+    val contentEtags: ContentEtags,
+    val attachmentResponses: AttachmentResponses
+) {
     @PostMapping("")
     @RequireAtLeastYllapitajaRole
     fun createInstruction(
@@ -100,47 +110,73 @@ class InstructionController(val service: InstructionService, private val objectM
     @GetMapping("/SUKO")
     @RequireAtLeastOpettajaRole
     fun getSukoInstructions(
-        @Valid filters: SukoInstructionFilters
-    ): InstructionListDtoOut<InstructionOut, InstructionFilterOptions> =
-        service.getInstructions(Exam.SUKO, filters)
+        @Valid filters: SukoInstructionFilters,
+        request: WebRequest
+    ): ResponseEntity<InstructionListDtoOut<InstructionOut, InstructionFilterOptions>> =
+        contentEtags.ifChanged(request, ContentType.INSTRUCTION) { service.getInstructions(Exam.SUKO, filters) }
 
     @GetMapping("/LD")
     @RequireAtLeastOpettajaRole
     fun getLdInstructions(
-        @Valid filters: LdInstructionFilters
-    ): InstructionListDtoOut<InstructionOut, InstructionFilterOptions> =
-        service.getInstructions(Exam.LD, filters)
+        @Valid filters: LdInstructionFilters,
+        request: WebRequest
+    ): ResponseEntity<InstructionListDtoOut<InstructionOut, InstructionFilterOptions>> =
+        contentEtags.ifChanged(request, ContentType.INSTRUCTION) { service.getInstructions(Exam.LD, filters) }
 
     @GetMapping("/PUHVI")
     @RequireAtLeastOpettajaRole
     fun getPuhviInstructions(
-        @Valid filters: PuhviInstructionFilters
-    ): InstructionListDtoOut<InstructionOut, InstructionFilterOptions> =
-        service.getInstructions(Exam.PUHVI, filters)
+        @Valid filters: PuhviInstructionFilters,
+        request: WebRequest
+    ): ResponseEntity<InstructionListDtoOut<InstructionOut, InstructionFilterOptions>> =
+        contentEtags.ifChanged(request, ContentType.INSTRUCTION) { service.getInstructions(Exam.PUHVI, filters) }
 
     @GetMapping("/{exam}/{id}")
     @RequireAtLeastOpettajaRole
-    fun getInstruction(@PathVariable exam: Exam, @PathVariable("id") id: Int): InstructionOut =
+    fun getInstruction(
+        @PathVariable exam: Exam,
+        @PathVariable("id") id: Int,
+        request: WebRequest
+    ): ResponseEntity<InstructionOut> = contentEtags.ifChanged(request, ContentType.INSTRUCTION) {
         service.getInstructionById(exam, id) ?: throw ResponseStatusException(
             HttpStatus.NOT_FOUND,
             "Instruction $id not found"
         )
+    }
+
+    @GetMapping("/{exam}/{id}/history")
+    @RequireAtLeastYllapitajaRole
+    fun getInstructionVersionHistory(
+        @PathVariable exam: Exam,
+        @PathVariable id: Int,
+        request: WebRequest
+    ): ResponseEntity<List<ContentVersionDtoOut>> = contentEtags.ifChanged(request, ContentType.INSTRUCTION) {
+        service.getVersionHistory(exam, id)
+    }
 
     @GetMapping("/{exam}/{id}/versions")
     @RequireAtLeastYllapitajaRole
-    fun getAllVersionsOfInstruction(@PathVariable exam: Exam, @PathVariable id: Int): List<InstructionOut> =
+    fun getAllVersionsOfInstruction(
+        @PathVariable exam: Exam,
+        @PathVariable id: Int,
+        request: WebRequest
+    ): ResponseEntity<List<InstructionOut>> = contentEtags.ifChanged(request, ContentType.INSTRUCTION) {
         service.getAllVersionsOfInstruction(exam, id)
+    }
 
     @GetMapping("/{exam}/{id}/{version}")
     @RequireAtLeastYllapitajaRole
     fun getInstructionVersion(
         @PathVariable exam: Exam,
         @PathVariable("id") id: Int,
-        @PathVariable("version") version: Int
-    ): InstructionOut = service.getInstructionById(exam, id, version) ?: throw ResponseStatusException(
-        HttpStatus.NOT_FOUND,
-        "Instruction $id or its version $version not found"
-    )
+        @PathVariable("version") version: Int,
+        request: WebRequest
+    ): ResponseEntity<InstructionOut> = contentEtags.ifChanged(request, ContentType.INSTRUCTION) {
+        service.getInstructionById(exam, id, version) ?: throw ResponseStatusException(
+            HttpStatus.NOT_FOUND,
+            "Instruction $id or its version $version not found"
+        )
+    }
 
     @PostMapping("/{exam}/{id}/{version}/restore")
     @RequireAtLeastYllapitajaRole
@@ -155,28 +191,28 @@ class InstructionController(val service: InstructionService, private val objectM
             "$exam instruction $id or its version $version not found"
         )
 
-    fun attachmentResponse(exam: Exam, attachmentKey: String, version: Int?): ResponseEntity<InputStreamResource> {
-        val (uploadFile, attachmentInputStream) = service.getAttachment(exam, attachmentKey, version)
-
-        return ResponseEntity.ok()
-            .contentType(MediaType.APPLICATION_PDF)
-            .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"${uploadFile.fileName}\"")
-            .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable())
-            .body(InputStreamResource(attachmentInputStream))
-    }
+    fun attachmentResponse(
+        exam: Exam,
+        attachmentKey: String,
+        version: Int?,
+        request: WebRequest
+    ): ResponseEntity<InputStreamResource> =
+        attachmentResponses.pdfResponse(Bucket.INSTRUCTION, service.getAttachment(exam, attachmentKey, version), request)
 
     @GetMapping("/{exam}/attachment/{key}")
     @RequireAtLeastOpettajaRole
     fun downloadAttachment(
         @PathVariable exam: Exam,
         @PathVariable("key") key: String,
-    ): ResponseEntity<InputStreamResource> = attachmentResponse(exam, key, null)
+        request: WebRequest
+    ): ResponseEntity<InputStreamResource> = attachmentResponse(exam, key, null, request)
 
     @GetMapping("/{exam}/attachment/{key}/{version}")
     @RequireAtLeastYllapitajaRole
     fun previewAttachmentVersion(
         @PathVariable exam: Exam,
         @PathVariable("key") key: String,
-        @PathVariable("version") version: Int
-    ): ResponseEntity<InputStreamResource> = attachmentResponse(exam, key, version)
+        @PathVariable("version") version: Int,
+        request: WebRequest
+    ): ResponseEntity<InputStreamResource> = attachmentResponse(exam, key, version, request)
 }
@@ -1,5 +1,7 @@
 package fi.oph.ludos.instruction
 
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.ContentVersionDtoOut
 import fi.oph.ludos.Exam
 import fi.oph.ludos.INITIAL_VERSION_NUMBER
 import fi.oph.ludos.Language
@@ -8,14 +10,17 @@ import fi.oph.ludos.auth.Kayttajatiedot
 import fi.oph.ludos.auth.Role
 import fi.oph.ludos.aws.Bucket
 import fi.oph.ludos.aws.S3Helper
+import fi.oph.ludos.cache.CacheInvalidationBus
 import fi.oph.ludos.repository.getKotlinArray
 import fi.oph.ludos.repository.getKotlinList
+import fi.oph.ludos.repository.publishStateCondition
+import fi.oph.ludos.repository.queryVersionHistory
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
-import org.springframework.dao.DataIntegrityViolationException
 import org.springframework.dao.EmptyResultDataAccessException
 import org.springframework.http.HttpStatus
 import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.ResultSetExtractor
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
 import org.springframework.stereotype.Component
@@ -32,7 +37,8 @@ class InstructionRepository(
     private val namedJdbcTemplate: NamedParameterJdbcTemplate,
     private val jdbcTemplate: JdbcTemplate,
     private val transactionTemplate: TransactionTemplate,
-    private val s3Helper: S3Helper
+    private val s3Helper: S3Helper,
+    private val cacheInvalidationBus: CacheInvalidationBus
 ) {
     val logger: Logger = LoggerFactory.getLogger(javaClass)
 
@@ -42,11 +48,24 @@ class InstructionRepository(
         Exam.LD -> "ld_instruction"
     }
 
-    fun publishStateFilter(role: Role) = when (role) {
-        Role.OPETTAJA -> "AND i.instruction_publish_state = '${PublishState.PUBLISHED}'"
-        else -> "AND i.instruction_publish_state in ('${PublishState.PUBLISHED}', '${PublishState.DRAFT}')"
+    private fun latestVersionTableNameByExam(exam: Exam) = "${tableNameByExam(exam)}_latest_version"
+
+    private fun latestVersionJoin(exam: Exam) =
+        "INNER JOIN ${latestVersionTableNameByExam(exam)} latest_version ON i.instruction_id = latest_version.instruction_id AND i.instruction_version = latest_version.instruction_version"
+
+    private fun setLatestInstructionVersion(exam: Exam, instructionId: Int, instructionVersion: Int) {
+        jdbcTemplate.update(
+            """
+            INSERT INTO ${latestVersionTableNameByExam(exam)} (instruction_id, instruction_version)
+            VALUES (?, ?)
+            ON CONFLICT (instruction_id) DO UPDATE SET instruction_version = EXCLUDED.instruction_version""".trimIndent(),
+            instructionId,
+            instructionVersion
+        )
     }
 
+    fun publishStateFilter(role: Role) = publishStateCondition("i.instruction_publish_state", role)
+
     fun newInstructionAttachmentFileKey() = "ohjeliite_${UUID.randomUUID()}"
 
     fun createInstruction(instruction: Instruction, attachment: List<InstructionAttachmentIn>) = when (instruction) {
@@ -63,23 +82,16 @@ class InstructionRepository(
     ) = transactionTemplate.execute { _ ->
         val instructionVersion = INITIAL_VERSION_NUMBER
         val id = insertInstructionRow(instructionVersion) ?: return@execute null
+        setLatestInstructionVersion(instruction.exam, id.toInt(), instructionVersion)
 
-        val attachmentWithInstructionVersion = { metadata: InstructionAttachmentMetadataDtoIn ->
-            metadata.copy(instructionVersion = instructionVersion)
-        }
-
-        for (attachment in attachments) {
-            val fileKey = newInstructionAttachmentFileKey()
-            uploadInstructionAttachmentToS3(fileKey, attachment.file)
-            insertInstructionAttachment(
-                tableNameByExam(instruction.exam),
-                id,
-                attachmentWithInstructionVersion(attachment.metadata),
-                attachment.file.originalFilename!!,
-                fileKey
-            )
-        }
+        insertInstructionAttachments(
+            tableNameByExam(instruction.exam),
+            id,
+            instructionVersion,
+            uploadNewInstructionAttachments(attachments)
+        )
 
+        cacheInvalidationBus.contentChanged(ContentType.INSTRUCTION)
         getInstructionById(instruction.exam, id.toInt())
     }!!
 
@@ -190,37 +202,99 @@ class InstructionRepository(
         }
     }
 
-    private fun insertInstructionAttachment(
+    private data class InstructionAttachmentRow(
+        val fileKey: String,
+        val fileName: String,
+        val name: String,
+        val language: Language
+    )
+
+    private fun uploadNewInstructionAttachments(attachments: List<InstructionAttachmentIn>): List<InstructionAttachmentRow> =
+        attachments.map { attachment ->
+            val fileKey = newInstructionAttachmentFileKey()
+            uploadInstructionAttachmentToS3(fileKey, attachment.file)
+            InstructionAttachmentRow(
+                fileKey,
+                attachment.file.originalFilename!!,
+                attachment.metadata.name,
+                attachment.metadata.language
+            )
+        }
+
+    // Aiemman version liitteiden tiedostonimet haetaan yhdellä kyselyllä liiteiden määrästä riippumatta
+    private fun existingInstructionAttachmentRows(
+        table: String,
+        attachmentsMetadata: List<InstructionAttachmentMetadataDtoIn>
+    ): List<InstructionAttachmentRow> {
+        if (attachmentsMetadata.isEmpty()) {
+            return emptyList()
+        }
+
+        val fileKeys = attachmentsMetadata.mapNotNull { it.fileKey }.distinct()
+        val fileNamesByKey = if (fileKeys.isEmpty()) emptyMap() else namedJdbcTemplate.query(
+            """
+            SELECT DISTINCT ON (attachment_file_key) attachment_file_key, attachment_file_name
+            FROM ${table}_attachment
+            WHERE attachment_file_key IN (:fileKeys)
+            """.trimIndent(),
+            MapSqlParameterSource("fileKeys", fileKeys)
+        ) { rs: ResultSet, _: Int -> rs.getString("attachment_file_key") to rs.getString("attachment_file_name") }
+            .toMap()
+
+        return attachmentsMetadata.map { metadata ->
+            val fileName = fileNamesByKey[metadata.fileKey] ?: throw ResponseStatusException(
+                HttpStatus.BAD_REQUEST,
+                "Attachment '${metadata.fileKey}' not found"
+            )
+            InstructionAttachmentRow(metadata.fileKey!!, fileName, metadata.name, metadata.language)
+        }
+    }
+
+    // Kaikki liitteet lisätään yhdellä monirivisellä INSERTillä. clock_timestamp() voi antaa peräkkäisille riveille
+    // saman arvon, joten latauspäivämäärään lisätään rivin järjestysnumero mikrosekunteina. Näin liitteiden
+    // järjestys latauspäivämäärän mukaan vastaa aina annettua järjestystä.
+    private fun insertInstructionAttachments(
         table: String,
         instructionId: Long,
-        metadata: InstructionAttachmentMetadataDtoIn,
-        originalFilename: String,
-        fileKey: String
-    ): InstructionAttachmentDtoOut {
-        val uploadDates = jdbcTemplate.query(
-            """INSERT INTO ${table}_attachment (
-                        attachment_file_key, 
-                        attachment_file_name, 
-                        attachment_upload_date,
-                        instruction_id, 
-                        instruction_version,
-                        instruction_attachment_name,
-                        instruction_attachment_language
-                    )
-               VALUES (?, ?, clock_timestamp(), ?, ?, ?, ?::language)
-               RETURNING attachment_upload_date""".trimIndent(),
-            { rs: ResultSet, _: Int -> rs.getTimestamp("attachment_upload_date") },
-            fileKey,
-            originalFilename,
-            instructionId,
-            metadata.instructionVersion,
-            metadata.name,
-            metadata.language.toString()
-        )
+        instructionVersion: Int,
+        attachments: List<InstructionAttachmentRow>
+    ) {
+        if (attachments.isEmpty()) {
+            return
+        }
 
-        return InstructionAttachmentDtoOut(
-            fileKey, originalFilename, uploadDates[0], metadata.name, metadata.language, metadata.instructionVersion
-        )
+        jdbcTemplate.update { con ->
+            val ps = con.prepareStatement(
+                """
+                INSERT INTO ${table}_attachment (
+                    attachment_file_key,
+                    attachment_file_name,
+                    attachment_upload_date,
+                    instruction_id,
+                    instruction_version,
+                    instruction_attachment_name,
+                    instruction_attachment_language
+                )
+                SELECT new_attachment.file_key,
+                       new_attachment.file_name,
+                       clock_timestamp() + new_attachment.ordinality * interval '1 microsecond',
+                       ?,
+                       ?,
+                       new_attachment.name,
+                       new_attachment.language::language
+                FROM unnest(?::text[], ?::text[], ?::text[], ?::text[]) WITH ORDINALITY
+                    AS new_attachment(file_key, file_name, name, language, ordinality)
+                ORDER BY new_attachment.ordinality
+                """.trimIndent()
+            )
+            ps.setLong(1, instructionId)
+            ps.setInt(2, instructionVersion)
+            ps.setArray(3, con.createArrayOf("text", attachments.map { it.fileKey }.toTypedArray()))
+            ps.setArray(4, con.createArrayOf("text", attachments.map { it.fileName }.toTypedArray()))
+            ps.setArray(5, con.createArrayOf("text", attachments.map { it.name }.toTypedArray()))
+            ps.setArray(6, con.createArrayOf("text", attachments.map { it.language.toString() }.toTypedArray()))
+            ps
+        }
     }
 
     private fun mapResultSetInstructionAttachment(rs: ResultSet): List<InstructionAttachmentDtoOut> {
@@ -230,7 +304,7 @@ class InstructionRepository(
         val instructionAttachmentNames = rs.getKotlinArray<String>("instruction_attachment_names")
         val instructionAttachmentLanguages = rs.getKotlinArray<String>("instruction_attachment_languages")
 
-        val attachments = if (attachmentFileKeys[0] != null && attachmentFileNames.isNotEmpty()) {
+        val attachments = if (attachmentFileKeys.isNotEmpty() && attachmentFileKeys[0] != null && attachmentFileNames.isNotEmpty()) {
             attachmentFileKeys.indices.map { i ->
                 InstructionAttachmentDtoOut(
                     attachmentFileKeys[i]!!,
@@ -318,6 +392,21 @@ class InstructionRepository(
             )
         }
 
+    // Liitteet kootaan versiokohtaisesti LATERAL-alikyselyssä, jolloin ohjeriviä ei tarvitse ryhmitellä kaikilla sarakkeillaan.
+    // Liitteet järjestetään lisäysjärjestykseen latauspäivämäärän mukaan.
+    private fun attachmentsLateralJoin(table: String, alias: String) = """
+        LEFT JOIN LATERAL (
+            SELECT
+                ARRAY_AGG(ia.attachment_file_key ORDER BY ia.attachment_upload_date, ia.attachment_file_key) AS attachment_file_keys,
+                ARRAY_AGG(ia.attachment_file_name ORDER BY ia.attachment_upload_date, ia.attachment_file_key) AS attachment_file_names,
+                ARRAY_AGG(ia.attachment_upload_date ORDER BY ia.attachment_upload_date, ia.attachment_file_key) AS attachment_upload_dates,
+                ARRAY_AGG(ia.instruction_attachment_name ORDER BY ia.attachment_upload_date, ia.attachment_file_key) AS instruction_attachment_names,
+                ARRAY_AGG(ia.instruction_attachment_language ORDER BY ia.attachment_upload_date, ia.attachment_file_key) AS instruction_attachment_languages
+            FROM ${table}_attachment ia
+            WHERE ia.instruction_id = $alias.instruction_id AND ia.instruction_version = $alias.instruction_version
+        ) attachments ON true
+    """.trimIndent()
+
     fun getInstructionById(exam: Exam, id: Int, version: Int? = null): InstructionOut? {
         val role = Kayttajatiedot.fromSecurityContext().role
         val table = tableNameByExam(exam)
@@ -327,41 +416,22 @@ class InstructionRepository(
             Exam.PUHVI -> mapResultSetPuhvi
         }
 
-        val versionCondition = version?.let { "AND i.instruction_version = $version" }
-            ?: "AND i.instruction_version = (SELECT MAX(instruction_version) FROM $table WHERE instruction_id = i.instruction_id)"
-
-        val groupByConditionByExam = when (exam) {
-            Exam.SUKO -> "i.suko_instruction_short_description_fi, i.suko_instruction_short_description_sv"
-            Exam.LD -> "i.ld_instruction_aine_koodi_arvo"
-            Exam.PUHVI -> "i.puhvi_instruction_short_description_fi, i.puhvi_instruction_short_description_sv"
-        }
+        val latestVersionJoin = if (version == null) latestVersionJoin(exam) else ""
+        val versionCondition = version?.let { "AND i.instruction_version = $version" } ?: ""
 
         val sql = """
-            SELECT
-                 i.*,
-                 ARRAY_AGG(ia.attachment_file_key) AS attachment_file_keys,
-                 ARRAY_AGG(ia.attachment_file_name) AS attachment_file_names,
-                 ARRAY_AGG(ia.attachment_upload_date) AS attachment_upload_dates,
-                 ARRAY_AGG(ia.instruction_attachment_name) AS instruction_attachment_names,
-                 ARRAY_AGG(ia.instruction_attachment_language) AS instruction_attachment_languages
+            SELECT i.*, attachments.*
             FROM $table i
-            LEFT JOIN ${table}_attachment ia ON i.instruction_id = ia.instruction_id AND i.instruction_version = ia.instruction_version
-            WHERE i.instruction_id = ? $versionCondition ${publishStateFilter(role)}
-            GROUP BY
-                i.instruction_id, 
-                i.instruction_version, 
-                i.instruction_name_fi, 
-                i.instruction_name_sv, 
-                i.instruction_content_fi, 
-                i.instruction_content_sv, 
-                i.instruction_publish_state, 
-                i.instruction_author_oid,
-                i.instruction_updater_oid,
-                $groupByConditionByExam;"""
+            $latestVersionJoin
+            ${attachmentsLateralJoin(table, "i")}
+            WHERE i.instruction_id = ? $versionCondition ${publishStateFilter(role)}"""
 
         return jdbcTemplate.query(sql, mapper, id).firstOrNull()
     }
 
+    fun getVersionHistory(id: Int, exam: Exam): List<ContentVersionDtoOut> =
+        jdbcTemplate.queryVersionHistory(ContentType.INSTRUCTION, exam, id)
+
     fun getAllVersionsOfInstruction(id: Int, exam: Exam): List<InstructionOut> {
         val (table, mapper) = when (exam) {
             Exam.SUKO -> "suko_instruction" to mapResultSetSuko
@@ -369,35 +439,12 @@ class InstructionRepository(
             Exam.PUHVI -> "puhvi_instruction" to mapResultSetPuhvi
         }
 
-        val groupByConditionByExam = when (exam) {
-            Exam.SUKO -> "i.suko_instruction_short_description_fi, i.suko_instruction_short_description_sv"
-            Exam.LD -> "i.ld_instruction_aine_koodi_arvo"
-            Exam.PUHVI -> "i.puhvi_instruction_short_description_fi, i.puhvi_instruction_short_description_sv"
-        }
-
         val sql = """
-            SELECT
-                 i.*,
-                 ARRAY_AGG(ia.attachment_file_key) AS attachment_file_keys,
-                 ARRAY_AGG(ia.attachment_file_name) AS attachment_file_names,
-                 ARRAY_AGG(ia.attachment_upload_date) AS attachment_upload_dates,
-                 ARRAY_AGG(ia.instruction_attachment_name) AS instruction_attachment_names,
-                 ARRAY_AGG(ia.instruction_attachment_language) AS instruction_attachment_languages
+            SELECT i.*, attachments.*
             FROM $table i
-            LEFT JOIN ${table}_attachment ia ON i.instruction_id = ia.instruction_id AND i.instruction_version = ia.instruction_version
+            ${attachmentsLateralJoin(table, "i")}
             WHERE i.instruction_id = ?
-            GROUP BY
-                i.instruction_id, 
-                i.instruction_version, 
-                i.instruction_name_fi, 
-                i.instruction_name_sv, 
-                i.instruction_content_fi, 
-                i.instruction_content_sv, 
-                i.instruction_publish_state, 
-                i.instruction_author_oid,
-                i.instruction_updater_oid,
-                $groupByConditionByExam
-            ORDER BY i.instruction_version;"""
+            ORDER BY i.instruction_version"""
 
         return jdbcTemplate.query(sql, mapper, id).filterNotNull()
     }
@@ -415,49 +462,19 @@ class InstructionRepository(
         return Pair(queryBuilder.toString(), parameters)
     }
 
-    private fun listMetadata(
-        filters: InstructionBaseFilters,
-        role: Role,
-    ): InstructionFilterOptions {
-        return when (filters) {
-            is SukoInstructionFilters -> SukoInstructionFilterOptionsDtoOut()
-            is LdInstructionFilters -> ldListMetadata(filters, role)
-            is PuhviInstructionFilters -> PuhviInstructionFilterOptionsDtoOut()
-        }
-    }
-
-    private val ldListMetadataResultSetExtractor: (ResultSet) -> LdInstructionFilterOptionsDtoOut = { rs: ResultSet ->
-        rs.next()
-
-        LdInstructionFilterOptionsDtoOut(
-            aine = rs.getKotlinList("aine_array"),
-        )
-    }
-
-    private fun ldListMetadata(
-        filters: LdInstructionFilters,
-        role: Role
-    ): LdInstructionFilterOptionsDtoOut {
-        val parameters = MapSqlParameterSource()
-
-        fun buildFilters(filters: LdInstructionFilters): String {
-            val (ldFilterString, ldFilterParameters) = examSpecificFilters(filters)
-            parameters.addValues(ldFilterParameters.values)
-            return "$ldFilterString ${publishStateFilter(role)}"
-        }
-
-        val queryBuilder = StringBuilder(
-            """
-            SELECT ARRAY(SELECT DISTINCT ld_instruction_aine_koodi_arvo
-                         FROM ld_instruction i WHERE TRUE ${buildFilters(filters.copy(aine = null))}
-                         ORDER BY ld_instruction_aine_koodi_arvo) as aine_array
-         """.trimIndent()
-        )
-
-        return namedJdbcTemplate.query(queryBuilder.toString(), parameters, ldListMetadataResultSetExtractor)
+    private fun filterOptions(exam: Exam, rs: ResultSet): InstructionFilterOptions = when (exam) {
+        Exam.SUKO -> SukoInstructionFilterOptionsDtoOut()
+        Exam.LD -> LdInstructionFilterOptionsDtoOut(aine = rs.getKotlinList("aine_array"))
+        Exam.PUHVI -> PuhviInstructionFilterOptionsDtoOut()
     }
 
-    private fun listInstructions(filters: InstructionBaseFilters, exam: Exam, role: Role): List<InstructionOut> {
+    // Suodatusvaihtoehdot, kokonaismäärä ja sivu haetaan samalla kyselyllä. Metatietorivi palautetaan aina,
+    // joten tyhjälläkin sivulla saadaan kokonaismäärä ja suodatusvaihtoehdot.
+    fun getInstructions(
+        exam: Exam,
+        filters: InstructionBaseFilters
+    ): InstructionListDtoOut<InstructionOut, InstructionFilterOptions> {
+        val role = Kayttajatiedot.fromSecurityContext().role
         val table = tableNameByExam(exam)
         val mapper = when (exam) {
             Exam.SUKO -> mapResultSetSuko
@@ -466,82 +483,72 @@ class InstructionRepository(
         }
 
         val parameters = MapSqlParameterSource()
-        val filterBuilder = StringBuilder()
-
-        filterBuilder.append("true ${publishStateFilter(role)}")
+            .addValue("limit", INSTRUCTION_PAGE_SIZE)
+            .addValue("offset", (filters.sivu - 1) * INSTRUCTION_PAGE_SIZE)
 
         val (examSpecificFilterQuery, examSpecificFilterParameters) = examSpecificFilters(filters)
-        filterBuilder.append(examSpecificFilterQuery)
         parameters.addValues(examSpecificFilterParameters.values)
 
         val orderDirection = filters.jarjesta ?: ""
 
-        val additionalSelectFields = when (exam) {
-            Exam.SUKO -> "i.suko_instruction_short_description_fi, i.suko_instruction_short_description_sv"
-            Exam.LD -> "i.ld_instruction_aine_koodi_arvo"
-            Exam.PUHVI -> "i.puhvi_instruction_short_description_fi, i.puhvi_instruction_short_description_sv"
-        }
-
-        val sql = """SELECT
-                     i.*,
-                     ARRAY_AGG(ia.attachment_file_key) AS attachment_file_keys,
-                     ARRAY_AGG(ia.attachment_file_name) AS attachment_file_names,
-                     ARRAY_AGG(ia.attachment_upload_date) AS attachment_upload_dates,
-                     ARRAY_AGG(ia.instruction_attachment_name) AS instruction_attachment_names,
-                     ARRAY_AGG(ia.instruction_attachment_language) AS instruction_attachment_languages
-                FROM
-                    $table i 
-                INNER JOIN (
-                    SELECT instruction_id, MAX(instruction_version) as latest_version
-                    FROM $table
-                    GROUP BY instruction_id
-                ) latest ON i.instruction_id = latest.instruction_id AND i.instruction_version = latest.latest_version
-                LEFT JOIN ${table}_attachment ia on i.instruction_id = ia.instruction_id AND i.instruction_version = ia.instruction_version
-                WHERE $filterBuilder
-                GROUP BY
-                    i.instruction_id, 
-                    i.instruction_version,
-                    i.instruction_name_fi, 
-                    i.instruction_name_sv, 
-                    i.instruction_content_fi, 
-                    i.instruction_content_sv, 
-                    i.instruction_publish_state, 
-                    i.instruction_author_oid,
-                    i.instruction_updater_oid,
-                    $additionalSelectFields
-                ORDER BY i.instruction_updated_at $orderDirection;"""
-
-        return namedJdbcTemplate.query(sql, parameters, mapper).filterNotNull()
-    }
-
-    fun getInstructions(
-        exam: Exam,
-        filters: InstructionBaseFilters
-    ): InstructionListDtoOut<InstructionOut, InstructionFilterOptions> {
-        val role = Kayttajatiedot.fromSecurityContext().role
-        val result = listInstructions(filters, exam, role)
+        val aineOptions = if (exam == Exam.LD) {
+            "ARRAY(SELECT DISTINCT ld_instruction_aine_koodi_arvo FROM latest ORDER BY ld_instruction_aine_koodi_arvo)"
+        } else "NULL::text[]"
 
-        val metadata = listMetadata(
-            filters,
-            role
-        )
+        // latest ja filtered liitetään jokaiseen käyttökohtaansa (NOT MATERIALIZED), jolloin sivu luetaan
+        // (instruction_updated_at, instruction_id)-indeksistä järjestyksessä ja uusin versio tarkistetaan osoitintaulusta
+        val sql = """
+            WITH latest AS NOT MATERIALIZED (
+                SELECT i.*
+                FROM $table i
+                ${latestVersionJoin(exam)}
+                WHERE true ${publishStateFilter(role)}
+            ),
+            filtered AS NOT MATERIALIZED (
+                SELECT * FROM latest WHERE true $examSpecificFilterQuery
+            ),
+            page AS (
+                SELECT * FROM filtered
+                ORDER BY instruction_updated_at $orderDirection, instruction_id $orderDirection
+                LIMIT :limit OFFSET :offset
+            )
+            SELECT metadata.total_count, metadata.aine_array, i.*, attachments.*
+            FROM (SELECT (SELECT count(*) FROM filtered) AS total_count, $aineOptions AS aine_array) metadata
+            LEFT JOIN page i ON true
+            ${attachmentsLateralJoin(table, "i")}
+            ORDER BY i.instruction_updated_at $orderDirection, i.instruction_id $orderDirection"""
+
+        return namedJdbcTemplate.query(sql, parameters, ResultSetExtractor { rs ->
+            var totalCount = 0
+            var filterOptions: InstructionFilterOptions? = null
+            val instructions = mutableListOf<InstructionOut>()
+            while (rs.next()) {
+                totalCount = rs.getInt("total_count")
+                filterOptions = filterOptions(exam, rs)
+                if (rs.getObject("instruction_id") != null) {
+                    mapper(rs, rs.row)?.let { instructions.add(it) }
+                }
+            }
 
-        return InstructionListDtoOut(
-            result,
-            metadata
-        )
+            InstructionListDtoOut(
+                content = instructions,
+                totalCount = totalCount,
+                totalPages = if (totalCount == 0) 1 else (totalCount + INSTRUCTION_PAGE_SIZE - 1) / INSTRUCTION_PAGE_SIZE,
+                currentPage = filters.sivu,
+                instructionFilterOptions = filterOptions!!
+            )
+        })!!
     }
 
     private fun getLatestInstructioDataForNewVersion(id: Int, exam: Exam): Triple<Int, String, Timestamp>? = try {
+        // Lukitaan osoitinrivi, jotta samanaikaiset uudet versiot samasta ohjeesta sarjallistuvat
         jdbcTemplate.queryForObject(
             """
-            SELECT instruction_version, instruction_author_oid, instruction_created_at
-            FROM ${tableNameByExam(exam)}
-            WHERE instruction_id = ? AND instruction_version = (SELECT MAX(instruction_version) FROM ${
-                tableNameByExam(
-                    exam
-                )
-            } WHERE instruction_id = ?) FOR UPDATE;""".trimIndent(),
+            SELECT i.instruction_version, i.instruction_author_oid, i.instruction_created_at
+            FROM ${tableNameByExam(exam)} i
+            ${latestVersionJoin(exam)}
+            WHERE i.instruction_id = ?
+            FOR UPDATE OF latest_version;""".trimIndent(),
             { rs, _ ->
                 Triple(
                     rs.getInt("instruction_version"),
@@ -549,7 +556,7 @@ class InstructionRepository(
                     rs.getTimestamp("instruction_created_at")
                 )
             },
-            id, id
+            id
         )
     } catch (e: EmptyResultDataAccessException) {
         null
@@ -571,65 +578,21 @@ class InstructionRepository(
         val versionToCreate = currentLatestVersion + 1
 
         updateInstructionRow(versionToCreate, authorOid, createdAt)
-
-        val attachmentWithInstructionVersion = { metadata: InstructionAttachmentMetadataDtoIn ->
-            metadata.copy(instructionVersion = versionToCreate)
-        }
+        setLatestInstructionVersion(instructionDtoIn.exam, id, versionToCreate)
 
         val table = tableNameByExam(instructionDtoIn.exam)
+        // Aiemman version liitteet tarkistetaan ennen uusien lataamista, mutta uudet liitteet lisätään ensin,
+        // jotta liitteiden järjestys säilyy entisellään
+        val existingAttachmentRows = existingInstructionAttachmentRows(table, attachmentsMetadata)
+
+        insertInstructionAttachments(
+            table,
+            id.toLong(),
+            versionToCreate,
+            uploadNewInstructionAttachments(newAttachments) + existingAttachmentRows
+        )
 
-        for (attachment in newAttachments) {
-            val fileKey = newInstructionAttachmentFileKey()
-            uploadInstructionAttachmentToS3(fileKey, attachment.file)
-            insertInstructionAttachment(
-                table,
-                id.toLong(),
-                attachmentWithInstructionVersion(attachment.metadata),
-                attachment.file.originalFilename!!,
-                fileKey
-            )
-        }
-
-        for (attachmentMetadata in attachmentsMetadata) {
-            val sql = """
-            INSERT INTO ${table}_attachment (
-                attachment_file_key, 
-                attachment_file_name, 
-                attachment_upload_date,
-                instruction_id, 
-                instruction_version,
-                instruction_attachment_name,
-                instruction_attachment_language
-            )
-            VALUES (
-                :attachmentFileKey, 
-                (SELECT attachment_file_name FROM ${table}_attachment ia WHERE ia.attachment_file_key = :attachmentFileKey LIMIT 1), 
-                clock_timestamp(), 
-                :instructionId, 
-                :instructionVersion, 
-                :attachmentName, 
-                :attachmentLanguage::language
-            )
-            """.trimIndent()
-
-            val params = MapSqlParameterSource()
-                .addValue("attachmentFileKey", attachmentMetadata.fileKey)
-                .addValue("instructionId", id)
-                .addValue("instructionVersion", versionToCreate)
-                .addValue("attachmentName", attachmentMetadata.name)
-                .addValue("attachmentLanguage", attachmentMetadata.language.toString())
-
-            try {
-                namedJdbcTemplate.update(sql, params)
-            } catch (e: DataIntegrityViolationException) {
-                if (e.mostSpecificCause.message?.contains("null value in column \"attachment_file_name\"") == true) throw ResponseStatusException(
-                    HttpStatus.BAD_REQUEST,
-                    "Attachment '${attachmentMetadata.fileKey}' not found"
-                )
-                else throw e
-            }
-        }
-
+        cacheInvalidationBus.contentChanged(ContentType.INSTRUCTION)
         return@execute versionToCreate
     }
 
@@ -766,7 +729,7 @@ class InstructionRepository(
         val paramMap = mapOf("fileKey" to fileKey, "version" to version)
 
         val versionCondition = version?.let { "AND ia.instruction_version = :version" }
-            ?: "AND ia.instruction_version = (SELECT MAX(i.instruction_version) FROM $tableName i WHERE ia.instruction_id = i.instruction_id)"
+            ?: "AND ia.instruction_version = (SELECT instruction_version FROM ${tableName}_latest_version latest_version WHERE latest_version.instruction_id = ia.instruction_id)"
 
         val results = namedJdbcTemplate.query(
             """
@@ -1,23 +1,18 @@
 package fi.oph.ludos.instruction
 
 import fi.oph.ludos.*
-import fi.oph.ludos.auth.OppijanumerorekisteriClient
-import fi.oph.ludos.aws.Bucket
-import fi.oph.ludos.aws.S3Helper
+import fi.oph.ludos.auth.UpdaterNameService
 import jakarta.servlet.ServletRequest
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import org.springframework.http.HttpStatus
 import org.springframework.stereotype.Service
 import org.springframework.web.server.ResponseStatusException
-import software.amazon.awssdk.core.exception.SdkException
-import java.io.InputStream
 
 @Service
 class InstructionService(
     val repository: InstructionRepository,
-    val s3Helper: S3Helper,
-    val oppijanumerorekisteriClient: OppijanumerorekisteriClient
+    val updaterNameService: UpdaterNameService
 ) {
     val logger: Logger = LoggerFactory.getLogger(javaClass)
     val auditLogger: Logger = LoggerFactory.getLogger(AUDIT_LOGGER_NAME)
@@ -143,14 +138,19 @@ class InstructionService(
     fun getInstructionById(exam: Exam, id: Int, version: Int? = null): InstructionOut? =
         repository.getInstructionById(exam, id, version)
 
+    fun getVersionHistory(exam: Exam, id: Int): List<ContentVersionDtoOut> {
+        val versions = repository.getVersionHistory(id, exam)
+        val oidToName = updaterNameService.getUpdaterNames(versions.map { it.updaterOid })
+        return versions.map { it.copy(updaterName = oidToName[it.updaterOid]) }
+    }
+
     fun getAllVersionsOfInstruction(exam: Exam, id: Int): List<InstructionOut> =
         addUpdaterNames(repository.getAllVersionsOfInstruction(id, exam))
 
     fun addUpdaterNames(instructions: List<InstructionOut>): List<InstructionOut> {
-        val uniqueOids = instructions.map { it.updaterOid }.toSet()
-        val oidToName = uniqueOids.associateWith { oppijanumerorekisteriClient.getUserDetailsByOid(it) }
+        val oidToName = updaterNameService.getUpdaterNames(instructions.map { it.updaterOid })
         return instructions.map {
-            val updaterName = oidToName.getOrDefault(it.updaterOid, null)?.formatName()
+            val updaterName = oidToName[it.updaterOid]
             when (it) {
                 is SukoInstructionDtoOut -> it.copy(updaterName = updaterName)
                 is LdInstructionDtoOut -> it.copy(updaterName = updaterName)
@@ -159,19 +159,8 @@ class InstructionService(
         }
     }
 
-    fun getAttachment(exam: Exam, key: String, version: Int? = null): Pair<InstructionAttachmentDtoOut, InputStream> {
-        val fileUpload = repository.getAttachmentByFileKey(exam, key, version) ?: throw ResponseStatusException(
-            HttpStatus.NOT_FOUND, "Certificate attachment '${key}' not found in db"
+    fun getAttachment(exam: Exam, key: String, version: Int? = null): InstructionAttachmentDtoOut =
+        repository.getAttachmentByFileKey(exam, key, version) ?: throw ResponseStatusException(
+            HttpStatus.NOT_FOUND, "Instruction attachment '${key}' not found in db"
         )
-
-        val responseInputStream = try {
-            s3Helper.getObject(Bucket.INSTRUCTION, key)
-        } catch (ex: SdkException) {
-            val errorMsg = "Failed to get attachment '${key}' from S3"
-            logger.error(errorMsg, ex)
-            throw ResponseStatusException(HttpStatus.BAD_GATEWAY, errorMsg)
-        } ?: throw ResponseStatusException(HttpStatus.NOT_FOUND, "Instruction attachment '${key}' not found in S3")
-
-        return Pair(fileUpload, responseInputStream)
-    }
-}
\ No newline at end of file
+}
@@ -1,5 +1,11 @@
 package fi.oph.ludos.repository
 
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.ContentVersionDtoOut
+import fi.oph.ludos.Exam
+import fi.oph.ludos.PublishState
+import fi.oph.ludos.auth.Role
+import org.springframework.jdbc.core.JdbcTemplate
 import java.sql.ResultSet
 
 inline fun <reified T> ResultSet.getKotlinArray(columnLabel: String): Array<T> {
@@ -11,3 +17,38 @@ inline fun <reified T> ResultSet.getKotlinArray(columnLabel: String): Array<T> {
 inline fun <reified T> ResultSet.getKotlinList(columnLabel: String): List<T> {
     return this.getKotlinArray<T>(columnLabel).toList().filterNotNull()
 }
+
+// Opettaja näkee vain julkaistut, muut roolit myös luonnokset
+fun publishStateCondition(column: String, role: Role) = when (role) {
+    Role.OPETTAJA -> "AND $column = '${PublishState.PUBLISHED}'"
+    else -> "AND $column in ('${PublishState.PUBLISHED}', '${PublishState.DRAFT}')"
+}
+
+// Kaikilla sisältötauluilla on samannimiset sarakkeet tyypin etuliitteellä, joten versiohistoria haetaan samalla kyselyllä.
+// Rajaus ja järjestys hoituvat (id, version)-pääavaimella.
+fun JdbcTemplate.queryVersionHistory(contentType: ContentType, exam: Exam, id: Int): List<ContentVersionDtoOut> {
+    val prefix = contentType.toString().lowercase()
+    val table = "${exam.toString().lowercase()}_$prefix"
+
+    return query(
+        """
+        SELECT ${prefix}_id, ${prefix}_version, ${prefix}_publish_state, ${prefix}_updater_oid, ${prefix}_updated_at
+        FROM $table
+        WHERE ${prefix}_id = ?
+        ORDER BY ${prefix}_version
+        """.trimIndent(),
+        { rs, _ ->
+            ContentVersionDtoOut(
+                id = rs.getInt("${prefix}_id"),
+                exam = exam,
+                contentType = contentType,
+                version = rs.getInt("${prefix}_version"),
+                publishState = PublishState.valueOf(rs.getString("${prefix}_publish_state")),
+                updaterOid = rs.getString("${prefix}_updater_oid"),
+                updaterName = null,
+                updatedAt = rs.getTimestamp("${prefix}_updated_at")
+            )
+        },
+        id
+    )
+}
@@ -0,0 +1,57 @@
+package fi.oph.ludos.search
+
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.Exam
+import jakarta.validation.constraints.Min
+import jakarta.validation.constraints.NotBlank
+import jakarta.validation.constraints.Size
+import java.sql.Timestamp
+
+const val SEARCH_PAGE_SIZE = 20
+const val SUGGESTION_LIMIT = 10
+
+// pg_trgm ei saa kahden merkin hakusanasta ('%ab%') yhtään trigrammia, jolloin nimien trigrammi-indeksejä ei voisi käyttää
+const val SUGGESTION_MIN_LENGTH = 3
+
+data class SearchFilters(
+    @field:NotBlank
+    @field:Size(max = 200)
+    val hakusana: String,
+    val exam: Exam? = null,
+    val tyyppi: ContentType? = null,
+    @field:Min(1)
+    val sivu: Int = 1
+)
+
+data class SearchResultDtoOut(
+    val contentType: ContentType,
+    val exam: Exam,
+    val id: Int,
+    val version: Int,
+    val nameFi: String,
+    val nameSv: String,
+    val updatedAt: Timestamp,
+    val rank: Float
+)
+
+data class SearchResultListDtoOut(
+    val content: List<SearchResultDtoOut>,
+    val totalCount: Int,
+    val totalPages: Int,
+    val currentPage: Int
+)
+
+data class SuggestionFilters(
+    @field:Size(min = SUGGESTION_MIN_LENGTH, max = 100)
+    val hakusana: String,
+    val exam: Exam? = null,
+    val tyyppi: ContentType? = null
+)
+
+data class SuggestionDtoOut(
+    val contentType: ContentType,
+    val exam: Exam,
+    val id: Int,
+    val nameFi: String,
+    val nameSv: String
+)
@@ -0,0 +1,23 @@
+package fi.oph.ludos.search
+
+import fi.oph.ludos.Constants
+import fi.oph.ludos.auth.RequireAtLeastOpettajaRole
+import jakarta.validation.Valid
+import org.springframework.validation.annotation.Validated
+import org.springframework.web.bind.annotation.GetMapping
+import org.springframework.web.bind.annotation.RequestMapping
+import org.springframework.web.bind.annotation.RestController
+
+@RestController
+@Validated
+@RequireAtLeastOpettajaRole
+@RequestMapping("${Constants.API_PREFIX}/search")
+class SearchController(val service: SearchService) {
+    @GetMapping("")
+    @RequireAtLeastOpettajaRole
+    fun search(@Valid filters: SearchFilters): SearchResultListDtoOut = service.search(filters)
+
+    @GetMapping("/suggest")
+    @RequireAtLeastOpettajaRole
+    fun suggest(@Valid filters: SuggestionFilters): List<SuggestionDtoOut> = service.suggest(filters)
+}
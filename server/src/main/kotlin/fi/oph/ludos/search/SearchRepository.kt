@@ -0,0 +1,154 @@
+package fi.oph.ludos.search
+
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.Exam
+import fi.oph.ludos.PublishState
+import fi.oph.ludos.auth.Kayttajatiedot
+import fi.oph.ludos.auth.Role
+import fi.oph.ludos.repository.publishStateCondition
+import org.springframework.jdbc.core.ResultSetExtractor
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.stereotype.Component
+import java.sql.ResultSet
+
+@Component
+class SearchRepository(private val namedJdbcTemplate: NamedParameterJdbcTemplate) {
+    private fun tableName(contentType: ContentType, exam: Exam) =
+        "${exam.toString().lowercase()}_${contentType.toString().lowercase()}"
+
+    // Kaikilla sisältötyypeillä on samannimiset sarakkeet tyypin etuliitteellä (assignment_, instruction_, certificate_)
+    private fun columnPrefix(contentType: ContentType) = contentType.toString().lowercase()
+
+    // Kaikkien sisältötyyppien uusin versio löytyy osoitintaulusta
+    private fun latestVersionCondition(contentType: ContentType, exam: Exam): String {
+        val table = tableName(contentType, exam)
+        val prefix = columnPrefix(contentType)
+        return """
+            AND EXISTS (SELECT 1 FROM ${table}_latest_version latest_version
+                        WHERE latest_version.${prefix}_id = c.${prefix}_id
+                          AND latest_version.${prefix}_version = c.${prefix}_version)
+        """.trimIndent()
+    }
+
+    private fun searchQueryForTable(contentType: ContentType, exam: Exam, role: Role): String {
+        val table = tableName(contentType, exam)
+        val prefix = columnPrefix(contentType)
+
+        return """
+            SELECT '$contentType' AS content_type,
+                   '$exam' AS exam,
+                   c.${prefix}_id AS id,
+                   c.${prefix}_version AS version,
+                   c.${prefix}_name_fi AS name_fi,
+                   c.${prefix}_name_sv AS name_sv,
+                   c.${prefix}_updated_at AS updated_at,
+                   GREATEST(ts_rank(s.${prefix}_search_fi, query.fi), ts_rank(s.${prefix}_search_sv, query.sv)) AS rank
+            FROM ${table}_search s
+                JOIN $table c ON c.${prefix}_id = s.${prefix}_id AND c.${prefix}_version = s.${prefix}_version,
+                query
+            WHERE (s.${prefix}_search_fi @@ query.fi OR s.${prefix}_search_sv @@ query.sv)
+                ${publishStateCondition("c.${prefix}_publish_state", role)}
+                ${latestVersionCondition(contentType, exam)}
+        """.trimIndent()
+    }
+
+    fun search(filters: SearchFilters): SearchResultListDtoOut {
+        val role = Kayttajatiedot.fromSecurityContext().role
+
+        val contentTypes = filters.tyyppi?.let { listOf(it) } ?: ContentType.entries
+        val exams = filters.exam?.let { listOf(it) } ?: Exam.entries
+        val tableQueries = contentTypes.flatMap { contentType ->
+            exams.map { exam -> searchQueryForTable(contentType, exam, role) }
+        }
+
+        val query = """
+            WITH query AS (SELECT websearch_to_tsquery('finnish', :hakusana) AS fi,
+                                  websearch_to_tsquery('swedish', :hakusana) AS sv),
+                 results AS (${tableQueries.joinToString("\nUNION ALL\n")})
+            SELECT results.*, COUNT(*) OVER () AS total_count
+            FROM results
+            ORDER BY rank DESC, updated_at DESC, content_type, exam, id
+            LIMIT :limit OFFSET :offset
+        """.trimIndent()
+
+        val parameters = MapSqlParameterSource()
+            .addValue("hakusana", filters.hakusana)
+            .addValue("limit", SEARCH_PAGE_SIZE)
+            .addValue("offset", (filters.sivu - 1) * SEARCH_PAGE_SIZE)
+
+        val (results, totalCount) = namedJdbcTemplate.query(query, parameters, ResultSetExtractor { rs: ResultSet ->
+            var totalCount = 0
+            val results = mutableListOf<SearchResultDtoOut>()
+            while (rs.next()) {
+                totalCount = rs.getInt("total_count")
+                results.add(
+                    SearchResultDtoOut(
+                        contentType = ContentType.valueOf(rs.getString("content_type")),
+                        exam = Exam.valueOf(rs.getString("exam")),
+                        id = rs.getInt("id"),
+                        version = rs.getInt("version"),
+                        nameFi = rs.getString("name_fi"),
+                        nameSv = rs.getString("name_sv"),
+                        updatedAt = rs.getTimestamp("updated_at"),
+                        rank = rs.getFloat("rank")
+                    )
+                )
+            }
+            Pair(results.toList(), totalCount)
+        })!!
+
+        return SearchResultListDtoOut(
+            results,
+            totalCount,
+            if (totalCount == 0) 1 else (totalCount + SEARCH_PAGE_SIZE - 1) / SEARCH_PAGE_SIZE,
+            filters.sivu
+        )
+    }
+
+    private fun suggestQueryForTable(contentType: ContentType, exam: Exam): String {
+        val prefix = columnPrefix(contentType)
+        return """
+            SELECT '$contentType' AS content_type,
+                   '$exam' AS exam,
+                   c.${prefix}_id AS id,
+                   c.${prefix}_name_fi AS name_fi,
+                   c.${prefix}_name_sv AS name_sv
+            FROM ${tableName(contentType, exam)} c
+            WHERE (c.${prefix}_name_fi ILIKE :pattern OR c.${prefix}_name_sv ILIKE :pattern)
+                AND c.${prefix}_publish_state = '${PublishState.PUBLISHED}'
+                ${latestVersionCondition(contentType, exam)}
+        """.trimIndent()
+    }
+
+    // Osumat järjestetään niin, että sama järjestys voidaan toistaa sovelluksessa, ks. SearchService.suggest
+    fun suggest(hakusana: String, exam: Exam?, contentType: ContentType?, limit: Int): List<SuggestionDtoOut> {
+        val contentTypes = contentType?.let { listOf(it) } ?: ContentType.entries
+        val exams = exam?.let { listOf(it) } ?: Exam.entries
+        val tableQueries = contentTypes.flatMap { type -> exams.map { suggestQueryForTable(type, it) } }
+
+        val escaped = hakusana.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")
+        val query = """
+            SELECT *
+            FROM (${tableQueries.joinToString("\nUNION ALL\n")}) suggestions
+            ORDER BY (name_fi ILIKE :prefixPattern OR name_sv ILIKE :prefixPattern) DESC,
+                     lower(name_fi) COLLATE "C", content_type, exam, id
+            LIMIT :limit
+        """.trimIndent()
+
+        val parameters = MapSqlParameterSource()
+            .addValue("pattern", "%$escaped%")
+            .addValue("prefixPattern", "$escaped%")
+            .addValue("limit", limit)
+
+        return namedJdbcTemplate.query(query, parameters) { rs: ResultSet, _: Int ->
+            SuggestionDtoOut(
+                contentType = ContentType.valueOf(rs.getString("content_type")),
+                exam = Exam.valueOf(rs.getString("exam")),
+                id = rs.getInt("id"),
+                nameFi = rs.getString("name_fi"),
+                nameSv = rs.getString("name_sv")
+            )
+        }
+    }
+}
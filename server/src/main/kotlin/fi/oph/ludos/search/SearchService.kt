@@ -0,0 +1,57 @@
+package fi.oph.ludos.search
+
+import fi.oph.ludos.ContentType
+import fi.oph.ludos.Exam
+import fi.oph.ludos.cache.CacheName
+import org.springframework.cache.CacheManager
+import org.springframework.stereotype.Service
+
+@Service
+class SearchService(val repository: SearchRepository, cacheManager: CacheManager) {
+    private val suggestionCache = cacheManager.getCache(CacheName.SEARCH_SUGGESTIONS.key)!!
+
+    private data class SuggestionKey(val hakusana: String, val exam: Exam?, val tyyppi: ContentType?)
+
+    // complete = kaikki hakusanaan osuvat nimet mahtuivat tulokseen, jolloin pidemmän hakusanan
+    // tulokset voidaan suodattaa tästä ilman tietokantakyselyä
+    private data class CachedSuggestions(val suggestions: List<SuggestionDtoOut>, val complete: Boolean)
+
+    fun search(filters: SearchFilters): SearchResultListDtoOut = repository.search(filters)
+
+    fun suggest(filters: SuggestionFilters): List<SuggestionDtoOut> {
+        val key = SuggestionKey(filters.hakusana.trim().lowercase(), filters.exam, filters.tyyppi)
+        if (key.hakusana.length < SUGGESTION_MIN_LENGTH) {
+            return emptyList()
+        }
+
+        return suggestionCache.get(key) { cachedPrefixSuggestions(key) ?: fetchSuggestions(key) }!!.suggestions
+    }
+
+    private fun fetchSuggestions(key: SuggestionKey): CachedSuggestions {
+        val suggestions = repository.suggest(key.hakusana, key.exam, key.tyyppi, SUGGESTION_LIMIT + 1)
+        return CachedSuggestions(suggestions.take(SUGGESTION_LIMIT), suggestions.size <= SUGGESTION_LIMIT)
+    }
+
+    // Kirjoitettaessa hakusana pitenee merkki kerrallaan, joten lyhyemmän alkuosan täydellinen tulos kattaa kaikki osumat
+    private fun cachedPrefixSuggestions(key: SuggestionKey): CachedSuggestions? {
+        val prefixSuggestions = (key.hakusana.length - 1 downTo SUGGESTION_MIN_LENGTH).firstNotNullOfOrNull { length ->
+            val prefixKey = key.copy(hakusana = key.hakusana.take(length))
+            (suggestionCache.get(prefixKey)?.get() as CachedSuggestions?)?.takeIf { it.complete }
+        } ?: return null
+
+        val suggestions = prefixSuggestions.suggestions
+            .filter { it.nameFi.lowercase().contains(key.hakusana) || it.nameSv.lowercase().contains(key.hakusana) }
+            .sortedWith(suggestionOrder(key.hakusana))
+        return CachedSuggestions(suggestions, complete = true)
+    }
+
+    // Sama järjestys kuin SearchRepository.suggest-kyselyssä
+    private fun suggestionOrder(hakusana: String): Comparator<SuggestionDtoOut> =
+        compareByDescending<SuggestionDtoOut> {
+            it.nameFi.lowercase().startsWith(hakusana) || it.nameSv.lowercase().startsWith(hakusana)
+        }
+            .thenBy { it.nameFi.lowercase() }
+            .thenBy { it.contentType.toString() }
+            .thenBy { it.exam.toString() }
+            .thenBy { it.id }
+}
@@ -1,10 +1,12 @@
 package fi.oph.ludos.test
 
 import fi.oph.ludos.ContentBase
+import fi.oph.ludos.ContentType
 import fi.oph.ludos.Exam
 import fi.oph.ludos.Language
 import fi.oph.ludos.PublishState
 import fi.oph.ludos.assignment.*
+import fi.oph.ludos.cache.CacheInvalidationBus
 import fi.oph.ludos.certificate.CertificateRepository
 import fi.oph.ludos.certificate.LdCertificateDtoIn
 import fi.oph.ludos.certificate.PuhviCertificateDtoIn
@@ -108,7 +110,8 @@ class SeedDataRepository(
     val assignmentRepository: AssignmentRepository,
     val instructionRepository: InstructionRepository,
     val certificateRepository: CertificateRepository,
-    private val jdbcTemplate: JdbcTemplate
+    private val jdbcTemplate: JdbcTemplate,
+    private val cacheInvalidationBus: CacheInvalidationBus
 ) {
 
     fun seedDatabase() {
@@ -374,13 +377,16 @@ class SeedDataRepository(
     fun nukeAssignments() {
         jdbcTemplate.execute("TRUNCATE TABLE assignment CASCADE")
         jdbcTemplate.execute("TRUNCATE TABLE assignment_favorite_folder CASCADE")
+        cacheInvalidationBus.contentChanged(ContentType.ASSIGNMENT)
     }
 
     fun nukeInstructions() {
         jdbcTemplate.execute("TRUNCATE TABLE instruction CASCADE")
+        cacheInvalidationBus.contentChanged(ContentType.INSTRUCTION)
     }
 
     fun nukeCertificates() {
         jdbcTemplate.execute("TRUNCATE TABLE certificate CASCADE")
+        cacheInvalidationBus.contentChanged(ContentType.CERTIFICATE)
     }
 }
@@ -0,0 +1,52 @@
+-- Tehtävien uusimman version osoitintaulut. Ylläpidetään samassa transaktiossa kuin tehtävän tallennus ja
+-- uuden version luonti, jotta listaus- ja hakukyselyjen ei tarvitse laskea MAX(assignment_version) joka kerta.
+-- Sisältörivit haetaan (assignment_id, assignment_version)-parilla, joten erillistä sisältöprojektiota ei tarvita.
+CREATE TABLE assignment_latest_version
+(
+    assignment_id      integer NOT NULL,
+    assignment_version integer NOT NULL,
+    PRIMARY KEY (assignment_id)
+);
+
+CREATE TABLE suko_assignment_latest_version
+(
+    PRIMARY KEY (assignment_id),
+    CONSTRAINT suko_assignment_fk FOREIGN KEY (assignment_id, assignment_version)
+        REFERENCES suko_assignment (assignment_id, assignment_version)
+        ON DELETE CASCADE
+) INHERITS (assignment_latest_version);
+
+CREATE TABLE ld_assignment_latest_version
+(
+    PRIMARY KEY (assignment_id),
+    CONSTRAINT ld_assignment_fk FOREIGN KEY (assignment_id, assignment_version)
+        REFERENCES ld_assignment (assignment_id, assignment_version)
+        ON DELETE CASCADE
+) INHERITS (assignment_latest_version);
+
+CREATE TABLE puhvi_assignment_latest_version
+(
+    PRIMARY KEY (assignment_id),
+    CONSTRAINT puhvi_assignment_fk FOREIGN KEY (assignment_id, assignment_version)
+        REFERENCES puhvi_assignment (assignment_id, assignment_version)
+        ON DELETE CASCADE
+) INHERITS (assignment_latest_version);
+
+INSERT INTO suko_assignment_latest_version (assignment_id, assignment_version)
+SELECT assignment_id, MAX(assignment_version)
+FROM suko_assignment
+GROUP BY assignment_id;
+
+INSERT INTO ld_assignment_latest_version (assignment_id, assignment_version)
+SELECT assignment_id, MAX(assignment_version)
+FROM ld_assignment
+GROUP BY assignment_id;
+
+INSERT INTO puhvi_assignment_latest_version (assignment_id, assignment_version)
+SELECT assignment_id, MAX(assignment_version)
+FROM puhvi_assignment
+GROUP BY assignment_id;
+
+CREATE INDEX suko_assignment_content_id_version_index ON suko_assignment_content (assignment_id, assignment_version);
+CREATE INDEX ld_assignment_content_id_version_index ON ld_assignment_content (assignment_id, assignment_version);
+CREATE INDEX puhvi_assignment_content_id_version_index ON puhvi_assignment_content (assignment_id, assignment_version);
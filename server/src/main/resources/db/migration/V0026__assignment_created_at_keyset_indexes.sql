@@ -0,0 +1,3 @@
+CREATE INDEX suko_assignment_created_at_id_index ON suko_assignment (assignment_created_at, assignment_id);
+CREATE INDEX ld_assignment_created_at_id_index ON ld_assignment (assignment_created_at, assignment_id);
+CREATE INDEX puhvi_assignment_created_at_id_index ON puhvi_assignment (assignment_created_at, assignment_id);
@@ -0,0 +1,19 @@
+-- B-tree-indeksit eivät palvele taulukoiden &&-päällekkäisyysehtoja, joten korvataan ne GIN-indekseillä
+DROP INDEX suko_assignment_laajaalainen_osaaminen_koodi_arvos_index;
+DROP INDEX suko_assignment_aihe_koodi_arvos_index;
+DROP INDEX ld_assignment_laajaalainen_osaaminen_koodi_arvos_index;
+DROP INDEX ld_assignment_lukuvuosi_koodi_arvos_index;
+DROP INDEX puhvi_assignment_laajaalainen_osaaminen_koodi_arvos_index;
+DROP INDEX puhvi_assignment_lukuvuosi_koodi_arvos_index;
+
+CREATE INDEX suko_assignment_laajaalainen_osaaminen_koodi_arvos_gin_index ON suko_assignment USING GIN (assignment_laajaalainen_osaaminen_koodi_arvos);
+CREATE INDEX suko_assignment_aihe_koodi_arvos_gin_index ON suko_assignment USING GIN (suko_assignment_aihe_koodi_arvos);
+
+CREATE INDEX ld_assignment_laajaalainen_osaaminen_koodi_arvos_gin_index ON ld_assignment USING GIN (assignment_laajaalainen_osaaminen_koodi_arvos);
+CREATE INDEX ld_assignment_lukuvuosi_koodi_arvos_gin_index ON ld_assignment USING GIN (ld_assignment_lukuvuosi_koodi_arvos);
+
+CREATE INDEX puhvi_assignment_laajaalainen_osaaminen_koodi_arvos_gin_index ON puhvi_assignment USING GIN (assignment_laajaalainen_osaaminen_koodi_arvos);
+CREATE INDEX puhvi_assignment_lukuvuosi_koodi_arvos_gin_index ON puhvi_assignment USING GIN (puhvi_assignment_lukuvuosi_koodi_arvos);
+
+-- Oppimäärä+kielitarjonta-parisuodatin vertaa ARRAY[...]-lauseketta, joten indeksoidaan sama lauseke
+CREATE INDEX suko_assignment_oppimaara_pair_index ON suko_assignment ((ARRAY [suko_assignment_oppimaara_koodi_arvo, suko_assignment_oppimaara_kielitarjonta_koodi_arvo]));
@@ -0,0 +1,317 @@
+-- Kokotekstihaku suomeksi ja ruotsiksi. Jokaisella versiorivillä on omat hakuvektorinsa, joihin nimi painotetaan
+-- eniten, sitten ohje tai kuvaus ja viimeisenä sisältö. Vektorit ovat omissa tauluissaan (<taulu>_search), jotta
+-- sisältötaulujen SELECT * -kyselyt (yksityiskohdat, versiot, listaukset) eivät hae ja siirrä suuria vektoreita,
+-- joita mikään ei käytä. Vektoritaulut periytyvät kuten assignment_latest_version, ja rivit poistuvat sisältörivin
+-- mukana. Ohjeiden ja todistusten vektorit lasketaan triggerillä, tehtävien vektorit päivitetään sovelluksessa
+-- sisältörivien lisäyksen jälkeen, koska sisältö on omissa tauluissaan.
+CREATE FUNCTION html_to_search_text(html text) RETURNS text
+    LANGUAGE sql
+    IMMUTABLE AS
+$$
+SELECT regexp_replace(coalesce(html, ''), '<[^>]*>', ' ', 'g')
+$$;
+
+CREATE FUNCTION search_vector(config regconfig, name text, description text, content text) RETURNS tsvector
+    LANGUAGE sql
+    IMMUTABLE AS
+$$
+SELECT setweight(to_tsvector(config, coalesce(name, '')), 'A') ||
+       setweight(to_tsvector(config, html_to_search_text(description)), 'B') ||
+       setweight(to_tsvector(config, html_to_search_text(content)), 'C')
+$$;
+
+CREATE TABLE assignment_search
+(
+    assignment_id        integer NOT NULL,
+    assignment_version   integer NOT NULL,
+    assignment_search_fi tsvector,
+    assignment_search_sv tsvector,
+    PRIMARY KEY (assignment_id, assignment_version)
+);
+
+CREATE TABLE suko_assignment_search
+(
+    PRIMARY KEY (assignment_id, assignment_version),
+    CONSTRAINT suko_assignment_fk FOREIGN KEY (assignment_id, assignment_version)
+        REFERENCES suko_assignment (assignment_id, assignment_version)
+        ON DELETE CASCADE
+) INHERITS (assignment_search);
+
+CREATE TABLE ld_assignment_search
+(
+    PRIMARY KEY (assignment_id, assignment_version),
+    CONSTRAINT ld_assignment_fk FOREIGN KEY (assignment_id, assignment_version)
+        REFERENCES ld_assignment (assignment_id, assignment_version)
+        ON DELETE CASCADE
+) INHERITS (assignment_search);
+
+CREATE TABLE puhvi_assignment_search
+(
+    PRIMARY KEY (assignment_id, assignment_version),
+    CONSTRAINT puhvi_assignment_fk FOREIGN KEY (assignment_id, assignment_version)
+        REFERENCES puhvi_assignment (assignment_id, assignment_version)
+        ON DELETE CASCADE
+) INHERITS (assignment_search);
+
+CREATE TABLE instruction_search
+(
+    instruction_id        integer NOT NULL,
+    instruction_version   integer NOT NULL,
+    instruction_search_fi tsvector,
+    instruction_search_sv tsvector,
+    PRIMARY KEY (instruction_id, instruction_version)
+);
+
+CREATE TABLE suko_instruction_search
+(
+    PRIMARY KEY (instruction_id, instruction_version),
+    CONSTRAINT suko_instruction_fk FOREIGN KEY (instruction_id, instruction_version)
+        REFERENCES suko_instruction (instruction_id, instruction_version)
+        ON DELETE CASCADE
+) INHERITS (instruction_search);
+
+CREATE TABLE ld_instruction_search
+(
+    PRIMARY KEY (instruction_id, instruction_version),
+    CONSTRAINT ld_instruction_fk FOREIGN KEY (instruction_id, instruction_version)
+        REFERENCES ld_instruction (instruction_id, instruction_version)
+        ON DELETE CASCADE
+) INHERITS (instruction_search);
+
+CREATE TABLE puhvi_instruction_search
+(
+    PRIMARY KEY (instruction_id, instruction_version),
+    CONSTRAINT puhvi_instruction_fk FOREIGN KEY (instruction_id, instruction_version)
+        REFERENCES puhvi_instruction (instruction_id, instruction_version)
+        ON DELETE CASCADE
+) INHERITS (instruction_search);
+
+CREATE TABLE certificate_search
+(
+    certificate_id        integer NOT NULL,
+    certificate_version   integer NOT NULL,
+    certificate_search_fi tsvector,
+    certificate_search_sv tsvector,
+    PRIMARY KEY (certificate_id, certificate_version)
+);
+
+CREATE TABLE suko_certificate_search
+(
+    PRIMARY KEY (certificate_id, certificate_version),
+    CONSTRAINT suko_certificate_fk FOREIGN KEY (certificate_id, certificate_version)
+        REFERENCES suko_certificate (certificate_id, certificate_version)
+        ON DELETE CASCADE
+) INHERITS (certificate_search);
+
+CREATE TABLE ld_certificate_search
+(
+    PRIMARY KEY (certificate_id, certificate_version),
+    CONSTRAINT ld_certificate_fk FOREIGN KEY (certificate_id, certificate_version)
+        REFERENCES ld_certificate (certificate_id, certificate_version)
+        ON DELETE CASCADE
+) INHERITS (certificate_search);
+
+CREATE TABLE puhvi_certificate_search
+(
+    PRIMARY KEY (certificate_id, certificate_version),
+    CONSTRAINT puhvi_certificate_fk FOREIGN KEY (certificate_id, certificate_version)
+        REFERENCES puhvi_certificate (certificate_id, certificate_version)
+        ON DELETE CASCADE
+) INHERITS (certificate_search);
+
+-- Tutkintokohtaiset kuvaussarakkeet luetaan jsonb:n kautta, jotta sama funktio käy kaikille perityille tauluille.
+-- Funktiot kirjoittavat sisältötaulun vektoritauluun (<taulu>_search).
+CREATE FUNCTION instruction_search_vectors() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    instruction_row jsonb := to_jsonb(NEW);
+BEGIN
+    EXECUTE format('INSERT INTO %I (instruction_id, instruction_version, instruction_search_fi, instruction_search_sv)
+                    VALUES ($1, $2, $3, $4)
+                    ON CONFLICT (instruction_id, instruction_version) DO UPDATE
+                        SET instruction_search_fi = EXCLUDED.instruction_search_fi,
+                            instruction_search_sv = EXCLUDED.instruction_search_sv', TG_TABLE_NAME || '_search')
+        USING NEW.instruction_id,
+            NEW.instruction_version,
+            search_vector('finnish', NEW.instruction_name_fi,
+                          instruction_row ->> 'puhvi_instruction_short_description_fi',
+                          NEW.instruction_content_fi),
+            search_vector('swedish', NEW.instruction_name_sv,
+                          instruction_row ->> 'puhvi_instruction_short_description_sv',
+                          NEW.instruction_content_sv);
+    RETURN NULL;
+END
+$$;
+
+CREATE FUNCTION certificate_search_vectors() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    certificate_row jsonb := to_jsonb(NEW);
+BEGIN
+    EXECUTE format('INSERT INTO %I (certificate_id, certificate_version, certificate_search_fi, certificate_search_sv)
+                    VALUES ($1, $2, $3, $4)
+                    ON CONFLICT (certificate_id, certificate_version) DO UPDATE
+                        SET certificate_search_fi = EXCLUDED.certificate_search_fi,
+                            certificate_search_sv = EXCLUDED.certificate_search_sv', TG_TABLE_NAME || '_search')
+        USING NEW.certificate_id,
+            NEW.certificate_version,
+            search_vector('finnish', NEW.certificate_name_fi,
+                          coalesce(certificate_row ->> 'suko_certificate_description_fi',
+                                   certificate_row ->> 'puhvi_certificate_description_fi'),
+                          NULL),
+            search_vector('swedish', NEW.certificate_name_sv,
+                          coalesce(certificate_row ->> 'suko_certificate_description_sv',
+                                   certificate_row ->> 'puhvi_certificate_description_sv'),
+                          NULL);
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER suko_instruction_search_vectors
+    AFTER INSERT OR UPDATE
+    ON suko_instruction
+    FOR EACH ROW
+EXECUTE FUNCTION instruction_search_vectors();
+CREATE TRIGGER ld_instruction_search_vectors
+    AFTER INSERT OR UPDATE
+    ON ld_instruction
+    FOR EACH ROW
+EXECUTE FUNCTION instruction_search_vectors();
+CREATE TRIGGER puhvi_instruction_search_vectors
+    AFTER INSERT OR UPDATE
+    ON puhvi_instruction
+    FOR EACH ROW
+EXECUTE FUNCTION instruction_search_vectors();
+
+CREATE TRIGGER suko_certificate_search_vectors
+    AFTER INSERT OR UPDATE
+    ON suko_certificate
+    FOR EACH ROW
+EXECUTE FUNCTION certificate_search_vectors();
+CREATE TRIGGER ld_certificate_search_vectors
+    AFTER INSERT OR UPDATE
+    ON ld_certificate
+    FOR EACH ROW
+EXECUTE FUNCTION certificate_search_vectors();
+CREATE TRIGGER puhvi_certificate_search_vectors
+    AFTER INSERT OR UPDATE
+    ON puhvi_certificate
+    FOR EACH ROW
+EXECUTE FUNCTION certificate_search_vectors();
+
+-- Olemassa olevien rivien vektorit lasketaan suoraan vektoritauluihin, jolloin sisältötauluja ei kirjoiteta uudelleen
+INSERT INTO suko_instruction_search (instruction_id, instruction_version, instruction_search_fi, instruction_search_sv)
+SELECT i.instruction_id,
+       i.instruction_version,
+       search_vector('finnish', i.instruction_name_fi, NULL, i.instruction_content_fi),
+       search_vector('swedish', i.instruction_name_sv, NULL, i.instruction_content_sv)
+FROM suko_instruction i;
+
+INSERT INTO ld_instruction_search (instruction_id, instruction_version, instruction_search_fi, instruction_search_sv)
+SELECT i.instruction_id,
+       i.instruction_version,
+       search_vector('finnish', i.instruction_name_fi, NULL, i.instruction_content_fi),
+       search_vector('swedish', i.instruction_name_sv, NULL, i.instruction_content_sv)
+FROM ld_instruction i;
+
+INSERT INTO puhvi_instruction_search (instruction_id, instruction_version, instruction_search_fi, instruction_search_sv)
+SELECT i.instruction_id,
+       i.instruction_version,
+       search_vector('finnish', i.instruction_name_fi, i.puhvi_instruction_short_description_fi, i.instruction_content_fi),
+       search_vector('swedish', i.instruction_name_sv, i.puhvi_instruction_short_description_sv, i.instruction_content_sv)
+FROM puhvi_instruction i;
+
+INSERT INTO suko_certificate_search (certificate_id, certificate_version, certificate_search_fi, certificate_search_sv)
+SELECT c.certificate_id,
+       c.certificate_version,
+       search_vector('finnish', c.certificate_name_fi, c.suko_certificate_description_fi, NULL),
+       search_vector('swedish', c.certificate_name_sv, c.suko_certificate_description_sv, NULL)
+FROM suko_certificate c;
+
+INSERT INTO ld_certificate_search (certificate_id, certificate_version, certificate_search_fi, certificate_search_sv)
+SELECT c.certificate_id,
+       c.certificate_version,
+       search_vector('finnish', c.certificate_name_fi, NULL, NULL),
+       search_vector('swedish', c.certificate_name_sv, NULL, NULL)
+FROM ld_certificate c;
+
+INSERT INTO puhvi_certificate_search (certificate_id, certificate_version, certificate_search_fi, certificate_search_sv)
+SELECT c.certificate_id,
+       c.certificate_version,
+       search_vector('finnish', c.certificate_name_fi, c.puhvi_certificate_description_fi, NULL),
+       search_vector('swedish', c.certificate_name_sv, c.puhvi_certificate_description_sv, NULL)
+FROM puhvi_certificate c;
+
+INSERT INTO suko_assignment_search (assignment_id, assignment_version, assignment_search_fi, assignment_search_sv)
+SELECT a.assignment_id,
+       a.assignment_version,
+       search_vector('finnish', a.assignment_name_fi, a.assignment_instruction_fi,
+                     (SELECT string_agg(c.assignment_content_content, ' ' ORDER BY c.assignment_content_order_index)
+                      FROM suko_assignment_content c
+                      WHERE c.assignment_id = a.assignment_id
+                        AND c.assignment_version = a.assignment_version
+                        AND c.assignment_content_language = 'FI')),
+       search_vector('swedish', a.assignment_name_sv, a.assignment_instruction_sv,
+                     (SELECT string_agg(c.assignment_content_content, ' ' ORDER BY c.assignment_content_order_index)
+                      FROM suko_assignment_content c
+                      WHERE c.assignment_id = a.assignment_id
+                        AND c.assignment_version = a.assignment_version
+                        AND c.assignment_content_language = 'SV'))
+FROM suko_assignment a;
+
+INSERT INTO ld_assignment_search (assignment_id, assignment_version, assignment_search_fi, assignment_search_sv)
+SELECT a.assignment_id,
+       a.assignment_version,
+       search_vector('finnish', a.assignment_name_fi, a.assignment_instruction_fi,
+                     (SELECT string_agg(c.assignment_content_content, ' ' ORDER BY c.assignment_content_order_index)
+                      FROM ld_assignment_content c
+                      WHERE c.assignment_id = a.assignment_id
+                        AND c.assignment_version = a.assignment_version
+                        AND c.assignment_content_language = 'FI')),
+       search_vector('swedish', a.assignment_name_sv, a.assignment_instruction_sv,
+                     (SELECT string_agg(c.assignment_content_content, ' ' ORDER BY c.assignment_content_order_index)
+                      FROM ld_assignment_content c
+                      WHERE c.assignment_id = a.assignment_id
+                        AND c.assignment_version = a.assignment_version
+                        AND c.assignment_content_language = 'SV'))
+FROM ld_assignment a;
+
+INSERT INTO puhvi_assignment_search (assignment_id, assignment_version, assignment_search_fi, assignment_search_sv)
+SELECT a.assignment_id,
+       a.assignment_version,
+       search_vector('finnish', a.assignment_name_fi, a.assignment_instruction_fi,
+                     (SELECT string_agg(c.assignment_content_content, ' ' ORDER BY c.assignment_content_order_index)
+                      FROM puhvi_assignment_content c
+                      WHERE c.assignment_id = a.assignment_id
+                        AND c.assignment_version = a.assignment_version
+                        AND c.assignment_content_language = 'FI')),
+       search_vector('swedish', a.assignment_name_sv, a.assignment_instruction_sv,
+                     (SELECT string_agg(c.assignment_content_content, ' ' ORDER BY c.assignment_content_order_index)
+                      FROM puhvi_assignment_content c
+                      WHERE c.assignment_id = a.assignment_id
+                        AND c.assignment_version = a.assignment_version
+                        AND c.assignment_content_language = 'SV'))
+FROM puhvi_assignment a;
+
+CREATE INDEX suko_assignment_search_fi_index ON suko_assignment_search USING GIN (assignment_search_fi);
+CREATE INDEX suko_assignment_search_sv_index ON suko_assignment_search USING GIN (assignment_search_sv);
+CREATE INDEX ld_assignment_search_fi_index ON ld_assignment_search USING GIN (assignment_search_fi);
+CREATE INDEX ld_assignment_search_sv_index ON ld_assignment_search USING GIN (assignment_search_sv);
+CREATE INDEX puhvi_assignment_search_fi_index ON puhvi_assignment_search USING GIN (assignment_search_fi);
+CREATE INDEX puhvi_assignment_search_sv_index ON puhvi_assignment_search USING GIN (assignment_search_sv);
+
+CREATE INDEX suko_instruction_search_fi_index ON suko_instruction_search USING GIN (instruction_search_fi);
+CREATE INDEX suko_instruction_search_sv_index ON suko_instruction_search USING GIN (instruction_search_sv);
+CREATE INDEX ld_instruction_search_fi_index ON ld_instruction_search USING GIN (instruction_search_fi);
+CREATE INDEX ld_instruction_search_sv_index ON ld_instruction_search USING GIN (instruction_search_sv);
+CREATE INDEX puhvi_instruction_search_fi_index ON puhvi_instruction_search USING GIN (instruction_search_fi);
+CREATE INDEX puhvi_instruction_search_sv_index ON puhvi_instruction_search USING GIN (instruction_search_sv);
+
+CREATE INDEX suko_certificate_search_fi_index ON suko_certificate_search USING GIN (certificate_search_fi);
+CREATE INDEX suko_certificate_search_sv_index ON suko_certificate_search USING GIN (certificate_search_sv);
+CREATE INDEX ld_certificate_search_fi_index ON ld_certificate_search USING GIN (certificate_search_fi);
+CREATE INDEX ld_certificate_search_sv_index ON ld_certificate_search USING GIN (certificate_search_sv);
+CREATE INDEX puhvi_certificate_search_fi_index ON puhvi_certificate_search USING GIN (certificate_search_fi);
+CREATE INDEX puhvi_certificate_search_sv_index ON puhvi_certificate_search USING GIN (certificate_search_sv);
\ No newline at end of file
@@ -0,0 +1,23 @@
+-- Nimien trigrammi-indeksit hakuehdotuksille (ILIKE '%hakusana%')
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX suko_assignment_name_fi_trgm_index ON suko_assignment USING GIN (assignment_name_fi gin_trgm_ops);
+CREATE INDEX suko_assignment_name_sv_trgm_index ON suko_assignment USING GIN (assignment_name_sv gin_trgm_ops);
+CREATE INDEX ld_assignment_name_fi_trgm_index ON ld_assignment USING GIN (assignment_name_fi gin_trgm_ops);
+CREATE INDEX ld_assignment_name_sv_trgm_index ON ld_assignment USING GIN (assignment_name_sv gin_trgm_ops);
+CREATE INDEX puhvi_assignment_name_fi_trgm_index ON puhvi_assignment USING GIN (assignment_name_fi gin_trgm_ops);
+CREATE INDEX puhvi_assignment_name_sv_trgm_index ON puhvi_assignment USING GIN (assignment_name_sv gin_trgm_ops);
+
+CREATE INDEX suko_instruction_name_fi_trgm_index ON suko_instruction USING GIN (instruction_name_fi gin_trgm_ops);
+CREATE INDEX suko_instruction_name_sv_trgm_index ON suko_instruction USING GIN (instruction_name_sv gin_trgm_ops);
+CREATE INDEX ld_instruction_name_fi_trgm_index ON ld_instruction USING GIN (instruction_name_fi gin_trgm_ops);
+CREATE INDEX ld_instruction_name_sv_trgm_index ON ld_instruction USING GIN (instruction_name_sv gin_trgm_ops);
+CREATE INDEX puhvi_instruction_name_fi_trgm_index ON puhvi_instruction USING GIN (instruction_name_fi gin_trgm_ops);
+CREATE INDEX puhvi_instruction_name_sv_trgm_index ON puhvi_instruction USING GIN (instruction_name_sv gin_trgm_ops);
+
+CREATE INDEX suko_certificate_name_fi_trgm_index ON suko_certificate USING GIN (certificate_name_fi gin_trgm_ops);
+CREATE INDEX suko_certificate_name_sv_trgm_index ON suko_certificate USING GIN (certificate_name_sv gin_trgm_ops);
+CREATE INDEX ld_certificate_name_fi_trgm_index ON ld_certificate USING GIN (certificate_name_fi gin_trgm_ops);
+CREATE INDEX ld_certificate_name_sv_trgm_index ON ld_certificate USING GIN (certificate_name_sv gin_trgm_ops);
+CREATE INDEX puhvi_certificate_name_fi_trgm_index ON puhvi_certificate USING GIN (certificate_name_fi gin_trgm_ops);
+CREATE INDEX puhvi_certificate_name_sv_trgm_index ON puhvi_certificate USING GIN (certificate_name_sv gin_trgm_ops);
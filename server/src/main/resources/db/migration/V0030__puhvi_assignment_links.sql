@@ -0,0 +1,6 @@
+-- Sisällön linkit tallennetaan versioriville kirjoitettaessa. Olemassa olevien rivien linkit täytetään
+-- V0031-migraatiossa (db.migration.V0031__Backfill_puhvi_assignment_links), koska poiminta tehdään samalla
+-- HTML-jäsentimellä kuin sovelluksessa.
+ALTER TABLE puhvi_assignment
+    ADD COLUMN puhvi_assignment_links_fi text[] NOT NULL DEFAULT '{}',
+    ADD COLUMN puhvi_assignment_links_sv text[] NOT NULL DEFAULT '{}';
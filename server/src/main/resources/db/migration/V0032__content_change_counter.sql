@@ -0,0 +1,19 @@
+-- Sisältötyyppikohtaiset muutoslaskurit, joista johdetaan rajapintavastausten ETagit ilman sisältökyselyitä
+CREATE TABLE content_change_counter
+(
+    counter_name  text PRIMARY KEY,
+    counter_value bigint NOT NULL DEFAULT 0
+);
+
+INSERT INTO content_change_counter (counter_name)
+VALUES ('ASSIGNMENT'),
+       ('INSTRUCTION'),
+       ('CERTIFICATE');
+
+-- Suosikkien muutoslaskuri on käyttäjäkohtainen, jotta eri käyttäjien suosikkimuutokset eivät odota samaa
+-- rivilukkoa eivätkä vanhenna toistensa ETageja
+CREATE TABLE assignment_favorite_change_counter
+(
+    user_oid      text PRIMARY KEY,
+    counter_value bigint NOT NULL DEFAULT 0
+);
@@ -0,0 +1,5 @@
+-- Todistuslistauksen järjestys ja LD-todistusten ainesuodatus
+CREATE INDEX suko_certificate_updated_at_index ON suko_certificate (certificate_updated_at, certificate_id);
+CREATE INDEX ld_certificate_updated_at_index ON ld_certificate (certificate_updated_at, certificate_id);
+CREATE INDEX puhvi_certificate_updated_at_index ON puhvi_certificate (certificate_updated_at, certificate_id);
+CREATE INDEX ld_certificate_aine_koodi_arvo_index ON ld_certificate (ld_certificate_aine_koodi_arvo);
@@ -0,0 +1,5 @@
+-- Ohjelistauksen järjestys ja LD-ohjeiden ainesuodatus
+CREATE INDEX suko_instruction_updated_at_index ON suko_instruction (instruction_updated_at, instruction_id);
+CREATE INDEX ld_instruction_updated_at_index ON ld_instruction (instruction_updated_at, instruction_id);
+CREATE INDEX puhvi_instruction_updated_at_index ON puhvi_instruction (instruction_updated_at, instruction_id);
+CREATE INDEX ld_instruction_aine_koodi_arvo_index ON ld_instruction (ld_instruction_aine_koodi_arvo);
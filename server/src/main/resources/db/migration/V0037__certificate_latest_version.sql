@@ -0,0 +1,48 @@
+-- Todistusten uusimman version osoitintaulut kuten tehtävillä (V0025). Listaus käy (updated_at, id)-indeksiä
+-- järjestyksessä ja tarkistaa uusimman version osoitintaulun pääavaimella, jolloin sivu luetaan indeksistä
+-- eikä kaikkien todistusten uusimpia versioita tarvitse ensin laskea ja järjestää.
+CREATE TABLE certificate_latest_version
+(
+    certificate_id      integer NOT NULL,
+    certificate_version integer NOT NULL,
+    PRIMARY KEY (certificate_id)
+);
+
+CREATE TABLE suko_certificate_latest_version
+(
+    PRIMARY KEY (certificate_id),
+    CONSTRAINT suko_certificate_fk FOREIGN KEY (certificate_id, certificate_version)
+        REFERENCES suko_certificate (certificate_id, certificate_version)
+        ON DELETE CASCADE
+) INHERITS (certificate_latest_version);
+
+CREATE TABLE ld_certificate_latest_version
+(
+    PRIMARY KEY (certificate_id),
+    CONSTRAINT ld_certificate_fk FOREIGN KEY (certificate_id, certificate_version)
+        REFERENCES ld_certificate (certificate_id, certificate_version)
+        ON DELETE CASCADE
+) INHERITS (certificate_latest_version);
+
+CREATE TABLE puhvi_certificate_latest_version
+(
+    PRIMARY KEY (certificate_id),
+    CONSTRAINT puhvi_certificate_fk FOREIGN KEY (certificate_id, certificate_version)
+        REFERENCES puhvi_certificate (certificate_id, certificate_version)
+        ON DELETE CASCADE
+) INHERITS (certificate_latest_version);
+
+INSERT INTO suko_certificate_latest_version (certificate_id, certificate_version)
+SELECT certificate_id, MAX(certificate_version)
+FROM suko_certificate
+GROUP BY certificate_id;
+
+INSERT INTO ld_certificate_latest_version (certificate_id, certificate_version)
+SELECT certificate_id, MAX(certificate_version)
+FROM ld_certificate
+GROUP BY certificate_id;
+
+INSERT INTO puhvi_certificate_latest_version (certificate_id, certificate_version)
+SELECT certificate_id, MAX(certificate_version)
+FROM puhvi_certificate
+GROUP BY certificate_id;
@@ -0,0 +1,48 @@
+-- Ohjeiden uusimman version osoitintaulut kuten tehtävillä (V0025) ja todistuksilla (V0037). Listaus käy
+-- (updated_at, id)-indeksiä järjestyksessä ja tarkistaa uusimman version osoitintaulun pääavaimella, jolloin sivu
+-- luetaan indeksistä eikä kaikkien ohjeiden uusimpia versioita tarvitse ensin laskea ja järjestää.
+CREATE TABLE instruction_latest_version
+(
+    instruction_id      integer NOT NULL,
+    instruction_version integer NOT NULL,
+    PRIMARY KEY (instruction_id)
+);
+
+CREATE TABLE suko_instruction_latest_version
+(
+    PRIMARY KEY (instruction_id),
+    CONSTRAINT suko_instruction_fk FOREIGN KEY (instruction_id, instruction_version)
+        REFERENCES suko_instruction (instruction_id, instruction_version)
+        ON DELETE CASCADE
+) INHERITS (instruction_latest_version);
+
+CREATE TABLE ld_instruction_latest_version
+(
+    PRIMARY KEY (instruction_id),
+    CONSTRAINT ld_instruction_fk FOREIGN KEY (instruction_id, instruction_version)
+        REFERENCES ld_instruction (instruction_id, instruction_version)
+        ON DELETE CASCADE
+) INHERITS (instruction_latest_version);
+
+CREATE TABLE puhvi_instruction_latest_version
+(
+    PRIMARY KEY (instruction_id),
+    CONSTRAINT puhvi_instruction_fk FOREIGN KEY (instruction_id, instruction_version)
+        REFERENCES puhvi_instruction (instruction_id, instruction_version)
+        ON DELETE CASCADE
+) INHERITS (instruction_latest_version);
+
+INSERT INTO suko_instruction_latest_version (instruction_id, instruction_version)
+SELECT instruction_id, MAX(instruction_version)
+FROM suko_instruction
+GROUP BY instruction_id;
+
+INSERT INTO ld_instruction_latest_version (instruction_id, instruction_version)
+SELECT instruction_id, MAX(instruction_version)
+FROM ld_instruction
+GROUP BY instruction_id;
+
+INSERT INTO puhvi_instruction_latest_version (instruction_id, instruction_version)
+SELECT instruction_id, MAX(instruction_version)
+FROM puhvi_instruction
+GROUP BY instruction_id;
@@ -0,0 +1,52 @@
+package fi.oph.ludos
+
+import org.jsoup.Jsoup
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+
+// Suorituskykyvertailu, jota ei ajeta yksikkötestien mukana: ./gradlew perfTest
+@Tag("perf")
+class HtmlSafetyValidatorPerfTest {
+    private fun largeContent(paragraphs: Int) =
+        (1..paragraphs).joinToString("") { "<p class=\"tiptap-paragraph\">Kappale $it <a href=\"https://oph.fi/$it\">linkki</a></p>" }
+
+    // Mediaani lämmittelykierrosten jälkeen, jotta JIT ja roskienkeruu eivät vääristä yksittäisiä mittauksia
+    private fun medianMillis(rounds: Int, validate: () -> Boolean): Double {
+        repeat(5) { assertTrue(validate()) }
+        val millis = (1..rounds).map {
+            val start = System.nanoTime()
+            assertTrue(validate())
+            (System.nanoTime() - start) / 1_000_000.0
+        }
+        return millis.sorted()[rounds / 2]
+    }
+
+    private fun report(name: String, baselineName: String, baselineMillis: Double, millis: Double) =
+        println("$name ${"%.1f".format(millis)} ms, $baselineName ${"%.1f".format(baselineMillis)} ms")
+
+    @Test
+    fun `streaming validation of 1 MB content is not slower than Jsoup isValid`() {
+        val content = largeContent(12_000)
+
+        val jsoupMillis = medianMillis(21) { Jsoup.isValid(content, htmlSafelist) }
+        val streamingMillis = medianMillis(21) { isSafeHtml(content, htmlSafetyRules) }
+        report("isSafeHtml", "Jsoup.isValid", jsoupMillis, streamingMillis)
+
+        assertTrue(streamingMillis <= jsoupMillis, "isSafeHtml $streamingMillis ms, Jsoup.isValid $jsoupMillis ms")
+    }
+
+    @Test
+    fun `large lists are validated faster in parallel`() {
+        assumeTrue(Runtime.getRuntime().availableProcessors() > 1)
+        val content = List(100) { largeContent(1_200) }
+        assertTrue(content.sumOf { it.length } >= PARALLEL_HTML_VALIDATION_THRESHOLD)
+
+        val serialMillis = medianMillis(11) { content.all { isSafeHtml(it, htmlSafetyRules) } }
+        val parallelMillis = medianMillis(11) { isSafeHtmlList(content, htmlSafetyRules) }
+        report("isSafeHtmlList", "serial", serialMillis, parallelMillis)
+
+        assertTrue(parallelMillis < serialMillis, "parallel $parallelMillis ms, serial $serialMillis ms")
+    }
+}
@@ -0,0 +1,92 @@
+package fi.oph.ludos
+
+import org.jsoup.Jsoup
+import org.jsoup.safety.Safelist
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.DynamicTest
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestFactory
+
+// isSafeHtml:n on annettava sama tulos kuin Jsoup.isValid:n, jota validaattorit käyttivät aiemmin
+class HtmlSafetyValidatorTest {
+    private val samples = listOf(
+        "",
+        "plain text",
+        "text with & ampersand and < less than",
+        "text with &amp; entity",
+        "<p>paragraph</p>",
+        "<p>unclosed paragraph",
+        "<b>unclosed bold",
+        "<p><b>misnested</p></b>",
+        "<p>one</p><p>two</p>",
+        "</p>",
+        "<br>",
+        "<br/>",
+        "<div/>",
+        "<p class=\"tiptap-paragraph\">class</p>",
+        "<p style=\"color: red\">style</p>",
+        "<p onclick=\"alert(1)\">handler</p>",
+        "<script>alert(1)</script>",
+        "<style>p { color: red }</style>",
+        "<p>before<script>alert(1)</script>after</p>",
+        "<!-- comment -->",
+        "<p><!-- comment --></p>",
+        "<!DOCTYPE html><p>doctype</p>",
+        "<html><body><p>document</p></body></html>",
+        "<iframe src=\"https://example.com\"></iframe>",
+        "<a href=\"https://oph.fi\">link</a>",
+        "<a target=\"_blank\" rel=\"noopener noreferrer nofollow\" class=\"tiptap-link\" href=\"https://oph.fi\">link</a>",
+        "<a href=\"/relative\">relative</a>",
+        "<a href=\"javascript:alert(1)\">js</a>",
+        "<a href=\"mailto:ludos@oph.fi\">mail</a>",
+        "<img src=\"https://example.com/image.png\">",
+        "<img src=\"/api/image/1\" alt=\"kuva\">",
+        "<img src=x onerror=alert(1)>",
+        "<table><tr><td>cell</td></tr></table>",
+        "<table><td>cell without tr</td></table>",
+        "<table>text in table<tr><td>cell</td></tr></table>",
+        "<ul><li>one<li>two</ul>",
+        "<ol class=\"tiptap-numbered-list\"><li><p>1</p></li><li><p>2</p></li></ol>",
+        "<h1 class=\"tiptap-text-h1\">heading</h1>",
+        "<blockquote class=\"tiptap-blockquote\"><p>quote</p></blockquote>",
+        "<pre><code>code &lt;b&gt;</code></pre>",
+        "<p>nested <span><em><strong>inline</strong></em></span></p>",
+        "<svg><circle r=\"1\"/></svg>",
+        "<math><mi>x</mi></math>",
+        "<p>unterminated <a href=\"https://oph.fi\"",
+        "<p attr=\"unterminated>text</p>",
+        "<noscript><p>noscript</p></noscript>",
+        "<textarea><p>raw</p></textarea>",
+        "<![CDATA[cdata]]>",
+        "<?xml version=\"1.0\"?><p>xml</p>",
+        "<p>${"<b>deep</b>".repeat(50)}</p>",
+        "${"<div>".repeat(100)}deep${"</div>".repeat(100)}",
+    )
+
+    @TestFactory
+    fun `matches Jsoup isValid with content safelist`(): List<DynamicTest> = samples.map { html ->
+        DynamicTest.dynamicTest(html.take(80)) {
+            assertEquals(Jsoup.isValid(html, htmlSafelist), isSafeHtml(html, htmlSafetyRules), html)
+        }
+    }
+
+    @TestFactory
+    fun `matches Jsoup isValid with plain text safelist`(): List<DynamicTest> = samples.map { html ->
+        DynamicTest.dynamicTest(html.take(80)) {
+            assertEquals(Jsoup.isValid(html, Safelist.none()), isSafeHtml(html, plainTextRules), html)
+        }
+    }
+
+    private fun largeContent(paragraphs: Int) =
+        (1..paragraphs).joinToString("") { "<p class=\"tiptap-paragraph\">Kappale $it <a href=\"https://oph.fi/$it\">linkki</a></p>" }
+
+    @Test
+    fun `large lists are validated in parallel with the same result`() {
+        val content = List(20) { largeContent(500) }
+        assertTrue(content.sumOf { it.length } >= PARALLEL_HTML_VALIDATION_THRESHOLD)
+        assertTrue(isSafeHtmlList(content, htmlSafetyRules))
+        assertFalse(isSafeHtmlList(content + "<script>alert(1)</script>", htmlSafetyRules))
+    }
+}
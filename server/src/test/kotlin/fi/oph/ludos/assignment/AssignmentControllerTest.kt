@@ -137,6 +137,20 @@ class AssignmentControllerTest : AssignmentRequests() {
         assertTimeIsRoughlyBetween(timeBeforeUpdate, updatedAssignmentById.updatedAt, timeAfterUpdate, "updatedAt")
     }
 
+    @Test
+    @WithYllapitajaRole
+    fun `content items are stored in order when there are many of them`() {
+        val assignmentIn = minimalLdAssignmentIn.copy(
+            contentFi = (1..100).map { "<p>Sisältö $it</p>" },
+            contentSv = (1..100).map { "<p>Innehåll $it</p>" },
+        )
+        val created = createAssignment<LdAssignmentDtoOut>(assignmentIn)
+
+        val stored = getAssignmentById<LdAssignmentDtoOut>(created.id)
+        assertEquals(assignmentIn.contentFi, stored.contentFi)
+        assertEquals(assignmentIn.contentSv, stored.contentSv)
+    }
+
     @Test
     @WithYllapitajaRole
     fun ldAssignmentTest() {
@@ -341,6 +355,17 @@ class AssignmentControllerTest : AssignmentRequests() {
                             assertCommonFieldsBetweenInAndOutEqual(assignments[index - 1], assignment)
                         }
                     }
+
+                    val history = getAssignmentVersionHistory(exam, createdAssignment.id)
+                    assertEquals(assignmentVersions.map { it.version }, history.map { it.version })
+                    history.zip(assignmentVersions).forEach { (historyItem, assignment) ->
+                        assertEquals(assignment.id, historyItem.id)
+                        assertEquals(exam, historyItem.exam)
+                        assertEquals(ContentType.ASSIGNMENT, historyItem.contentType)
+                        assertEquals(assignment.publishState, historyItem.publishState)
+                        assertEquals(assignment.updatedAt, historyItem.updatedAt)
+                        assertEquals(expectedUpdaterName, historyItem.updaterName)
+                    }
                 }
             }
         }
@@ -623,6 +648,27 @@ class AssignmentControllerTest : AssignmentRequests() {
         createAssignment<SukoAssignmentDtoOut>(minimalSukoAssignmentIn.copy(contentFi = listOf(validContentFi)))
     }
 
+    @Test
+    @WithYllapitajaRole
+    fun `puhvi links are stored per version`() {
+        fun link(href: String) = """<p><a class="tiptap-link" href="$href">linkki</a></p>"""
+        val created = createAssignment<PuhviAssignmentDtoOut>(
+            minimalPuhviAssignmentIn.copy(
+                contentFi = listOf(link("https://oph.fi"), link("https://oph.fi") + link("https://opintopolku.fi")),
+                contentSv = listOf(link("https://oph.fi/sv"))
+            )
+        )
+        assertEquals(listOf("https://oph.fi", "https://opintopolku.fi"), created.linksFi)
+        assertEquals(listOf("https://oph.fi/sv"), created.linksSv)
+        assertEquals(created.linksFi, getAssignmentById<PuhviAssignmentDtoOut>(created.id).linksFi)
+
+        createNewVersionOfAssignment(created.id, minimalPuhviAssignmentIn.copy(contentFi = listOf(link("https://ludos.fi"))))
+        val latest = getAssignmentById<PuhviAssignmentDtoOut>(created.id)
+        assertEquals(listOf("https://ludos.fi"), latest.linksFi)
+        assertEquals(emptyList<String>(), latest.linksSv)
+        assertEquals(created.linksSv, getAssignmentById<PuhviAssignmentDtoOut>(created.id, 1).linksSv)
+    }
+
     @TestFactory
     @WithYllapitajaRole
     fun `restoring current version yields 400`() =
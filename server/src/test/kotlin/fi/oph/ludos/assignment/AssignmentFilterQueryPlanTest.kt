@@ -0,0 +1,77 @@
+package fi.oph.ludos.assignment
+
+import fi.oph.ludos.WithYllapitajaRole
+import fi.oph.ludos.cache.CacheName
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito.clearInvocations
+import org.mockito.Mockito.mockingDetails
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.cache.CacheManager
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.jdbc.core.namedparam.SqlParameterSource
+import org.springframework.test.context.TestPropertySource
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean
+import org.springframework.transaction.support.TransactionTemplate
+
+// Varmistaa, että listauskyselyn suodatinehdot ovat indeksikelpoisia. Listauksen tekemä kysely otetaan talteen ja
+// sille ajetaan EXPLAIN seq scan estettynä, jolloin suunnittelija valitsee indeksin aina kun ehto sen sallii,
+// eikä testi riipu tietokannan rivimäärästä.
+@TestPropertySource(locations = ["classpath:application.properties"])
+@SpringBootTest
+class AssignmentFilterQueryPlanTest(
+    @param:Autowired val assignmentRepository: AssignmentRepository,
+    @param:Autowired val transactionTemplate: TransactionTemplate,
+    @param:Autowired val cacheManager: CacheManager,
+) {
+    @MockitoSpyBean
+    lateinit var namedJdbcTemplate: NamedParameterJdbcTemplate
+
+    @BeforeEach
+    fun clearListMetadataCache() {
+        cacheManager.getCache(CacheName.ASSIGNMENT_LIST_METADATA.key)!!.clear()
+    }
+
+    private fun explainListQuery(filters: AssignmentBaseFilters): String {
+        clearInvocations(namedJdbcTemplate)
+        assignmentRepository.getAssignments(filters)
+        val listQuery = mockingDetails(namedJdbcTemplate).invocations.last { it.method.name == "query" }
+        val sql = listQuery.getArgument<String>(0)
+        val parameters = listQuery.getArgument<SqlParameterSource>(1)
+
+        return transactionTemplate.execute { _ ->
+            namedJdbcTemplate.jdbcTemplate.execute("SET LOCAL enable_seqscan = off")
+            namedJdbcTemplate.queryForList("EXPLAIN $sql", parameters, String::class.java).joinToString("\n")
+        }!!
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `suko aihe filter uses gin index`() {
+        val plan = explainListQuery(SukoFilters(null, null, null, "001,007", null))
+        assertThat(plan).contains("suko_assignment_aihe_koodi_arvos_gin_index")
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `suko oppimaara filter uses oppimaara pair index`() {
+        val plan = explainListQuery(SukoFilters(null, "TKRUAI", null, null, null))
+        assertThat(plan).contains("suko_assignment_oppimaara_pair_index")
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `ld lukuvuosi filter uses gin index`() {
+        val plan = explainListQuery(LdFilters(null, "20202021", null))
+        assertThat(plan).contains("ld_assignment_lukuvuosi_koodi_arvos_gin_index")
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `puhvi lukuvuosi filter uses gin index`() {
+        val plan = explainListQuery(PuhviFilters(null, null, "20202021"))
+        assertThat(plan).contains("puhvi_assignment_lukuvuosi_koodi_arvos_gin_index")
+    }
+}
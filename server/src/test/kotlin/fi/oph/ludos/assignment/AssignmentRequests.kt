@@ -3,6 +3,7 @@ package fi.oph.ludos.assignment
 import tools.jackson.module.kotlin.jacksonObjectMapper
 import tools.jackson.module.kotlin.readValue
 import fi.oph.ludos.Constants
+import fi.oph.ludos.ContentVersionDtoOut
 import fi.oph.ludos.Exam
 import fi.oph.ludos.TestPublishState
 import fi.oph.ludos.yllapitajaUser
@@ -205,6 +206,14 @@ abstract class AssignmentRequests {
         return mapper.readValue<List<T>>(responseContent)
     }
 
+    fun getAssignmentVersionHistory(exam: Exam, id: Int): List<ContentVersionDtoOut> {
+        val responseContent = mockMvc.perform(
+            MockMvcRequestBuilders.get("${Constants.API_PREFIX}/assignment/$exam/$id/history")
+                .contentType(MediaType.APPLICATION_JSON)
+        ).andExpect(status().isOk()).andReturn().response.contentAsString
+        return mapper.readValue<List<ContentVersionDtoOut>>(responseContent)
+    }
+
     fun getAllAssignmentVersionsByExam(exam: Exam, id: Int) = when (exam) {
         Exam.SUKO -> getAllAssignmentVersions<SukoAssignmentDtoOut>(id)
         Exam.LD -> getAllAssignmentVersions<LdAssignmentDtoOut>(id)
@@ -221,6 +230,7 @@ abstract class AssignmentRequests {
         filter.aihe?.let { uriBuilder.queryParam("aihe", it) }
         filter.tavoitetaitotaso?.let { uriBuilder.queryParam("tavoitetaitotaso", it) }
         filter.sivu.let { uriBuilder.queryParam("sivu", it) }
+        filter.kursori?.let { uriBuilder.queryParam("kursori", it) }
 
         return MockMvcRequestBuilders.get(uriBuilder.toUriString()).contentType(MediaType.APPLICATION_JSON)
     }
@@ -238,6 +248,7 @@ abstract class AssignmentRequests {
         filter.tehtavatyyppipuhvi?.let { uriBuilder.queryParam("tehtavatyyppipuhvi", it) }
         filter.lukuvuosi?.let { uriBuilder.queryParam("lukuvuosi", it) }
         filter.sivu.let { uriBuilder.queryParam("sivu", it) }
+        filter.kursori?.let { uriBuilder.queryParam("kursori", it) }
 
         return MockMvcRequestBuilders.get(uriBuilder.toUriString()).contentType(MediaType.APPLICATION_JSON)
     }
@@ -257,6 +268,7 @@ abstract class AssignmentRequests {
         filter.aine?.let { uriBuilder.queryParam("aine", it) }
         filter.lukuvuosi?.let { uriBuilder.queryParam("lukuvuosi", it) }
         filter.sivu.let { uriBuilder.queryParam("sivu", it) }
+        filter.kursori?.let { uriBuilder.queryParam("kursori", it) }
 
         return MockMvcRequestBuilders.get(uriBuilder.toUriString()).contentType(MediaType.APPLICATION_JSON)
     }
@@ -12,6 +12,9 @@ import org.junit.jupiter.api.TestInstance
 import org.springframework.boot.test.context.SpringBootTest
 import org.springframework.test.context.TestPropertySource
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
+import java.sql.Timestamp
+import java.time.Instant
+import java.time.temporal.ChronoUnit
 
 @TestPropertySource(locations = ["classpath:application.properties"])
 @SpringBootTest
@@ -92,6 +95,98 @@ class GetAssignmentsTest : AssignmentRequests() {
             )
         )
 
+    private fun assignmentNumbers(assignmentsOut: TestAssignmentsOut<SukoAssignmentCardDtoOut>) =
+        assignmentsOut.content.map { Regex("\\d+").find(it.nameFi)!!.value.toInt() }
+
+    @Test
+    @WithYllapitajaRole
+    fun `cursor paging with ASSIGNMENT_PAGE_SIZE x 2 + 1 suko assignments`() {
+        emptyAndSeedNSukoAssignments(ASSIGNMENT_PAGE_SIZE * 2 + 1)
+        val filters = SukoFilters(null, null, null, null, null)
+
+        val firstPage = getSukoAssignments(filters)
+        assertThat(assignmentNumbers(firstPage)).isEqualTo(41.downTo(22).toList())
+        assertThat(firstPage.prevCursor).isNull()
+
+        val secondPage = getSukoAssignments(filters.copy(kursori = firstPage.nextCursor!!))
+        assertThat(assignmentNumbers(secondPage)).isEqualTo(21.downTo(2).toList())
+
+        val lastPage = getSukoAssignments(filters.copy(kursori = secondPage.nextCursor!!))
+        assertThat(assignmentNumbers(lastPage)).isEqualTo(listOf(1))
+        assertThat(lastPage.nextCursor).isNull()
+        assertEquals(3, firstPage.totalPages)
+        assertThat(lastPage.totalPages).isNull()
+        assertThat(lastPage.currentPage).isNull()
+
+        val backToSecondPage = getSukoAssignments(filters.copy(kursori = lastPage.prevCursor!!))
+        assertThat(assignmentNumbers(backToSecondPage)).isEqualTo(21.downTo(2).toList())
+
+        val backToFirstPage = getSukoAssignments(filters.copy(kursori = backToSecondPage.prevCursor!!))
+        assertThat(assignmentNumbers(backToFirstPage)).isEqualTo(41.downTo(22).toList())
+        assertThat(backToFirstPage.prevCursor).isNull()
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `cursor paging in ascending order`() {
+        emptyAndSeedNSukoAssignments(ASSIGNMENT_PAGE_SIZE + 1)
+        val filters = SukoFilters("asc", null, null, null, null)
+
+        val firstPage = getSukoAssignments(filters)
+        assertThat(assignmentNumbers(firstPage)).isEqualTo((1..20).toList())
+
+        val secondPage = getSukoAssignments(filters.copy(kursori = firstPage.nextCursor!!))
+        assertThat(assignmentNumbers(secondPage)).isEqualTo(listOf(21))
+        assertThat(secondPage.nextCursor).isNull()
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `cursor page links only to rows that still exist`() {
+        emptyAndSeedNSukoAssignments(ASSIGNMENT_PAGE_SIZE + 1)
+        val filters = SukoFilters(null, null, null, null, null)
+        val afterAll = Timestamp.from(Instant.now().plus(1, ChronoUnit.DAYS))
+        val beforeAll = Timestamp.from(Instant.EPOCH)
+
+        val fromStart = getSukoAssignments(
+            filters.copy(kursori = AssignmentListCursor(afterAll, 0, AssignmentListCursorDirection.NEXT).encode())
+        )
+        assertThat(assignmentNumbers(fromStart)).isEqualTo(21.downTo(2).toList())
+        assertThat(fromStart.prevCursor).isNull()
+        assertThat(fromStart.nextCursor).isNotNull()
+
+        val fromEnd = getSukoAssignments(
+            filters.copy(kursori = AssignmentListCursor(beforeAll, 0, AssignmentListCursorDirection.PREV).encode())
+        )
+        assertThat(assignmentNumbers(fromEnd)).isEqualTo(20.downTo(1).toList())
+        assertThat(fromEnd.nextCursor).isNull()
+        assertThat(fromEnd.prevCursor).isNotNull()
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `invalid cursor returns bad request`() {
+        mockMvc.perform(getAssignmentsWithAnyFilterReq(Exam.SUKO, "?kursori=bm90LWEtY3Vyc29y"))
+            .andExpect(status().isBadRequest)
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `filter options and total count are refreshed after creating an assignment`() {
+        emptyAndSeedNSukoAssignments(ASSIGNMENT_PAGE_SIZE)
+        val filters = SukoFilters(null, null, null, null, null)
+
+        val before = getSukoAssignments(filters)
+        assertEquals(1, before.totalPages)
+        assertThat(before.assignmentFilterOptions.oppimaara).doesNotContain(Oppimaara("TKRUA1"))
+
+        createAssignment<SukoAssignmentDtoOut>(minimalSukoAssignmentIn)
+
+        val after = getSukoAssignments(filters)
+        assertEquals(2, after.totalPages)
+        assertThat(after.assignmentFilterOptions.oppimaara).contains(Oppimaara("TKRUA1"))
+    }
+
     @Test
     @WithOpettajaRole
     fun testSukoFilters() {
@@ -87,7 +87,9 @@ data class TestPuhviAssignmentDtoIn(
 
 data class TestAssignmentsOut<T : AssignmentCardOut>(
     val content: List<T>,
-    val totalPages: Int,
-    val currentPage: Int,
-    val assignmentFilterOptions: AssignmentFilterOptionsDtoOut
+    val totalPages: Int?,
+    val currentPage: Int?,
+    val assignmentFilterOptions: AssignmentFilterOptionsDtoOut,
+    val nextCursor: String? = null,
+    val prevCursor: String? = null
 )
\ No newline at end of file
@@ -0,0 +1,53 @@
+package fi.oph.ludos.auth
+
+import fi.oph.ludos.Constants
+import fi.oph.ludos.WithOpettajaRole
+import fi.oph.ludos.WithYllapitajaRole
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc
+import org.springframework.test.context.TestPropertySource
+import org.springframework.test.web.servlet.MockMvc
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
+import tools.jackson.module.kotlin.jacksonObjectMapper
+import tools.jackson.module.kotlin.readValue
+import java.time.Duration
+
+@TestPropertySource(locations = ["classpath:application.properties"])
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CasControllerTest(@param:Autowired val mockMvc: MockMvc, @param:Autowired val loginMetrics: LoginMetrics) {
+    private val mapper = jacksonObjectMapper()
+
+    private fun getLoginStats() = mockMvc.perform(MockMvcRequestBuilders.get("${Constants.API_PREFIX}/auth/login-stats"))
+
+    @Test
+    @WithYllapitajaRole
+    fun `login stats report every stage`() {
+        val before = loginMetrics.stats()
+        loginMetrics.record(LoginStage.KAYTTOOIKEUS, Duration.ofMillis(40))
+        loginMetrics.record(LoginStage.TOTAL, Duration.ofMillis(60), failed = true)
+
+        val stats: Map<LoginStage, LoginStageStats> = mapper.readValue(
+            getLoginStats().andExpect(status().isOk).andReturn().response.contentAsString
+        )
+
+        assertEquals(LoginStage.entries.toSet(), stats.keys)
+        assertEquals(before.getValue(LoginStage.KAYTTOOIKEUS).count + 1, stats.getValue(LoginStage.KAYTTOOIKEUS).count)
+        assertEquals(before.getValue(LoginStage.TOTAL).failures + 1, stats.getValue(LoginStage.TOTAL).failures)
+        assertEquals(before.getValue(LoginStage.OPPIJANUMEROREKISTERI), stats.getValue(LoginStage.OPPIJANUMEROREKISTERI))
+        assertTrue(stats.getValue(LoginStage.TOTAL).maxMillis >= 60.0)
+    }
+
+    @Test
+    @WithOpettajaRole
+    fun `login stats require yllapitaja role`() {
+        getLoginStats().andExpect(status().isUnauthorized)
+    }
+}
@@ -0,0 +1,181 @@
+package fi.oph.ludos.auth
+
+import fi.oph.ludos.cache.BoundedCacheManager
+import fi.oph.ludos.cache.CacheName
+import org.apereo.cas.client.validation.AssertionImpl
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito
+import org.mockito.Mockito.atMost
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.springframework.security.authentication.AuthenticationServiceException
+import org.springframework.security.cas.authentication.CasAssertionAuthenticationToken
+import org.springframework.web.client.RestClientException
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+class CasUserDetailsServiceTest {
+    private val kayttooikeusClient: KayttooikeusClient = Mockito.mock(KayttooikeusClient::class.java)
+    private val oppijanumerorekisteriClient: OppijanumerorekisteriClient =
+        Mockito.mock(OppijanumerorekisteriClient::class.java)
+    private val loginMetrics = LoginMetrics()
+    private val cacheManager = BoundedCacheManager(Executor { it.run() })
+    private val slowResponse = CountDownLatch(1)
+    private val henkiloRequests = Semaphore(0)
+
+    @Volatile
+    private var henkiloRequestedBeforeKayttooikeudet: Boolean? = null
+    private lateinit var service: CasUserDetailsService
+
+    @BeforeEach
+    fun setup() {
+        cacheManager.afterPropertiesSet()
+        service = CasUserDetailsService(kayttooikeusClient, oppijanumerorekisteriClient, loginMetrics, cacheManager, TIMEOUT, TIMEOUT)
+
+        Mockito.`when`(kayttooikeusClient.kayttooikeudet(anyString())).thenAnswer {
+            val username = it.getArgument<String>(0)
+            when (username) {
+                "hidas" -> slowResponse.await()
+                "virhe" -> throw RestClientException("kayttooikeus-service ei vastaa")
+                "tuntematon" -> return@thenAnswer emptyList<KayttooikeusServiceKayttaja>()
+                // Henkilötietojen haku ehtii alkaa vain, jos se käynnistetään ennen käyttöoikeuksien valmistumista
+                "odottaja" -> henkiloRequestedBeforeKayttooikeudet =
+                    henkiloRequests.tryAcquire(TIMEOUT.toMillis() / 2, TimeUnit.MILLISECONDS)
+            }
+            listOf(KayttooikeusServiceKayttaja("oid-$username", username, "VIRKAILIJA", emptyList()))
+        }
+        Mockito.`when`(oppijanumerorekisteriClient.getUserDetailsByOid(anyString())).thenAnswer {
+            henkiloRequests.release()
+            when (val oid = it.getArgument<String>(0)) {
+                "oid-hidashenkilo" -> {
+                    slowResponse.await()
+                    null
+                }
+                "oid-virhehenkilo" -> throw RestClientException("oppijanumerorekisteri ei vastaa")
+                else -> OppijanumerorekisteriHenkilo("Etu $oid", "Etu", "Suku $oid", null)
+            }
+        }
+    }
+
+    @AfterEach
+    fun tearDown() {
+        slowResponse.countDown()
+        service.shutdown()
+    }
+
+    private fun login(username: String): Kayttajatiedot =
+        service.loadUserDetails(CasAssertionAuthenticationToken(AssertionImpl(username), "ST-$username"))
+
+    private fun stats(stage: LoginStage) = loginMetrics.stats().getValue(stage)
+
+    @Test
+    fun `kayttooikeudet are cached and henkilo is fetched on every login`() {
+        val kayttajatiedot = login("opettaja")
+        assertEquals("oid-opettaja", kayttajatiedot.oidHenkilo)
+        assertEquals("Etu oid-opettaja", kayttajatiedot.etunimet)
+        assertEquals("Suku oid-opettaja", kayttajatiedot.sukunimi)
+
+        assertEquals(kayttajatiedot, login("opettaja"))
+        verify(kayttooikeusClient, times(1)).kayttooikeudet("opettaja")
+        verify(oppijanumerorekisteriClient, times(2)).getUserDetailsByOid("oid-opettaja")
+
+        assertEquals(2L, stats(LoginStage.TOTAL).count)
+        assertEquals(0L, stats(LoginStage.TOTAL).failures)
+        assertEquals(1L, stats(LoginStage.KAYTTOOIKEUS).count)
+        assertEquals(2L, stats(LoginStage.OPPIJANUMEROREKISTERI).count)
+    }
+
+    @Test
+    fun `henkilo of a returning user is fetched alongside kayttooikeudet`() {
+        login("odottaja")
+        assertEquals(false, henkiloRequestedBeforeKayttooikeudet)
+
+        cacheManager.getCache(CacheName.KAYTTOOIKEUS.key)!!.clear()
+        henkiloRequests.drainPermits()
+        val kayttajatiedot = login("odottaja")
+
+        assertEquals(true, henkiloRequestedBeforeKayttooikeudet)
+        assertEquals("Etu oid-odottaja", kayttajatiedot.etunimet)
+        verify(oppijanumerorekisteriClient, times(2)).getUserDetailsByOid("oid-odottaja")
+    }
+
+    @Test
+    fun `henkilo is refetched when the remembered oid no longer matches`() {
+        val usernameToOid = cacheManager.getCache(CacheName.USERNAME_TO_OID.key)!!
+        usernameToOid.put("opettaja", "vanha-oid")
+
+        val kayttajatiedot = login("opettaja")
+
+        assertEquals("oid-opettaja", kayttajatiedot.oidHenkilo)
+        assertEquals("Etu oid-opettaja", kayttajatiedot.etunimet)
+        assertEquals("oid-opettaja", usernameToOid.get("opettaja", String::class.java))
+        verify(oppijanumerorekisteriClient, atMost(1)).getUserDetailsByOid("vanha-oid")
+        verify(oppijanumerorekisteriClient, times(1)).getUserDetailsByOid("oid-opettaja")
+    }
+
+    @Test
+    fun `unknown username gets empty user details without a henkilo lookup`() {
+        val kayttajatiedot = login("tuntematon")
+
+        assertEquals("", kayttajatiedot.oidHenkilo)
+        assertEquals(emptyList<Organisaatio>(), kayttajatiedot.organisaatiot)
+        assertNull(cacheManager.getCache(CacheName.USERNAME_TO_OID.key)!!.get("tuntematon"))
+        verify(oppijanumerorekisteriClient, never()).getUserDetailsByOid(anyString())
+    }
+
+    @Test
+    fun `kayttooikeus timeout fails the login`() {
+        val start = System.nanoTime()
+        assertThrows<AuthenticationServiceException> { login("hidas") }
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+
+        assertTrue(elapsedMillis < TIMEOUT.toMillis() * 4, "login took $elapsedMillis ms")
+        assertEquals(1L, stats(LoginStage.TOTAL).failures)
+        verify(oppijanumerorekisteriClient, never()).getUserDetailsByOid(anyString())
+    }
+
+    @Test
+    fun `kayttooikeus error fails the login and is not cached`() {
+        assertThrows<AuthenticationServiceException> { login("virhe") }
+        assertThrows<AuthenticationServiceException> { login("virhe") }
+
+        verify(kayttooikeusClient, times(2)).kayttooikeudet("virhe")
+        assertEquals(2L, stats(LoginStage.KAYTTOOIKEUS).failures)
+        assertEquals(2L, stats(LoginStage.TOTAL).failures)
+    }
+
+    @Test
+    fun `henkilo timeout does not fail the login`() {
+        val kayttajatiedot = login("hidashenkilo")
+
+        assertEquals("oid-hidashenkilo", kayttajatiedot.oidHenkilo)
+        assertNull(kayttajatiedot.etunimet)
+        assertNull(kayttajatiedot.sukunimi)
+        assertEquals(0L, stats(LoginStage.TOTAL).failures)
+    }
+
+    @Test
+    fun `henkilo error does not fail the login`() {
+        val kayttajatiedot = login("virhehenkilo")
+
+        assertEquals("oid-virhehenkilo", kayttajatiedot.oidHenkilo)
+        assertNull(kayttajatiedot.etunimet)
+        assertEquals(1L, stats(LoginStage.OPPIJANUMEROREKISTERI).failures)
+        assertEquals(0L, stats(LoginStage.TOTAL).failures)
+    }
+
+    companion object {
+        val TIMEOUT: Duration = Duration.ofMillis(500)
+    }
+}
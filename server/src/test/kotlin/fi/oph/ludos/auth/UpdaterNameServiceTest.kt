@@ -0,0 +1,85 @@
+package fi.oph.ludos.auth
+
+import fi.oph.ludos.cache.BoundedCacheManager
+import fi.oph.ludos.cache.CacheName
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+
+class UpdaterNameServiceTest {
+    private val client: OppijanumerorekisteriClient = Mockito.mock(OppijanumerorekisteriClient::class.java)
+    private val slowResponse = CountDownLatch(1)
+    private val cacheManager = BoundedCacheManager(Executor { it.run() })
+    private lateinit var service: OppijanumerorekisteriUpdaterNameService
+
+    @BeforeEach
+    fun setup() {
+        cacheManager.afterPropertiesSet()
+        service = OppijanumerorekisteriUpdaterNameService(client, cacheManager, Duration.ofMillis(200))
+
+        Mockito.`when`(client.getUserDetailsByOid(anyString())).thenAnswer {
+            val oid = it.getArgument<String>(0)
+            if (oid == "slow") {
+                // Kuten socket-luku, odotus ei keskeydy
+                while (slowResponse.count > 0) {
+                    try {
+                        slowResponse.await()
+                    } catch (_: InterruptedException) {
+                    }
+                }
+            }
+            if (oid == "unknown") null else OppijanumerorekisteriHenkilo("Etu $oid", "", "Suku", null)
+        }
+    }
+
+    @AfterEach
+    fun tearDown() {
+        slowResponse.countDown()
+        service.shutdown()
+    }
+
+    @Test
+    fun `names are fetched once per unique oid and cached`() {
+        val names = service.getUpdaterNames(listOf("1", "2", "1"))
+        assertEquals(mapOf("1" to "Etu 1 Suku", "2" to "Etu 2 Suku"), names)
+
+        assertEquals(names, service.getUpdaterNames(listOf("2", "1")))
+        verify(client, times(1)).getUserDetailsByOid("1")
+        verify(client, times(1)).getUserDetailsByOid("2")
+    }
+
+    @Test
+    fun `unresolved oids are left out and retried`() {
+        assertEquals(emptyMap<String, String>(), service.getUpdaterNames(listOf("unknown")))
+        assertEquals(emptyMap<String, String>(), service.getUpdaterNames(listOf("unknown")))
+        verify(client, times(2)).getUserDetailsByOid("unknown")
+    }
+
+    @Test
+    fun `slow lookup does not hold the request past the timeout and is cached when it completes`() {
+        val start = System.nanoTime()
+        val names = service.getUpdaterNames(listOf("1", "slow"))
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+
+        assertEquals(mapOf("1" to "Etu 1 Suku"), names)
+        assertTrue(elapsedMillis < 2_000, "getUpdaterNames took $elapsedMillis ms")
+
+        slowResponse.countDown()
+        val cache = cacheManager.getCache(CacheName.UPDATER_NAME.key)!!
+        val deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos()
+        while (cache.get("slow") == null && System.nanoTime() < deadline) {
+            Thread.sleep(10)
+        }
+        assertEquals(mapOf("slow" to "Etu slow Suku"), service.getUpdaterNames(listOf("slow")))
+        verify(client, times(1)).getUserDetailsByOid("slow")
+    }
+}
@@ -0,0 +1,151 @@
+package fi.oph.ludos.aws
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class AuditSpoolTest {
+    @TempDir
+    lateinit var dir: Path
+
+    private fun AuditSpool.readAll() = read(Int.MAX_VALUE, Int.MAX_VALUE).records.map { it.message }
+
+    @Test
+    fun `committed events are not read again after reopen`() {
+        AuditSpool(dir, 1_000_000).use { spool ->
+            (1..5).forEach { assertTrue(spool.append(it.toLong(), "event $it")) }
+            val batch = spool.read(3, Int.MAX_VALUE)
+            assertEquals(listOf("event 1", "event 2", "event 3"), batch.records.map { it.message })
+            assertEquals(listOf(1L, 2L, 3L), batch.records.map { it.timestamp })
+            assertTrue(batch.full)
+            spool.commit(batch.nextOffset)
+        }
+
+        AuditSpool(dir, 1_000_000).use { spool ->
+            assertEquals(listOf("event 4", "event 5"), spool.readAll())
+        }
+    }
+
+    @Test
+    fun `uncommitted batch is read again after a crash mid-flush`() {
+        // Prosessin kaatumista simuloidaan hylkäämällä puskuri ilman commit-kutsua
+        val crashed = AuditSpool(dir, 1_000_000)
+        (1..3).forEach { crashed.append(it.toLong(), "event $it") }
+        assertEquals(3, crashed.read(Int.MAX_VALUE, Int.MAX_VALUE).records.size)
+        crashed.close()
+
+        AuditSpool(dir, 1_000_000).use { spool ->
+            assertEquals(listOf("event 1", "event 2", "event 3"), spool.readAll())
+        }
+    }
+
+    @Test
+    fun `torn write at the end is truncated on open`() {
+        AuditSpool(dir, 1_000_000).use { spool ->
+            spool.append(1, "complete")
+        }
+        val spoolFile = dir.resolve("audit-spool-0.log")
+        val completeSize = Files.size(spoolFile)
+        Files.write(spoolFile, byteArrayOf(0, 0, 0, 100, 1, 2, 3), StandardOpenOption.APPEND)
+
+        AuditSpool(dir, 1_000_000).use { spool ->
+            assertEquals(completeSize, Files.size(spoolFile))
+            assertTrue(spool.append(2, "after recovery"))
+            assertEquals(listOf("complete", "after recovery"), spool.readAll())
+        }
+    }
+
+    @Test
+    fun `batch is limited by put-log-events byte size`() {
+        AuditSpool(dir, 10_000_000).use { spool ->
+            repeat(3) { spool.append(it.toLong(), "x".repeat(1_000)) }
+            val batch = spool.read(Int.MAX_VALUE, 2 * (1_000 + CLOUDWATCH_EVENT_OVERHEAD_BYTES))
+            assertEquals(2, batch.records.size)
+            assertTrue(batch.full)
+        }
+    }
+
+    @Test
+    fun `append fails when spool is full and file is emptied after everything is committed`() {
+        AuditSpool(dir, 2L * (16 + 7)).use { spool ->
+            assertTrue(spool.append(1, "event 1"))
+            assertTrue(spool.append(2, "event 2"))
+            assertFalse(spool.append(3, "event 3"))
+
+            spool.commit(spool.read(Int.MAX_VALUE, Int.MAX_VALUE).nextOffset)
+            assertEquals(0, spool.pendingBytes)
+            assertEquals(0, Files.size(dir.resolve("audit-spool-0.log")))
+            assertTrue(spool.append(3, "event 3"))
+        }
+    }
+
+    @Test
+    fun `committed prefix is compacted away under steady writes`() {
+        // Jokainen seitsemän merkin tapahtuma vie levyllä 16 + 7 tavua
+        AuditSpool(dir, 1_000_000, compactAfterBytes = 10L * (16 + 7)).use { spool ->
+            spool.append(0, "event 0")
+            (1..1_000).forEach {
+                spool.append(it.toLong(), "event ${it % 10}")
+                val batch = spool.read(1, Int.MAX_VALUE)
+                spool.commit(batch.nextOffset)
+                assertTrue(Files.size(spool.spoolFile) <= 12L * (16 + 7), "spool file has ${Files.size(spool.spoolFile)} bytes")
+            }
+            assertEquals(16L + 7, spool.pendingBytes)
+            assertEquals(listOf("event 0"), spool.readAll())
+        }
+
+        val segments = Files.list(dir).use { files -> files.map { it.fileName.toString() }.toList() }
+        assertEquals(1, segments.count { it.endsWith(".log") }, "segments: $segments")
+        AuditSpool(dir, 1_000_000).use { spool ->
+            assertEquals(listOf("event 0"), spool.readAll())
+        }
+    }
+
+    @Test
+    fun `new generation is read from the start if the offset was not saved after compaction`() {
+        AuditSpool(dir, 1_000_000, compactAfterBytes = 2L * (16 + 7)).use { spool ->
+            (1..3).forEach { spool.append(it.toLong(), "event $it") }
+            spool.commit(spool.read(2, Int.MAX_VALUE).nextOffset)
+            assertEquals(dir.resolve("audit-spool-1.log"), spool.spoolFile)
+        }
+        // Kaatuminen ennen offsetin tallentamista: offset viittaa yhä edelliseen sukupolveen
+        Files.write(dir.resolve("audit-spool.offset"), ByteBuffer.allocate(16).putLong(0).putLong(46).array())
+
+        AuditSpool(dir, 1_000_000).use { spool ->
+            assertEquals(listOf("event 3"), spool.readAll())
+        }
+    }
+
+    @Test
+    fun `events appended from another thread during compaction are kept`() {
+        AuditSpool(dir, 1_000_000, compactAfterBytes = 2L * (16 + 7)).use { spool ->
+            (1..3).forEach { spool.append(it.toLong(), "event $it") }
+            var writerFinished = false
+            spool.afterCompactionCopy = {
+                // Kirjoittaja ei saa jäädä odottamaan tiivistyksen kopiointia
+                val writer = thread { (4..9).forEach { spool.append(it.toLong(), "event $it") } }
+                writer.join(TimeUnit.SECONDS.toMillis(5))
+                writerFinished = !writer.isAlive
+            }
+
+            spool.commit(spool.read(2, Int.MAX_VALUE).nextOffset)
+
+            assertTrue(writerFinished)
+            assertEquals(dir.resolve("audit-spool-1.log"), spool.spoolFile)
+            assertEquals(7L * (16 + 7), spool.pendingBytes)
+            assertEquals((3..9).map { "event $it" }, spool.readAll())
+        }
+
+        AuditSpool(dir, 1_000_000).use { spool ->
+            assertEquals((3..9).map { "event $it" }, spool.readAll())
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package fi.oph.ludos.aws
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.springframework.mock.web.MockMultipartFile
+import org.springframework.web.multipart.MultipartFile
+import software.amazon.awssdk.core.ResponseInputStream
+import software.amazon.awssdk.services.s3.model.GetObjectResponse
+import java.net.URI
+import java.nio.file.Path
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class InMemoryS3Helper(private val blockGetUntil: CountDownLatch? = null) : S3Helper {
+    val objects = ConcurrentHashMap<String, Pair<String, ByteArray>>()
+    val getCount = AtomicInteger()
+
+    override fun putObject(bucket: Bucket, key: String, file: MultipartFile) {
+        objects["$bucket/$key"] = Pair(file.contentType!!, file.bytes)
+    }
+
+    override fun getObject(bucket: Bucket, key: String): ResponseInputStream<GetObjectResponse>? {
+        getCount.incrementAndGet()
+        blockGetUntil?.await()
+        val (contentType, bytes) = objects["$bucket/$key"] ?: return null
+        val response = GetObjectResponse.builder().contentType(contentType).contentLength(bytes.size.toLong()).build()
+        return ResponseInputStream(response, bytes.inputStream())
+    }
+
+    override fun getObjectRange(
+        bucket: Bucket,
+        key: String,
+        start: Long,
+        endInclusive: Long
+    ): ResponseInputStream<GetObjectResponse>? {
+        val (contentType, bytes) = objects["$bucket/$key"] ?: return null
+        val response = GetObjectResponse.builder().contentType(contentType).build()
+        return ResponseInputStream(response, bytes.copyOfRange(start.toInt(), endInclusive.toInt() + 1).inputStream())
+    }
+
+    override fun getObjectSize(bucket: Bucket, key: String): Long? = objects["$bucket/$key"]?.second?.size?.toLong()
+
+    override fun presignGetObject(
+        bucket: Bucket,
+        key: String,
+        signedAt: Instant,
+        expiry: Duration,
+        responseHeaders: DownloadResponseHeaders
+    ): URI = URI.create("https://s3.test/$bucket/$key")
+
+    override fun deleteObject(bucket: Bucket, key: String) {
+        objects.remove("$bucket/$key")
+    }
+}
+
+class CachingS3HelperTest {
+    @TempDir
+    lateinit var cacheDir: Path
+
+    private fun file(key: String, size: Int) = MockMultipartFile(key, key, "application/pdf", ByteArray(size) { it.toByte() })
+
+    private fun S3Helper.readBytes(key: String) = getObject(Bucket.CERTIFICATE, key)!!.use { it.readAllBytes() }
+
+    @Test
+    fun `object is fetched from s3 once and then served from disk`() {
+        val s3 = InMemoryS3Helper()
+        val cache = CachingS3Helper(s3, cacheDir, 1_000_000)
+        val file = file("todistus_1", 1_000)
+        cache.putObject(Bucket.CERTIFICATE, "todistus_1", file)
+
+        repeat(3) { assertArrayEquals(file.bytes, cache.readBytes("todistus_1")) }
+        val response = cache.getObject(Bucket.CERTIFICATE, "todistus_1")!!.use { it.response() }
+
+        assertEquals(1, s3.getCount.get())
+        assertEquals("application/pdf", response.contentType())
+        assertEquals(1_000, response.contentLength())
+        assertEquals(3, cache.stats().hits)
+        assertEquals(1, cache.stats().misses)
+    }
+
+    @Test
+    fun `least recently used object is evicted when cache size is exceeded`() {
+        val s3 = InMemoryS3Helper()
+        val cache = CachingS3Helper(s3, cacheDir, 1_000)
+        listOf("a", "b", "c", "d", "e").forEach { cache.putObject(Bucket.CERTIFICATE, it, file(it, 250)) }
+
+        listOf("a", "b", "c", "d", "a").forEach { cache.readBytes(it) }
+        assertEquals(4, s3.getCount.get())
+        assertEquals(0, cache.stats().evictions)
+
+        // b on pisimpään käyttämättä ollut, joten se poistuu e:n tieltä
+        cache.readBytes("e")
+        cache.readBytes("a")
+        cache.readBytes("b")
+
+        assertEquals(6, s3.getCount.get())
+        assertEquals(2, cache.stats().evictions)
+        assertEquals(1_000, cache.stats().sizeBytes)
+    }
+
+    @Test
+    fun `ranges of cached objects are read from disk`() {
+        val s3 = InMemoryS3Helper()
+        val cache = CachingS3Helper(s3, cacheDir, 1_000_000)
+        val file = file("todistus_1", 1_000)
+        cache.putObject(Bucket.CERTIFICATE, "todistus_1", file)
+        cache.readBytes("todistus_1")
+
+        val range = cache.getObjectRange(Bucket.CERTIFICATE, "todistus_1", 100, 199)!!.use { it.readAllBytes() }
+
+        assertArrayEquals(file.bytes.copyOfRange(100, 200), range)
+        assertEquals(1_000, cache.getObjectSize(Bucket.CERTIFICATE, "todistus_1"))
+        assertEquals(1, s3.getCount.get())
+    }
+
+    @Test
+    fun `concurrent misses for the same key fetch the object once`() {
+        val release = CountDownLatch(1)
+        val s3 = InMemoryS3Helper(blockGetUntil = release)
+        val cache = CachingS3Helper(s3, cacheDir, 1_000_000)
+        val file = file("ohjeliite_1", 10_000)
+        cache.putObject(Bucket.CERTIFICATE, "ohjeliite_1", file)
+
+        val executor = Executors.newFixedThreadPool(8)
+        val results = (1..8).map { executor.submit<ByteArray> { cache.readBytes("ohjeliite_1") } }
+        Thread.sleep(200)
+        release.countDown()
+
+        results.forEach { assertArrayEquals(file.bytes, it.get(10, TimeUnit.SECONDS)) }
+        executor.shutdown()
+        assertEquals(1, s3.getCount.get())
+    }
+
+    @Test
+    fun `deleted object is removed from the cache and missing objects are not cached`() {
+        val s3 = InMemoryS3Helper()
+        val cache = CachingS3Helper(s3, cacheDir, 1_000_000)
+        cache.putObject(Bucket.CERTIFICATE, "todistus_1", file("todistus_1", 100))
+        cache.readBytes("todistus_1")
+
+        cache.deleteObject(Bucket.CERTIFICATE, "todistus_1")
+        assertNull(cache.getObject(Bucket.CERTIFICATE, "todistus_1"))
+        assertNull(cache.getObject(Bucket.CERTIFICATE, "todistus_1"))
+
+        assertEquals(3, s3.getCount.get())
+        assertEquals(0, cache.stats().entries)
+    }
+}
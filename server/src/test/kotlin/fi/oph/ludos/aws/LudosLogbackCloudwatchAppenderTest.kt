@@ -0,0 +1,272 @@
+package fi.oph.ludos.aws
+
+import ch.qos.logback.classic.Level
+import ch.qos.logback.classic.LoggerContext
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder
+import ch.qos.logback.classic.spi.LoggingEvent
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient
+import software.amazon.awssdk.services.cloudwatchlogs.model.CreateLogStreamRequest
+import software.amazon.awssdk.services.cloudwatchlogs.model.CreateLogStreamResponse
+import software.amazon.awssdk.services.cloudwatchlogs.model.InvalidParameterException
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsResponse
+import software.amazon.awssdk.services.cloudwatchlogs.model.RejectedLogEventsInfo
+import software.amazon.awssdk.services.cloudwatchlogs.model.ServiceUnavailableException
+import java.nio.file.Path
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+class StubCloudWatchLogsClient(
+    private var failuresBeforeSuccess: Int = 0,
+    private val blockUntil: CountDownLatch? = null,
+    private var rejectFirst: Boolean = false,
+    private var createFailuresBeforeSuccess: Int = 0,
+    private var rejectedLogEventsInfo: RejectedLogEventsInfo? = null
+) : CloudWatchLogsClient {
+    val createLogStreamCalls = AtomicInteger()
+    val requests = CopyOnWriteArrayList<PutLogEventsRequest>()
+    val putStarted = CountDownLatch(1)
+    val messages: List<String>
+        get() = requests.flatMap { request -> request.logEvents().map { it.message() } }
+
+    override fun serviceName(): String = "logs"
+
+    override fun close() {}
+
+    override fun createLogStream(request: CreateLogStreamRequest): CreateLogStreamResponse {
+        createLogStreamCalls.incrementAndGet()
+        if (createFailuresBeforeSuccess > 0) {
+            createFailuresBeforeSuccess--
+            throw ServiceUnavailableException.builder().message("stub failure").build()
+        }
+        return CreateLogStreamResponse.builder().build()
+    }
+
+    override fun putLogEvents(request: PutLogEventsRequest): PutLogEventsResponse {
+        putStarted.countDown()
+        blockUntil?.await()
+        if (rejectFirst) {
+            rejectFirst = false
+            throw InvalidParameterException.builder().message("stub rejection").build()
+        }
+        if (failuresBeforeSuccess > 0) {
+            failuresBeforeSuccess--
+            throw ServiceUnavailableException.builder().message("stub failure").build()
+        }
+        val timestamps = request.logEvents().map { it.timestamp() }
+        if (timestamps.max() - timestamps.min() >= Duration.ofHours(24).toMillis()) {
+            throw InvalidParameterException.builder().message("log events span more than 24 hours").build()
+        }
+        requests.add(request)
+        val response = PutLogEventsResponse.builder().rejectedLogEventsInfo(rejectedLogEventsInfo).build()
+        rejectedLogEventsInfo = null
+        return response
+    }
+}
+
+class LudosLogbackCloudwatchAppenderTest {
+    private val context = LoggerContext()
+    private val auditLogger = context.getLogger("auditLogger")
+    private val appenders = mutableListOf<LudosLogbackCloudwatchAppender>()
+
+    @TempDir
+    lateinit var spoolDir: Path
+
+    @AfterEach
+    fun stopAppenders() {
+        appenders.forEach { it.stop() }
+    }
+
+    private fun appender(client: CloudWatchLogsClient, configure: LudosLogbackCloudwatchAppender.() -> Unit = {}) =
+        LudosLogbackCloudwatchAppender().apply {
+            context = this@LudosLogbackCloudwatchAppenderTest.context
+            encoder = PatternLayoutEncoder().apply {
+                context = this@LudosLogbackCloudwatchAppenderTest.context
+                pattern = "%msg"
+                start()
+            }
+            localAwsProfileName = "test"
+            logGroupName = "test-audit"
+            cloudWatchLogsClient = client
+            spoolDirectory = spoolDir.toString()
+            maxBatchAgeMillis = 50
+            initialRetryBackoffMillis = 1
+            configure()
+            start()
+            appenders.add(this)
+        }
+
+    private fun event(message: String, timestamp: Long? = null) =
+        LoggingEvent(javaClass.name, auditLogger, Level.INFO, message, null, null).apply {
+            timestamp?.let { timeStamp = it }
+        }
+
+    @Test
+    fun `events are sent in batches in the order they were logged`() {
+        val client = StubCloudWatchLogsClient()
+        val appender = appender(client)
+
+        val messages = (1..500).map { "audit event $it" }
+        messages.forEach { appender.doAppend(event(it)) }
+        appender.stop()
+
+        assertEquals(messages, client.messages)
+        assertTrue(client.requests.size < messages.size, "expected batching, got ${client.requests.size} requests")
+        assertEquals(0, appender.droppedEventCount)
+    }
+
+    @Test
+    fun `batches stay within the put-log-events size limit`() {
+        val client = StubCloudWatchLogsClient()
+        val appender = appender(client)
+
+        val largeMessage = "x".repeat(100_000)
+        repeat(25) { appender.doAppend(event(largeMessage)) }
+        appender.stop()
+
+        assertEquals(25, client.messages.size)
+        assertTrue(client.requests.size >= 3)
+        client.requests.forEach { request ->
+            val bytes = request.logEvents().sumOf { it.message().length + CLOUDWATCH_EVENT_OVERHEAD_BYTES }
+            assertTrue(bytes <= CLOUDWATCH_MAX_BATCH_BYTES, "batch of $bytes bytes")
+        }
+    }
+
+    @Test
+    fun `failed batches are retried`() {
+        val client = StubCloudWatchLogsClient(failuresBeforeSuccess = 2)
+        val appender = appender(client)
+
+        appender.doAppend(event("retried"))
+        appender.stop()
+
+        assertEquals(listOf("retried"), client.messages)
+        assertEquals(0, appender.droppedEventCount)
+    }
+
+    @Test
+    fun `events are kept until cloudwatch recovers from a longer outage`() {
+        val client = StubCloudWatchLogsClient(failuresBeforeSuccess = 10)
+        val appender = appender(client)
+
+        appender.doAppend(event("delayed"))
+        while (client.messages.isEmpty()) {
+            Thread.sleep(10)
+        }
+        appender.stop()
+
+        assertEquals(listOf("delayed"), client.messages)
+        assertEquals(0, appender.droppedEventCount)
+    }
+
+    @Test
+    fun `appender starts and keeps events while the log stream cannot be created`() {
+        val client = StubCloudWatchLogsClient(createFailuresBeforeSuccess = 5)
+        val appender = appender(client)
+        assertTrue(appender.isStarted)
+
+        appender.doAppend(event("logged during outage"))
+        while (client.messages.isEmpty()) {
+            Thread.sleep(10)
+        }
+        appender.stop()
+
+        assertEquals(6, client.createLogStreamCalls.get())
+        assertEquals(listOf("logged during outage"), client.messages)
+        assertEquals(0, appender.droppedEventCount)
+    }
+
+    @Test
+    fun `batch rejected as invalid is dropped and does not block later events`() {
+        val client = StubCloudWatchLogsClient(rejectFirst = true)
+        val appender = appender(client)
+
+        appender.doAppend(event("rejected"))
+        client.putStarted.await()
+        appender.doAppend(event("accepted"))
+        appender.stop()
+
+        assertEquals(listOf("accepted"), client.messages)
+        assertEquals(1, appender.droppedEventCount)
+    }
+
+    @Test
+    fun `backlog spanning more than 24 hours is sent in separate batches`() {
+        val client = StubCloudWatchLogsClient()
+        val appender = appender(client)
+        val now = System.currentTimeMillis()
+        val hour = Duration.ofHours(1).toMillis()
+
+        appender.doAppend(event("before outage", now - 30 * hour))
+        appender.doAppend(event("during outage", now - 20 * hour))
+        appender.doAppend(event("after outage", now - 2 * hour))
+        appender.doAppend(event("now", now))
+        appender.stop()
+
+        assertEquals(listOf("before outage", "during outage", "after outage", "now"), client.messages)
+        assertTrue(client.requests.size >= 2)
+        assertEquals(0, appender.droppedEventCount)
+    }
+
+    @Test
+    fun `events rejected as too old or too new are counted as dropped`() {
+        val rejected = RejectedLogEventsInfo.builder().tooOldLogEventEndIndex(1).tooNewLogEventStartIndex(3).build()
+        val client = StubCloudWatchLogsClient(rejectedLogEventsInfo = rejected)
+        // Kaikki tapahtumat lähtevät samassa erässä vasta pysäytettäessä
+        val appender = appender(client) { maxBatchAgeMillis = 60_000 }
+
+        repeat(4) { appender.doAppend(event("event $it")) }
+        appender.stop()
+
+        assertEquals(1, client.requests.size)
+        assertEquals(2, appender.droppedEventCount)
+    }
+
+    @Test
+    fun `unsent events are sent after restart`() {
+        val failingClient = StubCloudWatchLogsClient(failuresBeforeSuccess = Int.MAX_VALUE)
+        val firstAppender = appender(failingClient)
+        val messages = (1..5).map { "audit event $it" }
+        messages.forEach { firstAppender.doAppend(event(it)) }
+        firstAppender.stop()
+
+        assertEquals(emptyList<String>(), failingClient.messages)
+        assertTrue(firstAppender.pendingBytes > 0)
+
+        val client = StubCloudWatchLogsClient()
+        val secondAppender = appender(client)
+        secondAppender.stop()
+
+        assertEquals(messages, client.messages)
+        assertEquals(0, secondAppender.pendingBytes)
+    }
+
+    @Test
+    fun `events are dropped instead of blocking when the spool is full`() {
+        val release = CountDownLatch(1)
+        val client = StubCloudWatchLogsClient(blockUntil = release)
+        // Tilaa tasan 11 seitsemän merkin tapahtumalle
+        val appender = appender(client) { maxSpoolBytes = 11L * (16 + 7) }
+        appender.doAppend(event("blocked"))
+        client.putStarted.await()
+
+        val start = System.nanoTime()
+        repeat(100) { appender.doAppend(event("event $it")) }
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+        assertTrue(elapsedMillis < 1_000, "appending took $elapsedMillis ms")
+
+        assertEquals(11L * (16 + 7), appender.pendingBytes)
+        assertEquals(90, appender.droppedEventCount)
+
+        release.countDown()
+        appender.stop()
+        assertEquals(listOf("blocked") + (0..9).map { "event $it" }, client.messages)
+    }
+}
@@ -0,0 +1,119 @@
+package fi.oph.ludos.aws
+
+import tools.jackson.module.kotlin.readValue
+import fi.oph.ludos.Constants
+import fi.oph.ludos.Exam
+import fi.oph.ludos.WithYllapitajaRole
+import fi.oph.ludos.YllapitajaSecurityContextFactory
+import fi.oph.ludos.auth.OppijanumerorekisteriClient
+import fi.oph.ludos.auth.OppijanumerorekisteriHenkilo
+import fi.oph.ludos.certificate.CertificateRequests
+import fi.oph.ludos.certificate.SukoCertificateDtoOut
+import fi.oph.ludos.certificate.attachmentFileNameToCreate
+import fi.oph.ludos.certificate.sukoCertificateToCreate
+import fi.oph.ludos.image.ImageDtoOut
+import jakarta.transaction.Transactional
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
+import org.springframework.mock.web.MockMultipartFile
+import org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf
+import org.springframework.test.context.TestPropertySource
+import org.springframework.test.context.bean.override.mockito.MockitoBean
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.time.Instant
+
+@TestPropertySource(
+    locations = ["classpath:application.properties"],
+    properties = ["features.presigned-downloads=true"]
+)
+@SpringBootTest
+@Transactional
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PresignedDownloadsTest : CertificateRequests() {
+    @MockitoBean
+    private lateinit var mockOppijanumerorekisteriClient: OppijanumerorekisteriClient
+
+    @BeforeEach
+    fun setupMocks() {
+        Mockito.`when`(mockOppijanumerorekisteriClient.getUserDetailsByOid(anyString()))
+            .thenReturn(OppijanumerorekisteriHenkilo(YllapitajaSecurityContextFactory().kayttajatiedot()))
+    }
+
+    private fun window() = Instant.now().epochSecond / PRESIGNED_URL_WINDOW.seconds
+
+    private fun getRedirectLocation(url: String): String {
+        fun redirect() = mockMvc.perform(MockMvcRequestBuilders.get(url))
+            .andExpect(status().isFound)
+            .andReturn().response
+
+        val windowBefore = window()
+        val first = redirect()
+        val second = redirect()
+        val maxAge = Regex("max-age=(\\d+), private").matchEntire(first.getHeader(HttpHeaders.CACHE_CONTROL)!!)!!
+            .groupValues[1].toLong()
+        assertTrue(maxAge <= PRESIGNED_URL_WINDOW.seconds, "max-age $maxAge")
+        // Saman ikkunan aikana osoite pysyy samana, jotta selain voi käyttää välimuistissa olevaa objektia
+        if (window() == windowBefore) {
+            assertEquals(first.redirectedUrl, second.redirectedUrl)
+        }
+        return first.redirectedUrl!!
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `attachment download redirects to a signed url`() {
+        val fixture = readAttachmentFixtureFile(attachmentFileNameToCreate)
+        val certificate: SukoCertificateDtoOut = mapper.readValue(
+            performWithCsrf(postCertificate(mapper.writeValueAsString(sukoCertificateToCreate), attachmentFileNameToCreate))
+                .andExpect(status().isOk)
+                .andReturn().response.contentAsString
+        )
+
+        val fileKey = certificate.attachmentFi.fileKey
+        val location = getRedirectLocation("${Constants.API_PREFIX}/certificate/${Exam.SUKO}/attachment/$fileKey")
+        assertTrue(location.startsWith("${Constants.API_PREFIX}/local-s3/CERTIFICATE/$fileKey?"), location)
+
+        val download = mockMvc.perform(MockMvcRequestBuilders.get(URI.create(location)))
+            .andExpect(status().isOk)
+            .andReturn().response
+        assertArrayEquals(fixture.bytes, download.contentAsByteArray)
+        assertEquals("application/pdf", download.contentType)
+        assertEquals("inline; filename=\"$attachmentFileNameToCreate\"", download.getHeader(HttpHeaders.CONTENT_DISPOSITION))
+        assertEquals("max-age=31536000, private, immutable", download.getHeader(HttpHeaders.CACHE_CONTROL))
+
+        val tampered = location.replace("inline", "attachment")
+        mockMvc.perform(MockMvcRequestBuilders.get(URI.create(tampered))).andExpect(status().isForbidden)
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `image download redirects to a signed url`() {
+        val imageBytes = Files.readAllBytes(Paths.get("src/main/resources/fixtures/test-image.png"))
+        val upload = MockMvcRequestBuilders.multipart(HttpMethod.POST, "${Constants.API_PREFIX}/image")
+            .file(MockMultipartFile("file", "test-image.png", "image/png", imageBytes))
+            .with(csrf())
+        val image: ImageDtoOut = mapper.readValue(
+            mockMvc.perform(upload).andExpect(status().isOk).andReturn().response.contentAsString
+        )
+
+        val location = getRedirectLocation(image.url)
+        val download = mockMvc.perform(MockMvcRequestBuilders.get(URI.create(location)))
+            .andExpect(status().isOk)
+            .andReturn().response
+        assertArrayEquals(imageBytes, download.contentAsByteArray)
+        assertEquals("image/png", download.contentType)
+    }
+}
@@ -0,0 +1,130 @@
+package fi.oph.ludos.cache
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
+
+class BoundedCacheTest {
+    private var now = 0L
+    private val pendingRefreshes = mutableListOf<Runnable>()
+    private val manualExecutor = Executor { pendingRefreshes.add(it) }
+
+    private fun cache(
+        maxSize: Int = 10,
+        expireAfterWrite: Duration? = null,
+        refreshAfterWrite: Duration? = null
+    ) = BoundedCache("test", maxSize, expireAfterWrite, refreshAfterWrite, manualExecutor) { now }
+
+    @Test
+    fun `least recently used entry is evicted when max size is exceeded`() {
+        val cache = cache(maxSize = 2)
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.get("a")
+        cache.put("c", 3)
+
+        assertEquals(1, cache.get("a")?.get())
+        assertNull(cache.get("b"))
+        assertEquals(3, cache.get("c")?.get())
+        assertEquals(1, cache.stats().evictions)
+        assertEquals(2, cache.stats().size)
+    }
+
+    @Test
+    fun `entry expires after write`() {
+        val cache = cache(expireAfterWrite = Duration.ofSeconds(10))
+        cache.put("a", 1)
+
+        now += Duration.ofSeconds(9).toNanos()
+        assertEquals(1, cache.get("a")?.get())
+
+        now += Duration.ofSeconds(1).toNanos()
+        assertNull(cache.get("a"))
+
+        val stats = cache.stats()
+        assertEquals(1, stats.hits)
+        assertEquals(1, stats.misses)
+        assertEquals(1, stats.expirations)
+    }
+
+    @Test
+    fun `stale entry is returned and refreshed in background`() {
+        val cache = cache(refreshAfterWrite = Duration.ofSeconds(10))
+        var loads = 0
+        val loader = Callable { ++loads }
+
+        assertEquals(1, cache.get("a", loader))
+        now += Duration.ofSeconds(10).toNanos()
+
+        assertEquals(1, cache.get("a", loader))
+        assertEquals(1, cache.get("a", loader))
+        assertEquals(1, pendingRefreshes.size, "Only one refresh should be scheduled")
+
+        pendingRefreshes.removeFirst().run()
+        assertEquals(2, cache.get("a", loader))
+        assertEquals(1, cache.stats().refreshes)
+    }
+
+    @Test
+    fun `clear removes all entries`() {
+        val cache = cache()
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.clear()
+
+        assertNull(cache.get("a"))
+        assertEquals(0, cache.stats().size)
+    }
+
+    @Test
+    fun `load started before clear does not write its value back`() {
+        val cache = cache()
+        val value = cache.get("a", Callable {
+            // Toinen säie mitätöi välimuistin, kun lataus on jo lukenut vanhan arvon
+            cache.clear()
+            "stale"
+        })
+
+        assertEquals("stale", value)
+        assertNull(cache.get("a"))
+        assertEquals("fresh", cache.get("a", Callable { "fresh" }))
+        assertEquals("fresh", cache.get("a")?.get())
+    }
+
+    @Test
+    fun `refresh started before evict does not write its value back`() {
+        val cache = cache(refreshAfterWrite = Duration.ofSeconds(10))
+        cache.get("a", Callable { 1 })
+        cache.get("b", Callable { 1 })
+        now += Duration.ofSeconds(10).toNanos()
+
+        assertEquals(1, cache.get("a", Callable { cache.evict("a"); 2 }))
+        assertEquals(1, cache.get("b", Callable { cache.evict("a"); 2 }))
+        pendingRefreshes.removeFirst().run()
+        pendingRefreshes.removeFirst().run()
+
+        assertNull(cache.get("a"))
+        assertEquals(1, cache.get("b")?.get())
+        assertEquals(0, cache.stats().refreshes)
+
+        // Hylätyn päivityksen jälkeen arvo päivitetään seuraavalla kerralla
+        assertEquals(1, cache.get("b", Callable { 3 }))
+        pendingRefreshes.removeFirst().run()
+        assertEquals(3, cache.get("b")?.get())
+    }
+
+    @Test
+    fun `putIfGeneration is rejected after invalidation`() {
+        val cache = cache()
+        val generation = cache.generation()
+        cache.evict("other")
+
+        assertEquals(false, cache.putIfGeneration("a", 1, generation))
+        assertNull(cache.get("a"))
+        assertEquals(true, cache.putIfGeneration("a", 1, cache.generation()))
+        assertEquals(1, cache.get("a")?.get())
+    }
+}
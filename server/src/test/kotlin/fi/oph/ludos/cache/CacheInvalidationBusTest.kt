@@ -0,0 +1,58 @@
+package fi.oph.ludos.cache
+
+import fi.oph.ludos.ContentType
+import org.awaitility.Awaitility.await
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.cache.CacheManager
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.RowCallbackHandler
+import org.springframework.test.context.TestPropertySource
+import java.time.Duration
+
+@TestPropertySource(locations = ["classpath:application.properties"])
+@SpringBootTest
+class CacheInvalidationBusTest(
+    @param:Autowired val cacheInvalidationBus: CacheInvalidationBus,
+    @param:Autowired val cacheManager: CacheManager,
+    @param:Autowired val jdbcTemplate: JdbcTemplate,
+) {
+    private val metadataCache get() = cacheManager.getCache(CacheName.ASSIGNMENT_LIST_METADATA.key)!!
+
+    @Test
+    fun `content change evicts only caches invalidated by the content type`() {
+        metadataCache.put("key", "value")
+        cacheInvalidationBus.contentChanged(ContentType.INSTRUCTION)
+        assertNotNull(metadataCache.get("key"))
+
+        cacheInvalidationBus.contentChanged(ContentType.ASSIGNMENT)
+        assertNull(metadataCache.get("key"))
+    }
+
+    @Test
+    fun `notification from another instance evicts local cache`() {
+        metadataCache.put("key", "value")
+        jdbcTemplate.query(
+            "SELECT pg_notify(?, ?)",
+            RowCallbackHandler { },
+            CACHE_INVALIDATION_CHANNEL,
+            ContentType.ASSIGNMENT.toString()
+        )
+
+        await().atMost(Duration.ofSeconds(15)).until { metadataCache.get("key") == null }
+    }
+
+    @Test
+    fun `listener uses its own connection outside the pool`() {
+        await().atMost(Duration.ofSeconds(15)).until {
+            jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_stat_activity WHERE application_name = ? AND query LIKE 'LISTEN%'",
+                Int::class.java,
+                CACHE_INVALIDATION_APPLICATION_NAME
+            )!! >= 1
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package fi.oph.ludos.cache
+
+import fi.oph.ludos.*
+import fi.oph.ludos.assignment.AssignmentRequests
+import fi.oph.ludos.assignment.LdAssignmentDtoOut
+import jakarta.transaction.Transactional
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.http.HttpHeaders
+import org.springframework.test.context.TestPropertySource
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+import org.springframework.test.web.servlet.request.RequestPostProcessor
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
+
+@TestPropertySource(locations = ["classpath:application.properties"])
+@SpringBootTest
+@Transactional
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ContentEtagsTest : AssignmentRequests() {
+    @BeforeAll
+    fun setup() {
+        emptyDb(mockMvc)
+    }
+
+    private fun getEtag(url: String, user: RequestPostProcessor = yllapitajaUser): String {
+        val response = mockMvc.perform(MockMvcRequestBuilders.get(url).with(user))
+            .andExpect(status().isOk)
+            .andReturn().response
+        assertThat(response.getHeaders(HttpHeaders.ETAG)).hasSize(1)
+        return response.getHeader(HttpHeaders.ETAG)!!
+    }
+
+    private fun getStatusWithEtag(url: String, etag: String, user: RequestPostProcessor = yllapitajaUser): Int {
+        val response = mockMvc.perform(MockMvcRequestBuilders.get(url).header(HttpHeaders.IF_NONE_MATCH, etag).with(user))
+            .andReturn().response
+        assertThat(response.getHeaders(HttpHeaders.ETAG)).hasSize(1)
+        return response.status
+    }
+
+    @Test
+    fun `matching etag returns 304 until the content changes`() {
+        val assignment = createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn)
+        val url = "${Constants.API_PREFIX}/assignment/${Exam.LD}/${assignment.id}"
+
+        val etag = getEtag(url)
+        assertThat(getStatusWithEtag(url, etag)).isEqualTo(304)
+        assertThat(getEtag(url, opettajaUser)).isNotEqualTo(etag)
+
+        createNewVersionOfAssignment(assignment.id, minimalLdAssignmentIn.copy(nameFi = "Uusi nimi"))
+        assertThat(getStatusWithEtag(url, etag)).isEqualTo(200)
+    }
+
+    @Test
+    fun `favorite changes change favorite etags`() {
+        val assignment = createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn)
+        val url = "${Constants.API_PREFIX}/assignment/favorites/${Exam.LD}/cardFolders"
+
+        val etag = getEtag(url)
+        assertThat(getStatusWithEtag(url, etag)).isEqualTo(304)
+
+        setAssignmentFavoriteFolders(Exam.LD, assignment.id, listOf(0), yllapitajaUser)
+        assertThat(getStatusWithEtag(url, etag)).isEqualTo(200)
+    }
+
+    @Test
+    fun `favorite changes of another user do not change favorite etags`() {
+        val assignment = createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn)
+        val url = "${Constants.API_PREFIX}/assignment/favorites/${Exam.LD}/cardFolders"
+
+        val etag = getEtag(url, opettajaUser)
+        setAssignmentFavoriteFolders(Exam.LD, assignment.id, listOf(0), yllapitajaUser)
+        assertThat(getStatusWithEtag(url, etag, opettajaUser)).isEqualTo(304)
+
+        setAssignmentFavoriteFolders(Exam.LD, assignment.id, listOf(0), opettajaUser)
+        assertThat(getStatusWithEtag(url, etag, opettajaUser)).isEqualTo(200)
+    }
+}
@@ -23,6 +23,7 @@ import org.mockito.ArgumentMatchers.anyString
 import org.mockito.Mockito
 import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc
 import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.http.HttpHeaders
 import org.springframework.test.context.bean.override.mockito.MockitoBean
 import org.springframework.test.context.TestPropertySource
 import org.springframework.test.web.servlet.request.RequestPostProcessor
@@ -312,7 +313,14 @@ class CertificateControllerTest : CertificateRequests() {
                     )
                 }
 
-                when (val updatedCertificateById = updateCertificateAndCheckIt(createdCertificate, editedCertificate)) {
+                val updatedCertificateById = updateCertificateAndCheckIt(createdCertificate, editedCertificate)
+                assertEquals(
+                    listOf(2),
+                    getAllCertificates(exam, CertificateFilters(jarjesta = "desc"))
+                        .filter { it.id == createdCertificate.id }.map { it.version }
+                )
+
+                when (updatedCertificateById) {
                     is SukoCertificateDtoOut -> assertEquals(
                         (editedCertificate as TestSukoCertificateIn).descriptionFi,
                         updatedCertificateById.descriptionFi
@@ -650,4 +658,79 @@ class CertificateControllerTest : CertificateRequests() {
                 assertEquals(createdCertificate.createdAt, updatedCertificateById.createdAt)
             }
         }
+
+    @Test
+    @WithYllapitajaRole
+    fun `attachment supports byte range requests`() {
+        val certificate = createCertificateByExamAndCheckIt(Exam.SUKO)
+        val fileKey = certificate.attachmentFi.fileKey
+        val content = readAttachmentFixtureFile(attachmentFileNameToCreate).bytes
+        val etag = "\"$fileKey\""
+
+        fun getRange(range: String, ifRange: String? = null) = mockMvc.perform(
+            getAttachment(Exam.SUKO, fileKey).header(HttpHeaders.RANGE, range).apply {
+                ifRange?.let { header(HttpHeaders.IF_RANGE, it) }
+            }
+        ).andReturn().response
+
+        val full = mockMvc.perform(getAttachment(Exam.SUKO, fileKey)).andExpect(status().isOk).andReturn().response
+        assertEquals("bytes", full.getHeader(HttpHeaders.ACCEPT_RANGES))
+        assertEquals(etag, full.getHeader(HttpHeaders.ETAG))
+
+        val single = getRange("bytes=10-109", ifRange = etag)
+        assertEquals(206, single.status)
+        assertArrayEquals(content.copyOfRange(10, 110), single.contentAsByteArray)
+        assertEquals("bytes 10-109/${content.size}", single.getHeader(HttpHeaders.CONTENT_RANGE))
+        assertEquals("application/pdf", single.contentType)
+
+        val suffix = getRange("bytes=-50")
+        assertEquals(206, suffix.status)
+        assertArrayEquals(content.copyOfRange(content.size - 50, content.size), suffix.contentAsByteArray)
+
+        val multipart = getRange("bytes=0-9,20-29")
+        assertEquals(206, multipart.status)
+        assertTrue(multipart.contentType!!.startsWith("multipart/byteranges; boundary="))
+        assertEquals(multipart.contentAsByteArray.size.toLong(), multipart.getHeader(HttpHeaders.CONTENT_LENGTH)!!.toLong())
+        val multipartBody = String(multipart.contentAsByteArray, Charsets.ISO_8859_1)
+        listOf(0..9, 20..29).forEach { range ->
+            assertTrue(multipartBody.contains("Content-Range: bytes ${range.first}-${range.last}/${content.size}"))
+            assertTrue(multipartBody.contains(String(content.copyOfRange(range.first, range.last + 1), Charsets.ISO_8859_1)))
+        }
+
+        val staleIfRange = getRange("bytes=10-109", ifRange = "\"todistuspohja_other\"")
+        assertEquals(200, staleIfRange.status)
+        assertArrayEquals(content, staleIfRange.contentAsByteArray)
+
+        val unsatisfiable = getRange("bytes=${content.size}-")
+        assertEquals(416, unsatisfiable.status)
+        assertEquals("bytes */${content.size}", unsatisfiable.getHeader(HttpHeaders.CONTENT_RANGE))
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `overlapping attachment ranges are merged and oversized range sets are rejected`() {
+        val certificate = createCertificateByExamAndCheckIt(Exam.SUKO)
+        val fileKey = certificate.attachmentFi.fileKey
+        val content = readAttachmentFixtureFile(attachmentFileNameToCreate).bytes
+
+        fun getRange(range: String) =
+            mockMvc.perform(getAttachment(Exam.SUKO, fileKey).header(HttpHeaders.RANGE, range)).andReturn().response
+
+        val overlapping = getRange("bytes=20-29,0-9,5-14,15-19")
+        assertEquals(206, overlapping.status)
+        assertEquals("application/pdf", overlapping.contentType)
+        assertEquals("bytes 0-29/${content.size}", overlapping.getHeader(HttpHeaders.CONTENT_RANGE))
+        assertArrayEquals(content.copyOfRange(0, 30), overlapping.contentAsByteArray)
+
+        val separate = getRange("bytes=40-49,0-9,5-14")
+        assertEquals(206, separate.status)
+        val separateBody = String(separate.contentAsByteArray, Charsets.ISO_8859_1)
+        assertEquals(2, Regex("Content-Range: ").findAll(separateBody).count())
+        assertTrue(separateBody.contains("Content-Range: bytes 0-14/${content.size}"))
+        assertTrue(separateBody.contains("Content-Range: bytes 40-49/${content.size}"))
+
+        val wholeFileRepeated = getRange("bytes=" + List(100) { "0-" }.joinToString(","))
+        assertEquals(416, wholeFileRepeated.status)
+        assertEquals("bytes */${content.size}", wholeFileRepeated.getHeader(HttpHeaders.CONTENT_RANGE))
+    }
 }
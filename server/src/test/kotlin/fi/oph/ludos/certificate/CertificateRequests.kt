@@ -151,6 +151,8 @@ abstract class CertificateRequests {
 
         if (filters != null) {
             filters.jarjesta?.let { builder.queryParam("jarjesta", it) }
+            filters.aine?.let { builder.queryParam("aine", it) }
+            builder.queryParam("sivu", filters.sivu.toString())
         }
 
         if (user != null) {
@@ -172,6 +174,18 @@ abstract class CertificateRequests {
         return getAllCertificatesContent<CertificateOut>(res)
     }
 
+    fun getCertificatePage(
+        exam: Exam,
+        filters: CertificateFilters,
+        user: RequestPostProcessor? = null
+    ): TestCertificatesOut<CertificateOut> {
+        val res = mockMvc.perform(getAllCertificatesReq(exam, filters, user))
+            .andExpect(status().isOk())
+            .andReturn().response.contentAsString
+
+        return mapper.readValue<TestCertificatesOut<CertificateOut>>(res)
+    }
+
     fun getAllCertificateVersionsReq(exam: Exam, id: Int) =
         MockMvcRequestBuilders.get("${Constants.API_PREFIX}/certificate/$exam/$id/versions")
             .contentType(MediaType.APPLICATION_JSON)
@@ -65,6 +65,41 @@ class GetCertificatesTest : CertificateRequests() {
         return certificates
     }
 
+    @TestFactory
+    @WithYllapitajaRole
+    fun `page past the last one is empty but has metadata`(): Stream<DynamicTest> = Exam.entries.stream().map { exam ->
+        DynamicTest.dynamicTest("$exam") {
+            val page = getCertificatePage(exam, CertificateFilters(jarjesta = "asc", sivu = 2))
+
+            Assertions.assertEquals(emptyList<CertificateOut>(), page.content)
+            Assertions.assertEquals(4, page.totalCount)
+            Assertions.assertEquals(1, page.totalPages)
+            Assertions.assertEquals(2, page.currentPage)
+        }
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `ld certificates are filtered by aine`() {
+        val allLd = getCertificatePage(Exam.LD, CertificateFilters(jarjesta = "asc"))
+        Assertions.assertEquals(listOf("1"), allLd.certificateFilterOptions.aine)
+
+        val matching = getCertificatePage(Exam.LD, CertificateFilters(jarjesta = "asc", aine = "1,2"))
+        Assertions.assertEquals(4, matching.totalCount)
+        Assertions.assertEquals(allLd.content.map { it.id }, matching.content.map { it.id })
+
+        val nonMatching = getCertificatePage(Exam.LD, CertificateFilters(jarjesta = "asc", aine = "2"))
+        Assertions.assertEquals(0, nonMatching.totalCount)
+        Assertions.assertEquals(emptyList<CertificateOut>(), nonMatching.content)
+        Assertions.assertEquals(listOf("1"), nonMatching.certificateFilterOptions.aine)
+    }
+
+    @Test
+    @WithYllapitajaRole
+    fun `non-ld certificates have no aine filter options`() {
+        Assertions.assertNull(getCertificatePage(Exam.SUKO, CertificateFilters(jarjesta = "asc")).certificateFilterOptions.aine)
+    }
+
     @TestFactory
     fun `opettaja cannot get draft certificates by id`(): Stream<DynamicTest> = Exam.entries.stream().map { exam ->
         DynamicTest.dynamicTest("$exam") {
@@ -38,4 +38,8 @@ data class TestLdCertificateIn(
 
 data class TestCertificatesOut<T : CertificateOut>(
     val content: List<T>,
+    val totalCount: Int,
+    val totalPages: Int,
+    val currentPage: Int,
+    val certificateFilterOptions: CertificateFilterOptionsDtoOut
 )
\ No newline at end of file
@@ -389,6 +389,22 @@ class InstructionControllerTest : InstructionRequests() {
         )
     }
 
+    @Test
+    @WithOpettajaRole
+    fun `instruction list page has total count and filter options`() {
+        val firstPage: LdInstructionListDtoOut = getAllInstructions(LdInstructionFilters(jarjesta = "asc", aine = "1,9"))
+        assertEquals(2, firstPage.totalCount)
+        assertEquals(1, firstPage.totalPages)
+        assertEquals(1, firstPage.currentPage)
+
+        val pastLastPage: LdInstructionListDtoOut =
+            getAllInstructions(LdInstructionFilters(jarjesta = "asc", aine = "1,9", sivu = 2))
+        assertEquals(emptyList<LdInstructionDtoOut>(), pastLastPage.content)
+        assertEquals(2, pastLastPage.totalCount)
+        assertEquals(2, pastLastPage.currentPage)
+        assertEquals(firstPage.instructionFilterOptions, pastLastPage.instructionFilterOptions)
+    }
+
     @Test
     @WithOpettajaRole
     fun `get puhvi instruction list as opettaja while filtering`() {
@@ -490,6 +506,10 @@ class InstructionControllerTest : InstructionRequests() {
 
                 updateInstructionWithVaryingAttachments(instructions, createdInstruction)
                 assertUpdatedInstruction(instructions, exam, createdInstruction)
+                assertEquals(
+                    listOf(5),
+                    getAllInstructionsByExam(exam).content.filter { it.id == createdInstruction.id }.map { it.version }
+                )
 
                 val kayttajatiedot = YllapitajaSecurityContextFactory().kayttajatiedot()
                 val expectedUpdaterName = "${kayttajatiedot.etunimet} ${kayttajatiedot.sukunimi}"
@@ -744,6 +764,41 @@ class InstructionControllerTest : InstructionRequests() {
         testDownloadingAttachment(newestInstruction, fixture2, false)
     }
 
+    @Test
+    @WithYllapitajaRole
+    fun `attachments inserted in one version keep their order`() {
+        val fixtureNames = listOf("fixture1.pdf", "fixture2.pdf")
+        val manyAttachments = (1..8).map {
+            InstructionAttachmentIn(
+                readAttachmentFixtureFile(fixtureNames[it % 2], "attachments"),
+                InstructionAttachmentMetadataDtoIn(null, "Liite $it", Language.FI, 1)
+            )
+        }
+
+        val instruction = createInstruction<SukoInstructionDtoOut>(
+            mapper.writeValueAsString(minimalSukoInstructionIn),
+            manyAttachments
+        )
+        assertEquals((1..8).map { "Liite $it" }, instruction.attachments.map { it.name })
+
+        val newAttachments = (9..12).map {
+            InstructionAttachmentIn(
+                readAttachmentFixtureFile(fixtureNames[it % 2], "new-attachments"),
+                InstructionAttachmentMetadataDtoIn(null, "Liite $it", Language.FI, 1)
+            )
+        }
+        val currentAttachmentMetadata = instruction.attachments.reversed().map {
+            InstructionAttachmentMetadataDtoIn(it.fileKey, it.name, it.language, it.instructionVersion)
+        }
+        createNewVersionOfInstruction(instruction.id, minimalSukoInstructionIn, currentAttachmentMetadata, newAttachments)
+
+        val newestInstruction = getInstructionByIdByExam(Exam.SUKO, instruction.id)
+        assertEquals(
+            (9..12).map { "Liite $it" } + (8 downTo 1).map { "Liite $it" },
+            newestInstruction.attachments.map { it.name }
+        )
+    }
+
 
     @Test
     @WithOpettajaRole
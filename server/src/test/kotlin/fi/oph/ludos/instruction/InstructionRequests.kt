@@ -134,6 +134,7 @@ abstract class InstructionRequests {
 
         if (filters != null) {
             filters.jarjesta?.let { builder.queryParam("jarjesta", it) }
+            builder.queryParam("sivu", filters.sivu.toString())
 
             when (filters) {
                 is LdInstructionFilters -> filters.aine?.let { builder.queryParam("aine", it) }
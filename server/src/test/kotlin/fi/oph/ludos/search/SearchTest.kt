@@ -0,0 +1,59 @@
+package fi.oph.ludos.search
+
+import fi.oph.ludos.*
+import fi.oph.ludos.assignment.AssignmentRequests
+import fi.oph.ludos.assignment.LdAssignmentDtoOut
+import jakarta.transaction.Transactional
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.test.context.TestPropertySource
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+import org.springframework.test.web.servlet.request.RequestPostProcessor
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
+import tools.jackson.module.kotlin.readValue
+
+@TestPropertySource(locations = ["classpath:application.properties"])
+@SpringBootTest
+@Transactional
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SearchTest : AssignmentRequests() {
+    @BeforeAll
+    fun setup() {
+        emptyDb(mockMvc)
+    }
+
+    private fun search(hakusana: String, user: RequestPostProcessor = yllapitajaUser): SearchResultListDtoOut {
+        val req = MockMvcRequestBuilders.get("${Constants.API_PREFIX}/search")
+            .param("hakusana", hakusana)
+            .with(user)
+        return mapper.readValue(
+            performWithCsrf(req).andExpect(status().isOk).andReturn().response.contentAsString
+        )
+    }
+
+    @Test
+    fun `search matches name and content of the latest version and respects publish state`() {
+        val published = createAssignment<LdAssignmentDtoOut>(
+            minimalLdAssignmentIn.copy(nameFi = "Kalastusretki", contentFi = listOf("<p>Haukien pyydystäminen</p>"))
+        )
+        createAssignment<LdAssignmentDtoOut>(
+            minimalLdAssignmentIn.copy(nameFi = "Kalastusretken luonnos", publishState = TestPublishState.DRAFT)
+        )
+
+        assertThat(search("kalastusretki").content.map { it.nameFi })
+            .containsExactlyInAnyOrder("Kalastusretki", "Kalastusretken luonnos")
+        assertThat(search("kalastusretki", opettajaUser).content.map { it.nameFi })
+            .containsExactly("Kalastusretki")
+
+        val contentHit = search("hauki").content.single()
+        assertThat(contentHit.contentType).isEqualTo(ContentType.ASSIGNMENT)
+        assertThat(contentHit.id).isEqualTo(published.id)
+
+        createNewVersionOfAssignment(published.id, minimalLdAssignmentIn.copy(nameFi = "Sienimetsä"))
+        assertThat(search("hauki").content).isEmpty()
+        assertThat(search("sienimetsä").content.single().version).isEqualTo(2)
+    }
+}
@@ -0,0 +1,136 @@
+package fi.oph.ludos.search
+
+import fi.oph.ludos.*
+import fi.oph.ludos.assignment.AssignmentRequests
+import fi.oph.ludos.assignment.LdAssignmentDtoOut
+import fi.oph.ludos.cache.CacheName
+import jakarta.transaction.Transactional
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.Mockito.clearInvocations
+import org.mockito.Mockito.mockingDetails
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.cache.CacheManager
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.jdbc.core.namedparam.SqlParameterSource
+import org.springframework.test.context.TestPropertySource
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
+import tools.jackson.module.kotlin.readValue
+
+@TestPropertySource(locations = ["classpath:application.properties"])
+@SpringBootTest
+@Transactional
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SuggestTest : AssignmentRequests() {
+    @Autowired
+    lateinit var cacheManager: CacheManager
+
+    @MockitoSpyBean
+    lateinit var searchRepository: SearchRepository
+
+    @MockitoSpyBean
+    lateinit var namedJdbcTemplate: NamedParameterJdbcTemplate
+
+    @Autowired
+    lateinit var jdbcTemplate: JdbcTemplate
+
+    @BeforeAll
+    fun setup() {
+        emptyDb(mockMvc)
+    }
+
+    @BeforeEach
+    fun clearSuggestionCache() {
+        cacheManager.getCache(CacheName.SEARCH_SUGGESTIONS.key)!!.clear()
+    }
+
+    private fun suggest(hakusana: String): List<SuggestionDtoOut> {
+        val req = MockMvcRequestBuilders.get("${Constants.API_PREFIX}/search/suggest")
+            .param("hakusana", hakusana)
+            .with(opettajaUser)
+        return mapper.readValue(performWithCsrf(req).andExpect(status().isOk).andReturn().response.contentAsString)
+    }
+
+    @Test
+    fun `suggestions contain only latest published names with prefix matches first`() {
+        createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn.copy(nameFi = "Purjehdus saaristossa"))
+        createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn.copy(nameFi = "Saaristolaiselämä"))
+        createAssignment<LdAssignmentDtoOut>(
+            minimalLdAssignmentIn.copy(nameFi = "Saariston luonnos", publishState = TestPublishState.DRAFT)
+        )
+        val renamed = createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn.copy(nameFi = "Saarten kartoitus"))
+        createNewVersionOfAssignment(renamed.id, minimalLdAssignmentIn.copy(nameFi = "Rannikon kartoitus"))
+
+        assertThat(suggest("saar").map { it.nameFi }).containsExactly("Saaristolaiselämä", "Purjehdus saaristossa")
+        assertThat(suggest("kartoitus").single().id).isEqualTo(renamed.id)
+        assertThat(suggest("50%")).isEmpty()
+    }
+
+    @Test
+    fun `longer query is answered from a complete shorter prefix`() {
+        createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn.copy(nameFi = "Metsäretki"))
+        createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn.copy(nameFi = "Metsästys"))
+
+        assertThat(suggest("mets").map { it.nameFi }).containsExactly("Metsäretki", "Metsästys")
+
+        // Kirjoitetaan nimi ohi välimuistin, jolloin vain tietokannasta haettu tulos näkisi muutoksen
+        jdbcTemplate.update("UPDATE ld_assignment SET assignment_name_fi = 'Metsästysseura' WHERE assignment_name_fi = 'Metsästys'")
+        assertThat(suggest("metsäs").map { it.nameFi }).containsExactly("Metsästys")
+        assertThat(suggest("MetsäR").map { it.nameFi }).containsExactly("Metsäretki")
+    }
+
+    @Test
+    fun `suggest query uses trigram indexes`() {
+        clearInvocations(namedJdbcTemplate)
+        searchRepository.suggest("kalastus", null, null, SUGGESTION_LIMIT + 1)
+        val suggestQuery = mockingDetails(namedJdbcTemplate).invocations.last { it.method.name == "query" }
+        val sql = suggestQuery.getArgument<String>(0)
+        val parameters = suggestQuery.getArgument<SqlParameterSource>(1)
+
+        // Seq scan estetään, jolloin suunnittelija valitsee indeksin aina kun ehto sen sallii
+        jdbcTemplate.execute("SET LOCAL enable_seqscan = off")
+        val plan = namedJdbcTemplate.queryForList("EXPLAIN $sql", parameters, String::class.java).joinToString("\n")
+
+        ContentType.entries.forEach { contentType ->
+            Exam.entries.forEach { exam ->
+                val table = "${exam.toString().lowercase()}_${contentType.toString().lowercase()}"
+                assertThat(plan).contains("${table}_name_fi_trgm_index", "${table}_name_sv_trgm_index")
+            }
+        }
+    }
+
+    @Test
+    fun `too short query returns no suggestions`() {
+        createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn.copy(nameFi = "Kalastus"))
+        clearInvocations(searchRepository)
+
+        assertThat(suggest(" ka ")).isEmpty()
+        assertThat(suggestQueryCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun `cached suggestions are answered without querying the database`() {
+        (1..10).forEach {
+            createAssignment<LdAssignmentDtoOut>(minimalLdAssignmentIn.copy(nameFi = "Kalastus $it"))
+        }
+        clearInvocations(searchRepository)
+
+        val first = suggest("kala")
+        assertThat(suggest("kala")).isEqualTo(first)
+        assertThat(suggest("KALA")).isEqualTo(first)
+        assertThat(suggest("kalastus 1").map { it.nameFi }).containsExactly("Kalastus 1", "Kalastus 10")
+
+        assertThat(first).hasSize(10)
+        assertThat(suggestQueryCount()).isEqualTo(1)
+    }
+
+    private fun suggestQueryCount() =
+        mockingDetails(searchRepository).invocations.count { it.method.name == "suggest" }
+}
@@ -0,0 +1,91 @@
+package httputils.auth
+
+import org.apache.http.client.methods.HttpGet
+import org.apache.http.impl.client.BasicCookieStore
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class CasAuthenticatorConcurrencyTest {
+    private class FakeCasAuthenticator(private val ticketDelayMillis: Long) : CasAuthenticator(
+        CasAuthenticator.Builder()
+            .username("user")
+            .password("password")
+            .webCasUrl("https://cas.example")
+            .casServiceUrl("https://service.example")
+    ) {
+        val ticketsFetched = AtomicInteger()
+
+        override fun obtainNewCasServiceAsAUserTicket(): String {
+            Thread.sleep(ticketDelayMillis)
+            return "ST-${ticketsFetched.incrementAndGet()}"
+        }
+    }
+
+    private fun authenticateConcurrently(authenticator: CasAuthenticator, callers: Int, callsPerCaller: Int) {
+        val start = CountDownLatch(1)
+        val cookieStore = BasicCookieStore()
+        Executors.newVirtualThreadPerTaskExecutor().use { executor ->
+            val results = (1..callers).map {
+                executor.submit(Callable {
+                    start.await()
+                    repeat(callsPerCaller) {
+                        val request = HttpGet("https://service.example/resource")
+                        authenticator.authenticate(request, cookieStore)
+                        assertEquals(authenticator.serviceAsAUserTicket, request.getFirstHeader("CasSecurityTicket").value)
+                    }
+                })
+            }
+            start.countDown()
+            executor.shutdown()
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS))
+            results.forEach { it.get() }
+        }
+    }
+
+    @Test
+    fun `concurrent callers share a single ticket renewal`() {
+        val authenticator = FakeCasAuthenticator(ticketDelayMillis = 200)
+        authenticateConcurrently(authenticator, callers = 50, callsPerCaller = 1)
+        assertEquals(1, authenticator.ticketsFetched.get())
+    }
+
+    @Test
+    fun `clearing a stale session does not discard a renewed one`() {
+        val authenticator = FakeCasAuthenticator(ticketDelayMillis = 0)
+        val cookieStore = BasicCookieStore()
+
+        authenticator.authenticate(HttpGet("https://service.example/a"), cookieStore)
+        val staleCaller = Executors.newSingleThreadExecutor()
+        staleCaller.submit(Callable { authenticator.authenticate(HttpGet("https://service.example/b"), cookieStore) }).get()
+
+        authenticator.clearSession()
+        authenticator.authenticate(HttpGet("https://service.example/c"), cookieStore)
+        assertEquals("ST-2", authenticator.serviceAsAUserTicket)
+
+        // Toinen säie käytti hylättyä istuntoa, joten sen tyhjennys ei saa pakottaa uutta tikettiä
+        staleCaller.submit(Callable { authenticator.clearSession() }).get()
+        staleCaller.shutdown()
+        authenticator.authenticate(HttpGet("https://service.example/d"), cookieStore)
+        assertEquals(2, authenticator.ticketsFetched.get())
+    }
+
+    @Test
+    fun `many concurrent calls reuse the valid ticket and a cleared session is renewed once`() {
+        val authenticator = FakeCasAuthenticator(ticketDelayMillis = 50)
+        authenticateConcurrently(authenticator, callers = 16, callsPerCaller = 1_000)
+        assertEquals(1, authenticator.ticketsFetched.get())
+
+        // Istunnon hylkää säie, joka on itse käyttänyt sitä
+        authenticator.authenticate(HttpGet("https://service.example/rejected"), BasicCookieStore())
+        authenticator.clearSession()
+        authenticateConcurrently(authenticator, callers = 16, callsPerCaller = 100)
+        assertEquals(2, authenticator.ticketsFetched.get())
+        assertEquals("ST-2", authenticator.serviceAsAUserTicket)
+    }
+}
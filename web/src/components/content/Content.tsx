@@ -11,6 +11,7 @@ import {
   ContentTypeByContentTypePluralFi,
   ContentTypePluralFi,
   ContentTypeSingularEn,
+  ContentVersionOut,
   Exam,
   isAssignment,
   isCertificate,
@@ -83,9 +84,9 @@ const Content = ({ exam }: ContentProps) => {
     data: versionList,
     error: versionListError,
     refetch: refetchVersionList
-  } = useFetch<ContentBaseOut[]>(
+  } = useFetch<ContentVersionOut[]>(
     ['version'],
-    `${ContentTypeSingularEn[contentType!]}/${exam}/${id}/versions`,
+    `${ContentTypeSingularEn[contentType!]}/${exam}/${id}/history`,
     isYllapitaja
   )
 
@@ -97,7 +98,7 @@ const Content = ({ exam }: ContentProps) => {
     }
   }, [contentType, exam, navigate, state?.returnLocation])
 
-  const restoreOldVersion = (data: ContentBaseOut) =>
+  const restoreOldVersion = (data: ContentVersionOut) =>
     restoreOldContentVersion(data.exam, data.contentType, data.id, data.version)
 
   if (isFetching) {
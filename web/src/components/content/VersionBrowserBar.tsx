@@ -1,6 +1,11 @@
 import { useParams } from 'react-router-dom'
 import { useLudosTranslation } from '../../hooks/useLudosTranslation'
-import { ContentBaseOut, ContentTypeByContentTypePluralFi, ContentTypePluralFi } from '../../types'
+import {
+  ContentBaseOut,
+  ContentTypeByContentTypePluralFi,
+  ContentTypePluralFi,
+  ContentVersionOut
+} from '../../types'
 import { Button } from '../Button'
 import { Icon } from '../Icon'
 import { InternalLink } from '../InternalLink'
@@ -8,10 +13,10 @@ import { contentPagePath, pageNotFoundPath } from '../LudosRoutes'
 
 type VersionBrowserBarProps = {
   data: ContentBaseOut
-  dataList: ContentBaseOut[]
+  dataList: ContentVersionOut[]
   openVersionBrowserClick: () => void
   stopVersionBrowsing: () => void
-  restoreOldVersion: (data: ContentBaseOut) => Promise<any>
+  restoreOldVersion: (data: ContentVersionOut) => Promise<any>
 }
 
 export const VersionBrowserBar = ({
@@ -1,17 +1,22 @@
-import { useContext } from 'react'
+import { useCallback, useContext } from 'react'
+import { SingleValue } from 'react-select'
 import { LudosContext } from '../../../../contexts/LudosContext'
 import { useFetch } from '../../../../hooks/useFetch'
 import { FiltersType, FilterValues } from '../../../../hooks/useFilterValues'
+import { koodisOrDefaultLabel, useKoodisto } from '../../../../hooks/useKoodisto'
 import { useLudosTranslation } from '../../../../hooks/useLudosTranslation'
 import { useUserDetails } from '../../../../hooks/useUserDetails'
-import { ContentOut, ContentType, ContentTypeSingularEn, ContentTypeSingularFi, Exam } from '../../../../types'
+import { CertificatesOut, ContentType, ContentTypeSingularEn, ContentTypeSingularFi, Exam } from '../../../../types'
 import { removeEmpty } from '../../../../utils/assignmentUtils'
 import { preventLineBreaksFromSpace } from '../../../../utils/formatUtils'
 import { buttonClasses } from '../../../Button'
 import { InfoBox } from '../../../InfoBox'
 import { InternalLink } from '../../../InternalLink'
 import { uusiKey } from '../../../LudosRoutes'
+import { currentKoodistoSelectOption, koodistoSelectOptions } from '../../../ludosSelect/helpers'
+import { LudosSelect, LudosSelectOption } from '../../../ludosSelect/LudosSelect'
 import { PageLoadingIndicator } from '../../../PageLoadingIndicator'
+import { Pagination } from '../../../Pagination'
 import { TeachingLanguageSelectWithLabel } from '../../../TeachingLanguageSelect'
 import { ContentOrderFilter } from '../ContentOrderFilter'
 import { CertificateCard } from './CertificateCard'
@@ -21,22 +26,34 @@ type CertificateListProps = {
   filterValues: FilterValues
 }
 
-export const CertificateList = ({ exam, filterValues: { filterValues, setFilterValue } }: CertificateListProps) => {
+export const CertificateList = ({
+  exam,
+  filterValues: { filterValues, setFilterValue, searchStringForNewFilterValue }
+}: CertificateListProps) => {
   const contentType = ContentType.CERTIFICATE
   const { isYllapitaja } = useUserDetails()
   const { t, lt } = useLudosTranslation()
   const { teachingLanguage } = useContext(LudosContext)
+  const { koodistos, sortKooditAlphabetically } = useKoodisto(teachingLanguage)
 
   const singularActiveTab = ContentTypeSingularFi[contentType]
   const removeNullsFromFilterObj = removeEmpty<FiltersType>(filterValues)
 
-  const { data, isFetching, error } = useFetch<ContentOut>(
+  const { data, isFetching, error } = useFetch<CertificatesOut>(
     ['certificateList'],
     `${ContentTypeSingularEn[contentType]}/${exam.toLocaleUpperCase()}?${new URLSearchParams(
       removeNullsFromFilterObj
     ).toString()}`
   )
 
+  const handleFilterChange = useCallback(
+    (key: keyof FiltersType, value: SingleValue<LudosSelectOption>) => {
+      const filterValue = value?.value || null
+      setFilterValue(key, filterValue, true)
+    },
+    [setFilterValue]
+  )
+
   return (
     <div>
       <div className="row my-5 flex-wrap justify-between">
@@ -60,6 +77,25 @@ export const CertificateList = ({ exam, filterValues: { filterValues, setFilterV
           />
         </div>
       </div>
+      {exam === Exam.LD && (
+        <div className="border border-gray-light bg-gray-bg">
+          <div className="w-full p-2 md:w-3/12">
+            <p>{t('filter.aine')}</p>
+            <LudosSelect
+              name="aineFilter"
+              options={koodistoSelectOptions(
+                sortKooditAlphabetically(
+                  koodisOrDefaultLabel(data?.certificateFilterOptions.aine || [], koodistos.ludoslukiodiplomiaine)
+                )
+              )}
+              value={currentKoodistoSelectOption(filterValues.aine, koodistos['ludoslukiodiplomiaine'])}
+              onChange={(opt) => handleFilterChange('aine', opt)}
+              isSearchable
+              isClearable
+            />
+          </div>
+        </div>
+      )}
 
       {error && <InfoBox type="error" i18nKey={lt.contentListErrorMessage[contentType]} />}
 
@@ -74,6 +110,14 @@ export const CertificateList = ({ exam, filterValues: { filterValues, setFilterV
           />
         ))}
       </ul>
+
+      {data && (
+        <Pagination
+          page={filterValues.sivu}
+          totalPages={data.totalPages}
+          searchStringForNewFilterValue={searchStringForNewFilterValue}
+        />
+      )}
     </div>
   )
 }
@@ -25,6 +25,7 @@ import { uusiKey } from '../../../LudosRoutes'
 import { currentKoodistoSelectOption, koodistoSelectOptions } from '../../../ludosSelect/helpers'
 import { LudosSelect, LudosSelectOption } from '../../../ludosSelect/LudosSelect'
 import { PageLoadingIndicator } from '../../../PageLoadingIndicator'
+import { Pagination } from '../../../Pagination'
 import { TeachingLanguageSelectWithLabel } from '../../../TeachingLanguageSelect'
 import { ContentOrderFilter } from '../ContentOrderFilter'
 import { InstructionCard } from './InstructionCard'
@@ -43,7 +44,10 @@ type InstructionListProps = {
   filterValues: FilterValues
 }
 
-export const InstructionList = ({ exam, filterValues: { filterValues, setFilterValue } }: InstructionListProps) => {
+export const InstructionList = ({
+  exam,
+  filterValues: { filterValues, setFilterValue, searchStringForNewFilterValue }
+}: InstructionListProps) => {
   const { isYllapitaja } = useUserDetails()
   const { t, lt } = useLudosTranslation()
   const { teachingLanguage } = useContext(LudosContext)
@@ -126,6 +130,14 @@ export const InstructionList = ({ exam, filterValues: { filterValues, setFilterV
             />
           ))}
       </ul>
+
+      {data && (
+        <Pagination
+          page={filterValues.sivu}
+          totalPages={data.totalPages}
+          searchStringForNewFilterValue={searchStringForNewFilterValue}
+        />
+      )}
     </div>
   )
 }
@@ -1,5 +1,5 @@
 import { useLudosTranslation } from '../../hooks/useLudosTranslation'
-import { ContentBaseOut, ContentType } from '../../types'
+import { ContentType, ContentVersionOut } from '../../types'
 import { toLocaleDate } from '../../utils/formatUtils'
 import { Button } from '../Button'
 import { Icon } from '../Icon'
@@ -12,9 +12,9 @@ import { useModal } from './useModal'
 type ModalProps = {
   open: boolean
   onClose: (refresh?: boolean) => void
-  versionList: ContentBaseOut[]
+  versionList: ContentVersionOut[]
   contentType: ContentType
-  restoreOldVersion: (data: ContentBaseOut) => Promise<any>
+  restoreOldVersion: (data: ContentVersionOut) => Promise<any>
 }
 export const VersionHistoryViewerModal = ({
   open,
@@ -29,7 +29,7 @@ export const VersionHistoryViewerModal = ({
   const versionListLatestFirst = versionList.slice().sort((a, b) => b.version - a.version)
   const latestVersion = versionListLatestFirst[0]?.version
 
-  const update = async (data: ContentBaseOut) => {
+  const update = async (data: ContentVersionOut) => {
     await restoreOldVersion(data)
     onClose(true)
   }
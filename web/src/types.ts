@@ -67,6 +67,11 @@ interface ContentOutFields {
 
 export type ContentBaseOut = ContentBase & ContentOutFields
 
+export type ContentVersionOut = Pick<
+  ContentBaseOut,
+  'id' | 'exam' | 'contentType' | 'version' | 'publishState' | 'updaterOid' | 'updaterName' | 'updatedAt'
+>
+
 export const isAssignment = (data: ContentBase): data is AssignmentOut => data.contentType === ContentType.ASSIGNMENT
 export const isSukoAssignment = (assignment: ContentBase): assignment is SukoAssignmentDtoOut =>
   assignment.exam === Exam.SUKO && isAssignment(assignment)
@@ -139,8 +144,19 @@ export type ContentOut<T = ContentBaseOut> = {
   content: T[]
 }
 
+export type CertificatesOut = {
+  content: ContentBaseOut[]
+  totalCount: number
+  totalPages: number
+  currentPage: number
+  certificateFilterOptions: {
+    aine?: AssignmentFilterOptions['aine']
+  }
+}
+
 export type InstructionsOut = {
   content: InstructionDtoOut[]
+  totalCount: number
   totalPages: number
   currentPage: number
   instructionFilterOptions: {